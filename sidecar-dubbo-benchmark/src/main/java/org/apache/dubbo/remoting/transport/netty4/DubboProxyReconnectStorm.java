@@ -0,0 +1,156 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.utils.NetUtils;
+import org.apache.dubbo.remoting.exchange.ExchangeServer;
+import org.apache.dubbo.remoting.exchange.Exchangers;
+import org.apache.dubbo.remoting.exchange.support.ExchangeHandlerAdapter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.dubbo.remoting.Constants.CODEC_KEY;
+import static org.apache.dubbo.remoting.Constants.SERVER_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.REUSEPORT_KEY;
+
+/**
+ * 重连风暴压测: 模拟 sidecar 重启后大量 SDK 连接同时重连
+ * <p>
+ * 所有线程同时开始建立连接, 每个连接建立后发送一次心跳并等待响应, 以收到响应作为服务端完成 accept 并开始处理的时间点.
+ * 连接在全部完成后才关闭. 不指定地址时依次以关闭与开启 reuseport 启动 dubbo-proxy-netty 服务端各压测一轮,
+ * 指定地址时只压测该地址上已经运行的 sidecar. 一次性的压测不适合 JMH 的迭代模型, 因此直接以 main 运行:
+ * <pre>
+ * java -cp sidecar-dubbo-benchmark/target/benchmarks.jar \
+ *     org.apache.dubbo.remoting.transport.netty4.DubboProxyReconnectStorm [connections] [threads] [host:port]
+ * </pre>
+ * 默认 5000 个连接, 500 个线程
+ */
+public class DubboProxyReconnectStorm {
+
+    /**
+     * hessian2 序列化的双向心跳请求, body 为 null
+     */
+    private static final byte HEARTBEAT_FLAG = (byte) (0x80 | 0x40 | 0x20 | 2);
+
+    private static final int HEADER_LENGTH = 16;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        if (args.length > 2) {
+            int colon = args[2].lastIndexOf(':');
+            InetSocketAddress address = new InetSocketAddress(args[2].substring(0, colon),
+                    Integer.parseInt(args[2].substring(colon + 1)));
+            storm(args[2], address, connections, threads);
+            return;
+        }
+        for (boolean reusePort : new boolean[]{false, true}) {
+            URL url = new URL("exchange", "127.0.0.1", NetUtils.getAvailablePort())
+                    .addParameter(CODEC_KEY, "exchange")
+                    .addParameter(SERVER_KEY, DubboProxyNettyTransporter.NAME)
+                    .addParameter(REUSEPORT_KEY, reusePort);
+            // 心跳由 HeaderExchangeHandler 直接响应, 不会到达业务 handler
+            ExchangeServer server = Exchangers.bind(url, new ExchangeHandlerAdapter() {
+            });
+            try {
+                InetSocketAddress address = new InetSocketAddress(url.getHost(), url.getPort());
+                // 先以十分之一的连接预热, 两轮的 JIT 状态一致
+                storm("warmup reuseport=" + reusePort, address, Math.max(1, connections / 10), threads);
+                storm("reuseport=" + reusePort, address, connections, threads);
+            } finally {
+                server.close();
+            }
+        }
+    }
+
+    private static void storm(String name, InetSocketAddress address, int connections, int threads)
+            throws InterruptedException {
+        long[] latencies = new long[connections];
+        List<Socket> sockets = new ArrayList<>(connections);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = next.getAndIncrement(); i < connections; i = next.getAndIncrement()) {
+                        long begin = System.nanoTime();
+                        Socket socket = new Socket();
+                        try {
+                            socket.connect(address, 30000);
+                            heartbeat(socket, i);
+                            latencies[i] = System.nanoTime() - begin;
+                        } catch (IOException e) {
+                            failures.incrementAndGet();
+                            latencies[i] = -1;
+                        }
+                        synchronized (sockets) {
+                            sockets.add(socket);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        long[] succeeded = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+        System.out.println(name + ": connections: " + connections + ", threads: " + threads
+                + ", failures: " + failures.get() + ", total: " + elapsed / 1000_000 + " ms, throughput: "
+                + (long) (succeeded.length * 1e9 / elapsed) + " conn/s");
+        if (succeeded.length > 0) {
+            System.out.println(name + ": p50: " + percentile(succeeded, 0.50) + " ms, p90: "
+                    + percentile(succeeded, 0.90) + " ms, p99: " + percentile(succeeded, 0.99) + " ms, max: "
+                    + succeeded[succeeded.length - 1] / 1000_000 + " ms");
+        }
+    }
+
+    private static void heartbeat(Socket socket, long id) throws IOException {
+        ByteBuffer request = ByteBuffer.allocate(HEADER_LENGTH + 1);
+        request.put((byte) 0xda).put((byte) 0xbb).put(HEARTBEAT_FLAG).put((byte) 0)
+                .putLong(id).putInt(1)
+                // hessian2 null
+                .put((byte) 'N');
+        OutputStream out = socket.getOutputStream();
+        out.write(request.array());
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] header = new byte[HEADER_LENGTH];
+        in.readFully(header);
+        int len = ByteBuffer.wrap(header, 12, 4).getInt();
+        in.readFully(new byte[len]);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))] / 1000_000;
+    }
+}
@@ -0,0 +1,153 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.utils.NetUtils;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.exchange.ExchangeChannel;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+import org.apache.dubbo.remoting.exchange.ExchangeServer;
+import org.apache.dubbo.remoting.exchange.Exchangers;
+import org.apache.dubbo.remoting.exchange.support.ExchangeHandlerAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.dubbo.remoting.Constants.CLIENT_KEY;
+import static org.apache.dubbo.remoting.Constants.CODEC_KEY;
+import static org.apache.dubbo.remoting.Constants.SERVER_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SHM_PATH_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.UNIX_PATH_KEY;
+
+/**
+ * SDK 与 sidecar 之间各传输层的往返延迟: TCP, unix domain socket 与共享内存
+ * <p>
+ * 服务端同时监听 TCP 端口, domain socket 与共享内存目录, 原样返回请求; 客户端按参数选择传输层, 每次操作为一次同步请求.
+ * 只测量传输层与 exchange 编解码, 不包括 sidecar 转发与 provider 处理. SampleTime 模式下输出 p50 / p99 等分位
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DubboProxyTransportBenchmark {
+
+    @Param({"tcp", "uds", "shm"})
+    private String transport;
+
+    @Param({"128", "4096"})
+    private int payloadSize;
+
+    private File directory;
+
+    private ExchangeServer server;
+
+    private ExchangeClient client;
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        payload = new byte[payloadSize];
+        ThreadLocalRandom.current().nextBytes(payload);
+
+        directory = Files.createTempDirectory("dubbo-proxy-transport").toFile();
+        String unixPath = new File(directory, "proxy.sock").getPath();
+        String shmPath = new File(directory, "shm").getPath();
+        URL url = new URL("exchange", "127.0.0.1", NetUtils.getAvailablePort())
+                .addParameter(CODEC_KEY, "exchange");
+        server = Exchangers.bind(url.addParameter(SERVER_KEY, DubboProxyNettyTransporter.NAME)
+                .addParameter(UNIX_PATH_KEY, unixPath)
+                .addParameter(SHM_PATH_KEY, shmPath), new EchoHandler());
+
+        // 客户端只带所选传输层的路径, 不可用时各传输层会退回 TCP, 因此先确认服务端已经监听
+        switch (transport) {
+            case "tcp":
+                url = url.addParameter(CLIENT_KEY, DubboProxyNettyTransporter.NAME);
+                break;
+            case "uds":
+                requireExists(unixPath);
+                url = url.addParameter(CLIENT_KEY, DubboProxyNettyDomainSocketTransporter.NAME)
+                        .addParameter(UNIX_PATH_KEY, unixPath);
+                break;
+            case "shm":
+                requireExists(shmPath);
+                url = url.addParameter(CLIENT_KEY, DubboProxyShmTransporter.NAME)
+                        .addParameter(SHM_PATH_KEY, shmPath);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown transport " + transport);
+        }
+        client = Exchangers.connect(url, new EchoHandler());
+        if (payloadSize != ((byte[]) roundTrip()).length) {
+            throw new IllegalStateException("Echo payload differs");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+        delete(directory);
+    }
+
+    @Benchmark
+    public Object roundTrip() throws Exception {
+        return client.request(payload).get();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DubboProxyTransportBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    private static void requireExists(String path) {
+        if (!new File(path).exists()) {
+            throw new IllegalStateException(path + " is not listened, epoll or shared memory is unavailable");
+        }
+    }
+
+    private static void delete(File file) {
+        if (file == null) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static final class EchoHandler extends ExchangeHandlerAdapter {
+
+        @Override
+        public CompletableFuture<Object> reply(ExchangeChannel channel, Object request) throws RemotingException {
+            return CompletableFuture.completedFuture(request);
+        }
+    }
+}
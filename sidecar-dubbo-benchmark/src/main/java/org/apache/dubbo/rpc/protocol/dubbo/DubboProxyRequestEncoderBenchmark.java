@@ -0,0 +1,139 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.Version;
+import org.apache.dubbo.common.io.UnsafeByteArrayOutputStream;
+import org.apache.dubbo.common.serialize.hessian2.Hessian2ObjectOutput;
+import org.apache.dubbo.rpc.RpcInvocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.PATH_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.VERSION_KEY;
+
+/**
+ * SDK 编码请求 payload: {@link DubboCodec#encodeRequestData} 与预编译的 {@link DubboProxyRequestEncoder}
+ * <p>
+ * dubboCodec 为改动前的写法, 每次创建 Hessian2ObjectOutput; dubboCodecReusedOutput 只换成线程内复用的输出,
+ * 用于区分预编译与输出复用各自的收益
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DubboProxyRequestEncoderBenchmark {
+
+    /**
+     * primitive: sayHello(String, int, long); bean: sayHello(Model, int)
+     */
+    @Param({"primitive", "bean"})
+    private String arguments;
+
+    private final DubboCodec dubboCodec = new DubboCodec();
+
+    private final UnsafeByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(1024);
+
+    private final String dubboVersion = Version.getProtocolVersion();
+
+    private RpcInvocation invocation;
+
+    @Setup
+    public void setup() throws IOException {
+        if ("primitive".equals(arguments)) {
+            invocation = new RpcInvocation("sayHello", new Class<?>[]{String.class, int.class, long.class},
+                    new Object[]{"dubbo-mesh", 1, 20210706L});
+        } else {
+            invocation = new RpcInvocation("sayHello", new Class<?>[]{Model.class, int.class},
+                    new Object[]{new Model("dubbo-mesh", Arrays.asList("a", "b", "c")), 1});
+        }
+        invocation.setAttachment(PATH_KEY, "com.github.example.TestApi");
+        invocation.setAttachment(VERSION_KEY, "1.0.0");
+        invocation.setAttachment(GROUP_KEY, "some_group");
+        invocation.setAttachment("timeout", "3000");
+
+        // 编码结果必须与 DubboCodec 一致
+        dubboCodec();
+        byte[] expected = bos.toByteArray();
+        precompiled();
+        if (!Arrays.equals(expected, bos.toByteArray())) {
+            throw new IllegalStateException("Precompiled encoder output differs from DubboCodec");
+        }
+    }
+
+    @Benchmark
+    public int dubboCodec() throws IOException {
+        bos.reset();
+        Hessian2ObjectOutput out = new Hessian2ObjectOutput(bos);
+        dubboCodec.encodeRequestData(null, out, invocation, dubboVersion);
+        out.flushBuffer();
+        return bos.size();
+    }
+
+    @Benchmark
+    public int dubboCodecReusedOutput() throws IOException {
+        bos.reset();
+        DubboProxyHessian2ObjectOutput out = DubboProxyHessian2ObjectOutput.acquire(bos);
+        try {
+            dubboCodec.encodeRequestData(null, out, invocation, dubboVersion);
+            out.flushBuffer();
+        } finally {
+            out.cleanup();
+        }
+        return bos.size();
+    }
+
+    @Benchmark
+    public int precompiled() throws IOException {
+        bos.reset();
+        DubboProxyHessian2ObjectOutput out = DubboProxyHessian2ObjectOutput.acquire(bos);
+        try {
+            DubboProxyRequestEncoder.get(invocation, dubboVersion).encode(null, bos, out, invocation);
+            out.flushBuffer();
+        } finally {
+            out.cleanup();
+        }
+        return bos.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DubboProxyRequestEncoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    public static class Model implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        private final List<String> tags;
+
+        public Model(String name, List<String> tags) {
+            this.name = name;
+            this.tags = tags;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.Version;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.buffer.ChannelBuffer;
+import org.apache.dubbo.remoting.buffer.ChannelBufferInputStream;
+import org.apache.dubbo.remoting.buffer.ChannelBuffers;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.rpc.RpcInvocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.PATH_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.VERSION_KEY;
+import static org.apache.dubbo.remoting.Constants.SERIALIZATION_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.Constants.DECODE_IN_IO_THREAD_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SINGLE_PASS_ENCODE_KEY;
+
+/**
+ * 各序列化经过代理转发的开销: SDK 编码请求, 代理解码后重新编码发往上游
+ * <p>
+ * 代理只转发 payload 原始字节, 两个阶段的耗时应当与序列化基本无关, 差异来自 proxy header 的序列化.
+ * setup 中由 {@link DubboCodec} 按 provider 的方式解码转发后的帧, 确认参数与 SDK 发出的一致.
+ * channel buffer 为堆内存, 不覆盖 dubbo-proxy-netty 的零拷贝路径
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DubboProxySerializationBenchmark {
+
+    /**
+     * dubbo 帧 header 长度与序列化 id 掩码, 同 ExchangeCodec
+     */
+    private static final int HEADER_LENGTH = 16;
+
+    private static final int SERIALIZATION_MASK = 0x1f;
+
+    @Param({"hessian2", "java", "compactedjava", "nativejava", "fastjson", "gson", "kryo", "fst", "protostuff", "avro"})
+    private String serialization;
+
+    @Param({"false", "true"})
+    private boolean singlePass;
+
+    private final DubboProxyClientCodec clientCodec = new DubboProxyClientCodec();
+
+    private final DubboProxyServerCodec serverCodec = new DubboProxyServerCodec();
+
+    private final ChannelBuffer sdkBuffer = ChannelBuffers.dynamicBuffer(1024);
+
+    private final ChannelBuffer upstreamBuffer = ChannelBuffers.dynamicBuffer(1024);
+
+    private Channel sdkChannel;
+
+    private Channel proxyChannel;
+
+    private Channel upstreamChannel;
+
+    private RpcInvocation invocation;
+
+    @Setup
+    public void setup() throws Exception {
+        URL url = new URL("dubbo", "127.0.0.1", 20880)
+                .addParameter(SERIALIZATION_KEY, serialization)
+                .addParameter(SINGLE_PASS_ENCODE_KEY, singlePass)
+                .addParameter(DECODE_IN_IO_THREAD_KEY, true);
+        sdkChannel = new LocalChannel(url);
+        proxyChannel = new LocalChannel(url);
+        // 上游连接使用代理自己的序列化配置, 帧中的序列化 id 取自 payload
+        upstreamChannel = new LocalChannel(url.addParameter(SERIALIZATION_KEY, "hessian2"));
+
+        invocation = new RpcInvocation("sayHello", new Class<?>[]{Model.class, String.class, int.class, long.class},
+                new Object[]{new Model("dubbo-mesh", new ArrayList<>(Arrays.asList("a", "b", "c"))),
+                        "hello", 1, 20210706L});
+        invocation.setAttachment(PATH_KEY, "com.github.example.TestApi");
+        invocation.setAttachment(VERSION_KEY, "1.0.0");
+        invocation.setAttachment(GROUP_KEY, "some_group");
+        invocation.setAttachment("timeout", "3000");
+
+        // 第一帧登记服务 id 与动态表, 之后重复解码的是稳定状态的帧
+        sdkEncode();
+        proxyForward();
+        sdkEncode();
+        int sdkFrame = sdkBuffer.readableBytes();
+        proxyForward();
+        int upstreamFrame = upstreamBuffer.readableBytes();
+        // 转发后的帧按 provider 的方式解码, 参数必须与 SDK 发出的一致. provider 与 SDK 配置相同的序列化,
+        // dubbo 只接受与本端配置一致的 java 序列化 id. dubbo 2.7.3 的 DubboCodec 解码请求前先创建一次 ObjectInput,
+        // java 系列序列化因此无法解码, 这里直接按 DubboCodec 的方式用 DecodeableRpcInvocation 解码 body
+        Request decoded = new Request();
+        byte proto = (byte) (upstreamBuffer.getByte(2) & SERIALIZATION_MASK);
+        upstreamBuffer.skipBytes(HEADER_LENGTH);
+        DecodeableRpcInvocation inv = new DecodeableRpcInvocation(new LocalChannel(url), decoded,
+                new ChannelBufferInputStream(upstreamBuffer), proto);
+        inv.decode();
+        Object[] arguments = decoded.isBroken() ? null : inv.getArguments();
+        if (!Arrays.deepEquals(invocation.getArguments(), arguments)) {
+            throw new IllegalStateException(serialization + " arguments differ after forwarding: "
+                    + (decoded.isBroken() ? decoded.getData() : Arrays.toString(arguments)));
+        }
+        System.out.println(serialization + ": sdk frame " + sdkFrame + " bytes, upstream frame "
+                + upstreamFrame + " bytes");
+    }
+
+    /**
+     * SDK 编码请求帧
+     */
+    @Benchmark
+    public int sdkEncode() throws IOException {
+        sdkBuffer.clear();
+        Request request = new Request();
+        request.setVersion(Version.getProtocolVersion());
+        request.setTwoWay(false);
+        request.setData(invocation);
+        clientCodec.encode(sdkChannel, sdkBuffer, request);
+        return sdkBuffer.writerIndex();
+    }
+
+    /**
+     * 代理解码 SDK 的请求帧, 重新编码发往上游
+     */
+    @Benchmark
+    public int proxyForward() throws IOException {
+        sdkBuffer.readerIndex(0);
+        Request request = (Request) serverCodec.decode(proxyChannel, sdkBuffer);
+        if (request.isBroken()) {
+            throw new IOException("Decode request failed: " + request.getData());
+        }
+        upstreamBuffer.clear();
+        Request upstream = new Request(request.getId());
+        upstream.setVersion(request.getVersion());
+        upstream.setTwoWay(false);
+        upstream.setData(request.getData());
+        serverCodec.encode(upstreamChannel, upstreamBuffer, upstream);
+        return upstreamBuffer.writerIndex();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DubboProxySerializationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    public static class Model implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String name;
+
+        private List<String> tags;
+
+        public Model() {
+        }
+
+        public Model(String name, List<String> tags) {
+            this.name = name;
+            this.tags = tags;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Model)) {
+                return false;
+            }
+            Model model = (Model) o;
+            return Objects.equals(name, model.name) && Objects.equals(tags, model.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, tags);
+        }
+    }
+
+    /**
+     * 只提供 url 与属性的连接, 编解码不会通过它收发数据
+     */
+    private static final class LocalChannel implements Channel {
+
+        private final URL url;
+
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+        private LocalChannel(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return new InetSocketAddress(url.getHost(), url.getPort());
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean hasAttribute(String key) {
+            return attributes.containsKey(key);
+        }
+
+        @Override
+        public Object getAttribute(String key) {
+            return attributes.get(key);
+        }
+
+        @Override
+        public void setAttribute(String key, Object value) {
+            attributes.put(key, value);
+        }
+
+        @Override
+        public void removeAttribute(String key) {
+            attributes.remove(key);
+        }
+
+        @Override
+        public URL getUrl() {
+            return url;
+        }
+
+        @Override
+        public ChannelHandler getChannelHandler() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return new InetSocketAddress(url.getHost(), url.getPort());
+        }
+
+        @Override
+        public void send(Object message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void send(Object message, boolean sent) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void close(int timeout) {
+        }
+
+        @Override
+        public void startClose() {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 暴露底层 {@link ByteBuf} 的 ChannelBuffer
+ * <p>
+ * 解码时可以直接从入站帧上切出 retained slice; 编码时可以把已持有的 ByteBuf 追加到出站帧末尾, 不发生内存拷贝
+ */
+public class DubboProxyChannelBuffer extends NettyBackedChannelBuffer {
+
+    private final ByteBuf buffer;
+
+    private List<ByteBuf> appended;
+
+    public DubboProxyChannelBuffer(ByteBuf buffer) {
+        super(buffer);
+        this.buffer = buffer;
+    }
+
+    /**
+     * 从当前读位置切出 length 字节的 retained slice, 读位置随之后移
+     *
+     * @param length 切片长度
+     * @return retained slice, 由调用方负责释放
+     */
+    public ByteBuf readRetainedSlice(int length) {
+        return buffer.readRetainedSlice(length);
+    }
+
+    /**
+     * 将 buffer 追加到帧末尾并接管其引用, 追加之后不能再写入, 只能回填已写入的部分
+     *
+     * @param payload 追加的 buffer
+     */
+    public void append(ByteBuf payload) {
+        if (appended == null) {
+            appended = new ArrayList<>(2);
+        }
+        appended.add(payload);
+    }
+
+    /**
+     * @return 追加的总字节数
+     */
+    public int appendedBytes() {
+        int bytes = 0;
+        if (appended != null) {
+            for (ByteBuf buf : appended) {
+                bytes += buf.readableBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 生成最终出站的 ByteBuf, 存在追加内容时组合为 {@link CompositeByteBuf}
+     */
+    ByteBuf toByteBuf() {
+        if (appended == null) {
+            return buffer;
+        }
+        CompositeByteBuf composite = buffer.alloc().compositeBuffer(appended.size() + 1);
+        composite.addComponent(true, buffer);
+        for (ByteBuf buf : appended) {
+            composite.addComponent(true, buf);
+        }
+        appended = null;
+        return composite;
+    }
+
+    /**
+     * 编码失败时释放全部内容
+     */
+    void release() {
+        ReferenceCountUtil.safeRelease(buffer);
+        if (appended != null) {
+            for (ByteBuf buf : appended) {
+                ReferenceCountUtil.safeRelease(buf);
+            }
+            appended = null;
+        }
+    }
+}
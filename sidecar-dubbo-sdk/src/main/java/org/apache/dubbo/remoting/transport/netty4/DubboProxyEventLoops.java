@@ -0,0 +1,128 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 服务端 IO 线程, 供上游客户端按序号绑定
+ * <p>
+ * 第一个打开的 {@link DubboProxyNettyServer} 登记自己的 worker 线程组. 带有
+ * {@link org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants#EVENT_LOOP_KEY} 的客户端连接建立在对应序号的
+ * IO 线程上, 在第 i 个 IO 线程上收到的请求从第 i 个上游连接发出, 响应也在同一线程上收到并写回,
+ * 不需要跨线程提交任务
+ */
+public final class DubboProxyEventLoops {
+
+    private static volatile Loops current;
+
+    /**
+     * 当前线程在 {@link #current} 中的序号
+     */
+    private static final ThreadLocal<Index> INDEX = new ThreadLocal<>();
+
+    private DubboProxyEventLoops() {
+    }
+
+    static synchronized void register(EventLoopGroup group) {
+        if (current == null) {
+            current = new Loops(group);
+        }
+    }
+
+    static synchronized void unregister(EventLoopGroup group) {
+        if (current != null && current.group == group) {
+            current = null;
+        }
+    }
+
+    /**
+     * @return 已登记的 IO 线程数, 没有登记时返回 0
+     */
+    public static int size() {
+        Loops loops = current;
+        return loops == null ? 0 : loops.loops.length;
+    }
+
+    /**
+     * @return 当前线程的 IO 线程序号, 不是已登记的 IO 线程时返回 -1
+     */
+    public static int currentIndex() {
+        Loops loops = current;
+        if (loops == null) {
+            return -1;
+        }
+        Index index = INDEX.get();
+        if (index == null || index.loops != loops) {
+            index = new Index(loops, loops.indexOf(Thread.currentThread()));
+            INDEX.set(index);
+        }
+        return index.value;
+    }
+
+    /**
+     * @param index IO 线程序号
+     * @return 对应的 IO 线程, 没有登记或超出范围时返回 null
+     */
+    static EventLoop get(int index) {
+        Loops loops = current;
+        if (loops == null || index < 0 || index >= loops.loops.length) {
+            return null;
+        }
+        return loops.loops[index];
+    }
+
+    /**
+     * @return 与已登记的 IO 线程匹配的客户端连接类型
+     */
+    static Class<? extends SocketChannel> socketChannelClass() {
+        Loops loops = current;
+        return loops != null && loops.group instanceof EpollEventLoopGroup
+                ? EpollSocketChannel.class
+                : NioSocketChannel.class;
+    }
+
+    private static final class Loops {
+
+        private final EventLoopGroup group;
+
+        private final EventLoop[] loops;
+
+        private Loops(EventLoopGroup group) {
+            List<EventLoop> list = new ArrayList<>();
+            for (EventExecutor executor : group) {
+                list.add((EventLoop) executor);
+            }
+            this.group = group;
+            this.loops = list.toArray(new EventLoop[0]);
+        }
+
+        private int indexOf(Thread thread) {
+            for (int i = 0; i < loops.length; i++) {
+                if (loops[i].inEventLoop(thread)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class Index {
+
+        private final Loops loops;
+
+        private final int value;
+
+        private Index(Loops loops, int value) {
+            this.loops = loops;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.Future;
+import org.apache.dubbo.common.URL;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_FLUSH_MAX_BATCH;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_FLUSH_MAX_DELAY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.FLUSH_MAX_BATCH_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.FLUSH_MAX_DELAY_KEY;
+
+/**
+ * 合并 flush, 一批消息只产生一次 writev
+ * <p>
+ * 读取过程中的 flush 推迟到 channelReadComplete; 其余的 flush 推迟到最长 max delay 之后, max delay 为 0 时推迟到
+ * 事件循环中已排队的任务(其他线程提交的写入)执行完. 累计 max batch 次 flush 时立即 flush.
+ * 与 {@link io.netty.handler.flush.FlushConsolidationHandler} 的区别在于非读取过程中的 flush 也会合并
+ */
+final class DubboProxyFlushConsolidationHandler extends ChannelDuplexHandler {
+
+    private final int maxBatch;
+
+    private final long maxDelayNanos;
+
+    private final Runnable flushTask;
+
+    private ChannelHandlerContext ctx;
+
+    private int flushPendingCount;
+
+    private boolean readInProgress;
+
+    private Future<?> nextScheduledFlush;
+
+    private DubboProxyFlushConsolidationHandler(int maxBatch, long maxDelayNanos) {
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = maxDelayNanos;
+        this.flushTask = () -> {
+            nextScheduledFlush = null;
+            if (flushPendingCount > 0 && !readInProgress) {
+                flushPendingCount = 0;
+                ctx.flush();
+            }
+        };
+    }
+
+    /**
+     * @param url 连接的 url
+     * @return 合并 flush 的 handler, max batch 不大于 1 时不合并, 返回 null
+     */
+    static DubboProxyFlushConsolidationHandler create(URL url) {
+        int maxBatch = url.getParameter(FLUSH_MAX_BATCH_KEY, DEFAULT_FLUSH_MAX_BATCH);
+        if (maxBatch <= 1) {
+            return null;
+        }
+        long maxDelay = Math.max(0, url.getParameter(FLUSH_MAX_DELAY_KEY, DEFAULT_FLUSH_MAX_DELAY));
+        return new DubboProxyFlushConsolidationHandler(maxBatch, TimeUnit.MICROSECONDS.toNanos(maxDelay));
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (++flushPendingCount >= maxBatch) {
+            flushNow(ctx);
+        } else if (!readInProgress && nextScheduledFlush == null) {
+            nextScheduledFlush = maxDelayNanos > 0
+                    ? ctx.executor().schedule(flushTask, maxDelayNanos, TimeUnit.NANOSECONDS)
+                    : ctx.executor().submit(flushTask);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        readInProgress = false;
+        flushIfNeeded(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (!ctx.channel().isWritable()) {
+            // 出站缓冲已满, 把已写入的部分尽快交给 socket
+            flushIfNeeded(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        flushIfNeeded(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfNeeded(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfNeeded(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushIfNeeded(ctx);
+    }
+
+    private void flushIfNeeded(ChannelHandlerContext ctx) {
+        if (flushPendingCount > 0) {
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        if (nextScheduledFlush != null) {
+            nextScheduledFlush.cancel(false);
+            nextScheduledFlush = null;
+        }
+        flushPendingCount = 0;
+        ctx.flush();
+    }
+}
@@ -0,0 +1,231 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.unix.DomainSocketChannel;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.transport.AbstractChannel;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.dubbo.common.constants.CommonConstants.DEFAULT_TIMEOUT;
+import static org.apache.dubbo.common.constants.CommonConstants.TIMEOUT_KEY;
+
+/**
+ * 与 {@link NettyChannel} 相同, 区别在于支持 unix domain socket 连接
+ * <p>
+ * dubbo 的上层逻辑依赖 {@link InetSocketAddress}, domain socket 连接没有 IP 地址, 因此使用合成的地址:
+ * 服务端一侧本地地址为服务端 url 的地址(按端口查找服务), 对端为 127.0.0.1 加连接序号; 客户端一侧反之
+ */
+final class DubboProxyNettyChannel extends AbstractChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyNettyChannel.class);
+
+    /**
+     * the cache for netty channel and dubbo channel
+     */
+    private static final ConcurrentMap<Channel, DubboProxyNettyChannel> CHANNEL_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 本机连接合成端口的序号, 取值 1 ~ 65535
+     */
+    private static final AtomicInteger LOOPBACK_PORT = new AtomicInteger();
+
+    /**
+     * netty channel
+     */
+    private final Channel channel;
+
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    /**
+     * domain socket 连接合成的地址, TCP 连接为 null
+     */
+    private final InetSocketAddress localAddress;
+
+    private final InetSocketAddress remoteAddress;
+
+    private DubboProxyNettyChannel(Channel channel, URL url, ChannelHandler handler) {
+        super(url, handler);
+        if (channel == null) {
+            throw new IllegalArgumentException("netty channel == null;");
+        }
+        this.channel = channel;
+        if (channel instanceof DomainSocketChannel) {
+            InetSocketAddress urlAddress = url.toInetSocketAddress();
+            InetSocketAddress peerAddress = nextLoopbackAddress();
+            boolean server = channel.parent() != null;
+            this.localAddress = server ? urlAddress : peerAddress;
+            this.remoteAddress = server ? peerAddress : urlAddress;
+        } else {
+            this.localAddress = null;
+            this.remoteAddress = null;
+        }
+    }
+
+    /**
+     * @return 为没有 IP 地址的本机连接合成的对端地址
+     */
+    static InetSocketAddress nextLoopbackAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), LOOPBACK_PORT.updateAndGet(port -> port % 0xFFFF + 1));
+    }
+
+    static DubboProxyNettyChannel getOrAddChannel(Channel ch, URL url, ChannelHandler handler) {
+        if (ch == null) {
+            return null;
+        }
+        DubboProxyNettyChannel ret = CHANNEL_MAP.get(ch);
+        if (ret == null) {
+            DubboProxyNettyChannel nettyChannel = new DubboProxyNettyChannel(ch, url, handler);
+            if (ch.isActive()) {
+                ret = CHANNEL_MAP.putIfAbsent(ch, nettyChannel);
+            }
+            if (ret == null) {
+                ret = nettyChannel;
+            }
+        }
+        return ret;
+    }
+
+    static void removeChannelIfDisconnected(Channel ch) {
+        if (ch != null && !ch.isActive()) {
+            CHANNEL_MAP.remove(ch);
+        }
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        if (localAddress != null) {
+            return localAddress;
+        }
+        return toInetSocketAddress(channel.localAddress());
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        if (remoteAddress != null) {
+            return remoteAddress;
+        }
+        return toInetSocketAddress(channel.remoteAddress());
+    }
+
+    private static InetSocketAddress toInetSocketAddress(SocketAddress address) {
+        return address instanceof InetSocketAddress ? (InetSocketAddress) address : null;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !isClosed() && channel.isActive();
+    }
+
+    @Override
+    public void send(Object message, boolean sent) throws RemotingException {
+        // whether the channel is closed
+        super.send(message, sent);
+
+        boolean success = true;
+        int timeout = 0;
+        try {
+            ChannelFuture future = channel.writeAndFlush(message);
+            if (sent) {
+                // wait timeout ms
+                timeout = getUrl().getPositiveParameter(TIMEOUT_KEY, DEFAULT_TIMEOUT);
+                success = future.await(timeout);
+            }
+            Throwable cause = future.cause();
+            if (cause != null) {
+                throw cause;
+            }
+        } catch (Throwable e) {
+            throw new RemotingException(this, "Failed to send message " + message + " to " + getRemoteAddress()
+                    + ", cause: " + e.getMessage(), e);
+        }
+        if (!success) {
+            throw new RemotingException(this, "Failed to send message " + message + " to " + getRemoteAddress()
+                    + "in timeout(" + timeout + "ms) limit");
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+        try {
+            removeChannelIfDisconnected(channel);
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+        try {
+            attributes.clear();
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+        try {
+            if (logger.isInfoEnabled()) {
+                logger.info("Close netty channel " + channel);
+            }
+            channel.close();
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean hasAttribute(String key) {
+        return attributes.containsKey(key);
+    }
+
+    @Override
+    public Object getAttribute(String key) {
+        return attributes.get(key);
+    }
+
+    @Override
+    public void setAttribute(String key, Object value) {
+        // The null value is unallowed in the ConcurrentHashMap.
+        if (value == null) {
+            attributes.remove(key);
+        } else {
+            attributes.put(key, value);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String key) {
+        attributes.remove(key);
+    }
+
+    @Override
+    public int hashCode() {
+        return channel.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return channel.equals(((DubboProxyNettyChannel) obj).channel);
+    }
+
+    @Override
+    public String toString() {
+        return "DubboProxyNettyChannel [channel=" + channel + "]";
+    }
+}
@@ -0,0 +1,227 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.Version;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.utils.NetUtils;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.Constants;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.transport.AbstractClient;
+import org.apache.dubbo.remoting.utils.UrlUtils;
+
+import java.io.File;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.EVENT_LOOP_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.UNIX_PATH_KEY;
+
+/**
+ * DubboProxy客户端, 与 {@link NettyClient} 相同, 编解码替换为 {@link DubboProxyNettyCodecAdapter}
+ * <p>
+ * 配置了 {@link org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants#UNIX_PATH_KEY} 时,
+ * 每次建立连接都优先连接 unix domain socket, epoll 不可用、路径不存在或连接失败时使用 TCP.
+ * 配置了 {@link org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants#EVENT_LOOP_KEY} 时 TCP 连接绑定对应的服务端 IO 线程
+ */
+public class DubboProxyNettyClient extends AbstractClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyNettyClient.class);
+
+    private static final NioEventLoopGroup nioEventLoopGroup = new NioEventLoopGroup(Constants.DEFAULT_IO_THREADS,
+            new DefaultThreadFactory("DubboProxyClientWorker", true));
+
+    private Bootstrap bootstrap;
+
+    /**
+     * unix domain socket 连接, 未配置或 epoll 不可用时为 null
+     */
+    private Bootstrap domainSocketBootstrap;
+
+    private String domainSocketPath;
+
+    /**
+     * current channel. Each successful invocation of {@link DubboProxyNettyClient#doConnect()} will
+     * replace this with new channel and close old channel.
+     * <b>volatile, please copy reference to use.</b>
+     */
+    private volatile Channel channel;
+
+    public DubboProxyNettyClient(final URL url, final ChannelHandler handler) throws RemotingException {
+        super(url, wrapChannelHandler(url, handler));
+    }
+
+    @Override
+    protected void doOpen() throws Throwable {
+        final DubboProxyNettyClientHandler nettyClientHandler = new DubboProxyNettyClientHandler(getUrl(), this);
+        ChannelInitializer<Channel> initializer = new ChannelInitializer<Channel>() {
+
+            @Override
+            protected void initChannel(Channel ch) {
+                int heartbeatInterval = UrlUtils.getHeartbeat(getUrl());
+                DubboProxyNettyCodecAdapter adapter = new DubboProxyNettyCodecAdapter(getCodec(), getUrl(), DubboProxyNettyClient.this);
+                DubboProxyFlushConsolidationHandler flushConsolidation = DubboProxyFlushConsolidationHandler.create(getUrl());
+                if (flushConsolidation != null) {
+                    ch.pipeline().addLast("flush-consolidation", flushConsolidation);
+                }
+                ch.pipeline()
+                        .addLast("decoder", adapter.getDecoder())
+                        .addLast("encoder", adapter.getEncoder())
+                        .addLast("client-idle-handler", new IdleStateHandler(heartbeatInterval, 0, 0, MILLISECONDS))
+                        .addLast("handler", nettyClientHandler);
+            }
+        };
+
+        // 指定了服务端 IO 线程序号时, 连接与重连都建立在该线程上
+        EventLoop eventLoop = DubboProxyEventLoops.get(getUrl().getParameter(EVENT_LOOP_KEY, -1));
+        bootstrap = new Bootstrap();
+        bootstrap.group(eventLoop == null ? nioEventLoopGroup : eventLoop)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Math.max(3000, getConnectTimeout()))
+                .channel(eventLoop == null ? NioSocketChannel.class : DubboProxyEventLoops.socketChannelClass())
+                .handler(initializer);
+
+        domainSocketPath = getUrl().getParameter(UNIX_PATH_KEY);
+        if (domainSocketPath != null && !domainSocketPath.isEmpty()) {
+            if (Epoll.isAvailable()) {
+                domainSocketBootstrap = new Bootstrap();
+                domainSocketBootstrap.group(DomainSocketEventLoopGroup.INSTANCE)
+                        .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Math.max(3000, getConnectTimeout()))
+                        .channel(EpollDomainSocketChannel.class)
+                        .handler(initializer);
+            } else {
+                logger.warn("Unix domain socket " + domainSocketPath + " is configured but epoll is unavailable, use tcp "
+                        + getConnectAddress() + " instead, cause: " + Epoll.unavailabilityCause());
+            }
+        }
+    }
+
+    /**
+     * 连接 unix domain socket
+     *
+     * @return 连接成功的 future, 路径不存在或连接失败时返回 null
+     */
+    private ChannelFuture connectDomainSocket() {
+        if (domainSocketBootstrap == null || !new File(domainSocketPath).exists()) {
+            return null;
+        }
+        ChannelFuture future = domainSocketBootstrap.connect(new DomainSocketAddress(domainSocketPath));
+        boolean ret = future.awaitUninterruptibly(getConnectTimeout(), MILLISECONDS);
+        if (ret && future.isSuccess()) {
+            return future;
+        }
+        future.cancel(true);
+        future.channel().close();
+        logger.warn("client(url: " + getUrl() + ") failed to connect to unix domain socket " + domainSocketPath
+                + ", fallback to tcp " + getConnectAddress() + ", cause: "
+                + (future.cause() == null ? "client-side timeout" : future.cause().getMessage()));
+        return null;
+    }
+
+    @Override
+    protected void doConnect() throws Throwable {
+        long start = System.currentTimeMillis();
+        ChannelFuture future = connectDomainSocket();
+        if (future == null) {
+            future = bootstrap.connect(getConnectAddress());
+        }
+        boolean ret = future.awaitUninterruptibly(getConnectTimeout(), MILLISECONDS);
+
+        if (ret && future.isSuccess()) {
+            Channel newChannel = future.channel();
+            try {
+                // Close old channel
+                // copy reference
+                Channel oldChannel = DubboProxyNettyClient.this.channel;
+                if (oldChannel != null) {
+                    try {
+                        if (logger.isInfoEnabled()) {
+                            logger.info("Close old netty channel " + oldChannel + " on create new netty channel " + newChannel);
+                        }
+                        oldChannel.close();
+                    } finally {
+                        DubboProxyNettyChannel.removeChannelIfDisconnected(oldChannel);
+                    }
+                }
+            } finally {
+                if (DubboProxyNettyClient.this.isClosed()) {
+                    try {
+                        if (logger.isInfoEnabled()) {
+                            logger.info("Close new netty channel " + newChannel + ", because the client closed.");
+                        }
+                        newChannel.close();
+                    } finally {
+                        DubboProxyNettyClient.this.channel = null;
+                        DubboProxyNettyChannel.removeChannelIfDisconnected(newChannel);
+                    }
+                } else {
+                    DubboProxyNettyClient.this.channel = newChannel;
+                }
+            }
+        } else if (future.cause() != null) {
+            throw new RemotingException(this, "client(url: " + getUrl() + ") failed to connect to server "
+                    + getRemoteAddress() + ", error message is:" + future.cause().getMessage(), future.cause());
+        } else {
+            throw new RemotingException(this, "client(url: " + getUrl() + ") failed to connect to server "
+                    + getRemoteAddress() + " client-side timeout "
+                    + getConnectTimeout() + "ms (elapsed: " + (System.currentTimeMillis() - start) + "ms) from netty client "
+                    + NetUtils.getLocalHost() + " using dubbo version " + Version.getVersion());
+        }
+    }
+
+    @Override
+    protected void doDisConnect() throws Throwable {
+        try {
+            DubboProxyNettyChannel.removeChannelIfDisconnected(channel);
+        } catch (Throwable t) {
+            logger.warn(t.getMessage());
+        }
+    }
+
+    @Override
+    protected void doClose() throws Throwable {
+        // the event loop group is shared by all clients, see NettyClient#doClose
+    }
+
+    @Override
+    protected org.apache.dubbo.remoting.Channel getChannel() {
+        Channel c = channel;
+        if (c == null || !c.isActive()) {
+            return null;
+        }
+        return DubboProxyNettyChannel.getOrAddChannel(c, getUrl(), this);
+    }
+
+    @Override
+    public boolean canHandleIdle() {
+        return true;
+    }
+
+    /**
+     * 所有客户端共享的 domain socket 工作线程, 首次使用时创建
+     */
+    private static final class DomainSocketEventLoopGroup {
+
+        private static final EventLoopGroup INSTANCE = new EpollEventLoopGroup(Constants.DEFAULT_IO_THREADS,
+                new DefaultThreadFactory("DubboProxyClientDomainSocketWorker", true));
+    }
+}
@@ -0,0 +1,143 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.Version;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.utils.StringUtils;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.remoting.exchange.Response;
+
+/**
+ * 与 {@link NettyClientHandler} 相同, 连接使用 {@link DubboProxyNettyChannel}
+ */
+@io.netty.channel.ChannelHandler.Sharable
+class DubboProxyNettyClientHandler extends ChannelDuplexHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyNettyClientHandler.class);
+
+    private final URL url;
+
+    private final ChannelHandler handler;
+
+    DubboProxyNettyClientHandler(URL url, ChannelHandler handler) {
+        if (url == null) {
+            throw new IllegalArgumentException("url == null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler == null");
+        }
+        this.url = url;
+        this.handler = handler;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+        try {
+            handler.connected(channel);
+        } finally {
+            DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+        try {
+            handler.disconnected(channel);
+        } finally {
+            DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+        try {
+            handler.received(channel, msg);
+        } finally {
+            DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        super.write(ctx, msg, promise);
+        final DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+        final boolean isRequest = msg instanceof Request;
+
+        // We add listeners to make sure our out bound event is correct.
+        // If our out bound event has an error (in most cases the encoder fails),
+        // we need to have the request return directly instead of blocking the invoke process.
+        promise.addListener(future -> {
+            try {
+                if (future.isSuccess()) {
+                    // if our future is success, mark the future to sent.
+                    handler.sent(channel, msg);
+                    return;
+                }
+
+                Throwable t = future.cause();
+                if (t != null && isRequest) {
+                    Request request = (Request) msg;
+                    Response response = buildErrorResponse(request, t);
+                    handler.received(channel, response);
+                }
+            } finally {
+                DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+            }
+        });
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        // send heartbeat when read idle.
+        if (evt instanceof IdleStateEvent) {
+            try {
+                DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("IdleStateEvent triggered, send heartbeat to channel " + channel);
+                }
+                Request req = new Request();
+                req.setVersion(Version.getProtocolVersion());
+                req.setTwoWay(true);
+                req.setEvent(Request.HEARTBEAT_EVENT);
+                channel.send(req);
+            } finally {
+                DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+            }
+        } else {
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+        try {
+            handler.caught(channel, cause);
+        } finally {
+            DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+        }
+    }
+
+    /**
+     * build a bad request's response
+     *
+     * @param request the request
+     * @param t       the throwable. In most cases, serialization fails.
+     * @return the response
+     */
+    private static Response buildErrorResponse(Request request, Throwable t) {
+        Response response = new Response(request.getId(), request.getVersion());
+        response.setStatus(Response.BAD_REQUEST);
+        response.setErrorMessage(StringUtils.toString(t));
+        return response;
+    }
+}
@@ -0,0 +1,97 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.remoting.Codec2;
+import org.apache.dubbo.remoting.buffer.ChannelBuffer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 与 {@link NettyCodecAdapter} 相同, 区别在于编解码使用 {@link DubboProxyChannelBuffer}
+ * <p>
+ * 出站消息可以携带追加的 ByteBuf, 因此编码器输出的是完整的 ByteBuf 消息而不是写入预分配的 buffer
+ */
+final class DubboProxyNettyCodecAdapter {
+
+    private final ChannelHandler encoder = new InternalEncoder();
+
+    private final ChannelHandler decoder = new InternalDecoder();
+
+    private final Codec2 codec;
+
+    private final URL url;
+
+    private final org.apache.dubbo.remoting.ChannelHandler handler;
+
+    DubboProxyNettyCodecAdapter(Codec2 codec, URL url, org.apache.dubbo.remoting.ChannelHandler handler) {
+        this.codec = codec;
+        this.url = url;
+        this.handler = handler;
+    }
+
+    ChannelHandler getEncoder() {
+        return encoder;
+    }
+
+    ChannelHandler getDecoder() {
+        return decoder;
+    }
+
+    private class InternalEncoder extends MessageToMessageEncoder<Object> {
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+            DubboProxyChannelBuffer buffer = new DubboProxyChannelBuffer(ctx.alloc().ioBuffer());
+            Channel ch = ctx.channel();
+            DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ch, url, handler);
+            try {
+                codec.encode(channel, buffer, msg);
+                out.add(buffer.toByteBuf());
+            } catch (Throwable t) {
+                buffer.release();
+                throw t;
+            } finally {
+                DubboProxyNettyChannel.removeChannelIfDisconnected(ch);
+            }
+        }
+    }
+
+    private class InternalDecoder extends ByteToMessageDecoder {
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf input, List<Object> out) throws Exception {
+
+            ChannelBuffer message = new DubboProxyChannelBuffer(input);
+
+            DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+
+            try {
+                // decode object.
+                do {
+                    int saveReaderIndex = message.readerIndex();
+                    Object msg = codec.decode(channel, message);
+                    if (msg == Codec2.DecodeResult.NEED_MORE_INPUT) {
+                        message.readerIndex(saveReaderIndex);
+                        break;
+                    } else {
+                        if (saveReaderIndex == message.readerIndex()) {
+                            throw new IOException("Decode without read data.");
+                        }
+                        if (msg != null) {
+                            out.add(msg);
+                        }
+                    }
+                } while (message.readable());
+            } finally {
+                DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.Client;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.Server;
+import org.apache.dubbo.remoting.Transporter;
+
+import java.io.File;
+
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.UNIX_PATH_KEY;
+
+/**
+ * DubboProxy unix domain socket 传输层, 用于 SDK 与同机部署的 sidecar 之间的连接
+ * <p>
+ * 与 {@link DubboProxyNettyTransporter} 相同, 未配置 {@link org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants#UNIX_PATH_KEY}
+ * 时使用临时目录下按端口命名的路径, 两端使用默认值即可对上. 服务端同时监听 TCP 端口, 客户端在 domain socket 不可用时使用 TCP
+ */
+public class DubboProxyNettyDomainSocketTransporter implements Transporter {
+
+    public static final String NAME = "dubbo-proxy-uds";
+
+    @Override
+    public Server bind(URL url, ChannelHandler listener) throws RemotingException {
+        return new DubboProxyNettyServer(withDomainSocketPath(url), listener);
+    }
+
+    @Override
+    public Client connect(URL url, ChannelHandler listener) throws RemotingException {
+        return new DubboProxyNettyClient(withDomainSocketPath(url), listener);
+    }
+
+    private static URL withDomainSocketPath(URL url) {
+        if (url.hasParameter(UNIX_PATH_KEY)) {
+            return url;
+        }
+        return url.addParameter(UNIX_PATH_KEY,
+                new File(System.getProperty("java.io.tmpdir"), "dubbo-proxy-" + url.getPort() + ".sock").getPath());
+    }
+}
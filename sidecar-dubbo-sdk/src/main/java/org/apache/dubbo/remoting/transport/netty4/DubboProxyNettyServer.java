@@ -0,0 +1,310 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.utils.ExecutorUtil;
+import org.apache.dubbo.common.utils.NetUtils;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.Constants;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.Server;
+import org.apache.dubbo.remoting.transport.AbstractServer;
+import org.apache.dubbo.remoting.transport.dispatcher.ChannelHandlers;
+import org.apache.dubbo.remoting.utils.UrlUtils;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.dubbo.common.constants.CommonConstants.IO_THREADS_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.REUSEPORT_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SHM_PATH_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.UNIX_PATH_KEY;
+
+/**
+ * DubboProxy服务端, 与 {@link NettyServer} 相同, 编解码替换为 {@link DubboProxyNettyCodecAdapter}
+ * <p>
+ * 配置了 {@link org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants#UNIX_PATH_KEY} 且 epoll 可用时,
+ * 使用 epoll 线程组并在 TCP 端口之外同时监听 unix domain socket, 两者共用同一套连接处理;
+ * 配置了 {@link org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants#SHM_PATH_KEY} 时同时接受共享内存连接.
+ * worker 线程组登记到 {@link DubboProxyEventLoops}, 供上游客户端绑定.
+ * 配置了 {@link org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants#REUSEPORT_KEY} 且 epoll 可用时,
+ * 以 SO_REUSEPORT 为每个 IO 线程绑定一个监听
+ */
+public class DubboProxyNettyServer extends AbstractServer implements Server {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyNettyServer.class);
+
+    /**
+     * the cache for alive worker channel.
+     * <ip:port, dubbo channel>
+     */
+    private Map<String, Channel> channels;
+
+    private ServerBootstrap bootstrap;
+
+    private io.netty.channel.Channel channel;
+
+    /**
+     * SO_REUSEPORT 时 {@link #channel} 之外的其它监听, 未开启时为 null
+     */
+    private List<io.netty.channel.Channel> reusePortChannels;
+
+    /**
+     * unix domain socket 监听, 未配置或 epoll 不可用时为 null
+     */
+    private io.netty.channel.Channel domainSocketChannel;
+
+    private String domainSocketPath;
+
+    /**
+     * 共享内存连接监听, 未配置时为 null
+     */
+    private DubboProxyShmAcceptor shmAcceptor;
+
+    private EventLoopGroup bossGroup;
+
+    private EventLoopGroup workerGroup;
+
+    public DubboProxyNettyServer(URL url, ChannelHandler handler) throws RemotingException {
+        super(url, ChannelHandlers.wrap(handler, ExecutorUtil.setThreadName(url, SERVER_THREAD_POOL_NAME)));
+    }
+
+    @Override
+    protected void doOpen() throws Throwable {
+        bootstrap = new ServerBootstrap();
+
+        String path = getUrl().getParameter(UNIX_PATH_KEY);
+        boolean domainSocket = path != null && !path.isEmpty() && Epoll.isAvailable();
+        if (path != null && !path.isEmpty() && !domainSocket) {
+            logger.warn("Unix domain socket " + path + " is configured but epoll is unavailable, bind tcp "
+                    + getBindAddress() + " only, cause: " + Epoll.unavailabilityCause());
+        }
+        boolean reusePort = getUrl().getParameter(REUSEPORT_KEY, false) && Epoll.isAvailable();
+        if (getUrl().getParameter(REUSEPORT_KEY, false) && !reusePort) {
+            logger.warn("SO_REUSEPORT is configured but epoll is unavailable, bind " + getBindAddress()
+                    + " with a single acceptor, cause: " + Epoll.unavailabilityCause());
+        }
+        int ioThreads = getUrl().getPositiveParameter(IO_THREADS_KEY, Constants.DEFAULT_IO_THREADS);
+        // SO_REUSEPORT 时每个 IO 线程一个监听, 每个监听注册在各自的 boss 线程上
+        int acceptors = reusePort ? ioThreads : 1;
+        if (domainSocket || reusePort) {
+            bossGroup = new EpollEventLoopGroup(acceptors, new DefaultThreadFactory("DubboProxyServerBoss", true));
+            workerGroup = new EpollEventLoopGroup(ioThreads, new DefaultThreadFactory("DubboProxyServerWorker", true));
+        } else {
+            bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("DubboProxyServerBoss", true));
+            workerGroup = new NioEventLoopGroup(ioThreads, new DefaultThreadFactory("DubboProxyServerWorker", true));
+        }
+        DubboProxyEventLoops.register(workerGroup);
+
+        final DubboProxyNettyServerHandler nettyServerHandler = new DubboProxyNettyServerHandler(getUrl(), this);
+        channels = nettyServerHandler.getChannels();
+
+        ChannelInitializer<io.netty.channel.Channel> initializer = new ChannelInitializer<io.netty.channel.Channel>() {
+            @Override
+            protected void initChannel(io.netty.channel.Channel ch) {
+                int idleTimeout = UrlUtils.getIdleTimeout(getUrl());
+                DubboProxyNettyCodecAdapter adapter = new DubboProxyNettyCodecAdapter(getCodec(), getUrl(), DubboProxyNettyServer.this);
+                DubboProxyFlushConsolidationHandler flushConsolidation = DubboProxyFlushConsolidationHandler.create(getUrl());
+                if (flushConsolidation != null) {
+                    ch.pipeline().addLast("flush-consolidation", flushConsolidation);
+                }
+                ch.pipeline()
+                        .addLast("decoder", adapter.getDecoder())
+                        .addLast("encoder", adapter.getEncoder())
+                        .addLast("server-idle-handler", new IdleStateHandler(0, 0, idleTimeout, MILLISECONDS))
+                        .addLast("handler", nettyServerHandler);
+            }
+        };
+
+        bootstrap.group(bossGroup, workerGroup)
+                .channel(domainSocket || reusePort ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+                .childOption(ChannelOption.SO_REUSEADDR, Boolean.TRUE)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childHandler(initializer);
+        if (reusePort) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, Boolean.TRUE);
+        }
+        // bind
+        ChannelFuture channelFuture = bootstrap.bind(getBindAddress());
+        channelFuture.syncUninterruptibly();
+        channel = channelFuture.channel();
+        if (reusePort) {
+            bindReusePort(acceptors);
+        }
+
+        if (domainSocket) {
+            bindDomainSocket(path, initializer);
+        }
+        String shmPath = getUrl().getParameter(SHM_PATH_KEY);
+        if (shmPath != null && !shmPath.isEmpty()) {
+            bindShm(shmPath);
+        }
+    }
+
+    /**
+     * 以 SO_REUSEPORT 在同一地址上再绑定 acceptors - 1 个监听, 由内核在各监听之间分配新连接,
+     * 大量客户端同时重连时 accept 不再集中在单个线程上
+     */
+    private void bindReusePort(int acceptors) {
+        reusePortChannels = new ArrayList<>(acceptors - 1);
+        for (int i = 1; i < acceptors; i++) {
+            ChannelFuture channelFuture = bootstrap.bind(getBindAddress());
+            channelFuture.syncUninterruptibly();
+            reusePortChannels.add(channelFuture.channel());
+        }
+        logger.info("Bind " + acceptors + " acceptors with SO_REUSEPORT for " + getBindAddress());
+    }
+
+    /**
+     * 监听共享内存连接, 失败时只记录日志, 客户端会回退为 TCP
+     */
+    private void bindShm(String path) {
+        if (!DubboProxyShmSegment.isAvailable()) {
+            logger.warn("Shared memory directory " + path + " is configured but shared memory transport is unavailable, bind tcp "
+                    + getBindAddress() + " only");
+            return;
+        }
+        try {
+            DubboProxyShmAcceptor acceptor = new DubboProxyShmAcceptor(new File(path), getUrl(), this, getCodec(), channels);
+            acceptor.start();
+            shmAcceptor = acceptor;
+            logger.info("Accept shared memory channels in " + path + " for " + getBindAddress());
+        } catch (Throwable e) {
+            logger.warn("Failed to accept shared memory channels in " + path + ", clients fallback to tcp "
+                    + getBindAddress() + ", cause: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 监听 unix domain socket, TCP 端口已经绑定成功, 说明路径上残留的文件不属于存活的服务端, 先删除再监听.
+     * 监听失败时只记录日志, 客户端会回退为 TCP
+     */
+    private void bindDomainSocket(String path, ChannelInitializer<io.netty.channel.Channel> initializer) {
+        try {
+            File file = new File(path);
+            if (file.exists() && !file.delete()) {
+                logger.warn("Failed to delete stale unix domain socket " + path);
+            }
+            ServerBootstrap domainSocketBootstrap = new ServerBootstrap();
+            domainSocketBootstrap.group(bossGroup, workerGroup)
+                    .channel(EpollServerDomainSocketChannel.class)
+                    .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childHandler(initializer);
+            ChannelFuture channelFuture = domainSocketBootstrap.bind(new DomainSocketAddress(path));
+            channelFuture.syncUninterruptibly();
+            domainSocketChannel = channelFuture.channel();
+            domainSocketPath = path;
+            logger.info("Bind unix domain socket " + path + " for " + getBindAddress());
+        } catch (Throwable e) {
+            logger.warn("Failed to bind unix domain socket " + path + ", clients fallback to tcp "
+                    + getBindAddress() + ", cause: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void doClose() throws Throwable {
+        try {
+            if (channel != null) {
+                // unbind.
+                channel.close();
+            }
+            if (reusePortChannels != null) {
+                for (io.netty.channel.Channel reusePortChannel : reusePortChannels) {
+                    reusePortChannel.close();
+                }
+            }
+            if (domainSocketChannel != null) {
+                domainSocketChannel.close();
+                new File(domainSocketPath).delete();
+            }
+            if (shmAcceptor != null) {
+                shmAcceptor.close();
+            }
+        } catch (Throwable e) {
+            logger.warn(e.getMessage(), e);
+        }
+        try {
+            Collection<Channel> channels = getChannels();
+            if (channels != null && channels.size() > 0) {
+                for (Channel channel : channels) {
+                    try {
+                        channel.close();
+                    } catch (Throwable e) {
+                        logger.warn(e.getMessage(), e);
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            logger.warn(e.getMessage(), e);
+        }
+        try {
+            if (bootstrap != null) {
+                DubboProxyEventLoops.unregister(workerGroup);
+                bossGroup.shutdownGracefully();
+                workerGroup.shutdownGracefully();
+            }
+        } catch (Throwable e) {
+            logger.warn(e.getMessage(), e);
+        }
+        try {
+            if (channels != null) {
+                channels.clear();
+            }
+        } catch (Throwable e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Collection<Channel> getChannels() {
+        Collection<Channel> chs = new HashSet<>();
+        for (Channel channel : this.channels.values()) {
+            if (channel.isConnected()) {
+                chs.add(channel);
+            } else {
+                channels.remove(NetUtils.toAddressString(channel.getRemoteAddress()));
+            }
+        }
+        return chs;
+    }
+
+    @Override
+    public Channel getChannel(InetSocketAddress remoteAddress) {
+        return channels.get(NetUtils.toAddressString(remoteAddress));
+    }
+
+    @Override
+    public boolean canHandleIdle() {
+        return true;
+    }
+
+    @Override
+    public boolean isBound() {
+        return channel.isActive();
+    }
+}
@@ -0,0 +1,119 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.utils.NetUtils;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.ChannelHandler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 与 {@link NettyServerHandler} 相同, 连接使用 {@link DubboProxyNettyChannel}, 连接表按其(可能是合成的)对端地址索引
+ */
+@io.netty.channel.ChannelHandler.Sharable
+class DubboProxyNettyServerHandler extends ChannelDuplexHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyNettyServerHandler.class);
+
+    /**
+     * the cache for alive worker channel.
+     * <ip:port, dubbo channel>
+     */
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    private final URL url;
+
+    private final ChannelHandler handler;
+
+    DubboProxyNettyServerHandler(URL url, ChannelHandler handler) {
+        if (url == null) {
+            throw new IllegalArgumentException("url == null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler == null");
+        }
+        this.url = url;
+        this.handler = handler;
+    }
+
+    Map<String, Channel> getChannels() {
+        return channels;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+        try {
+            if (channel != null) {
+                channels.put(NetUtils.toAddressString(channel.getRemoteAddress()), channel);
+            }
+            handler.connected(channel);
+        } finally {
+            DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+        try {
+            channels.remove(NetUtils.toAddressString(channel.getRemoteAddress()));
+            handler.disconnected(channel);
+        } finally {
+            DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+        try {
+            handler.received(channel, msg);
+        } finally {
+            DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        super.write(ctx, msg, promise);
+        DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+        try {
+            handler.sent(channel, msg);
+        } finally {
+            DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+        }
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        // server will close channel when server don't receive any heartbeat from client util timeout.
+        if (evt instanceof IdleStateEvent) {
+            DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+            try {
+                logger.info("IdleStateEvent triggered, close channel " + channel);
+                channel.close();
+            } finally {
+                DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+            }
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        DubboProxyNettyChannel channel = DubboProxyNettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+        try {
+            handler.caught(channel, cause);
+        } finally {
+            DubboProxyNettyChannel.removeChannelIfDisconnected(ctx.channel());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.Client;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.Server;
+import org.apache.dubbo.remoting.Transporter;
+
+/**
+ * DubboProxy传输层
+ * <p>
+ * 编解码直接面向 Netty ByteBuf, 代理 payload 可以以 retained slice 的形式在连接之间转发而不发生拷贝
+ */
+public class DubboProxyNettyTransporter implements Transporter {
+
+    public static final String NAME = "dubbo-proxy-netty";
+
+    @Override
+    public Server bind(URL url, ChannelHandler listener) throws RemotingException {
+        return new DubboProxyNettyServer(url, listener);
+    }
+
+    @Override
+    public Client connect(URL url, ChannelHandler listener) throws RemotingException {
+        return new DubboProxyNettyClient(url, listener);
+    }
+}
@@ -0,0 +1,150 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.utils.NetUtils;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.Codec2;
+import org.apache.dubbo.remoting.utils.UrlUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端监听共享内存连接
+ * <p>
+ * 定时扫描目录中客户端新建的连接文件, 接受后交给 {@link DubboProxyShmPoller} 轮询. 共享内存连接不经过 Netty 的空闲检测,
+ * 超过空闲超时没有读到数据(包括心跳)的连接在扫描时关闭, 客户端进程异常退出留下的连接由此回收
+ */
+final class DubboProxyShmAcceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyShmAcceptor.class);
+
+    private static final long ACCEPT_INTERVAL_MILLIS = 10;
+
+    private final File directory;
+
+    private final URL url;
+
+    private final ChannelHandler handler;
+
+    private final Codec2 codec;
+
+    /**
+     * 服务端的连接表, <ip:port, dubbo channel>
+     */
+    private final Map<String, Channel> serverChannels;
+
+    /**
+     * <文件名, 已接受的连接>
+     */
+    private final Map<String, DubboProxyShmChannel> accepted = new ConcurrentHashMap<>();
+
+    private final int idleTimeout;
+
+    private ScheduledExecutorService scheduler;
+
+    DubboProxyShmAcceptor(File directory, URL url, ChannelHandler handler, Codec2 codec, Map<String, Channel> serverChannels) {
+        this.directory = directory;
+        this.url = url;
+        this.handler = handler;
+        this.codec = codec;
+        this.serverChannels = serverChannels;
+        this.idleTimeout = UrlUtils.getIdleTimeout(url);
+    }
+
+    /**
+     * 创建目录并清理上一次运行残留的连接文件, 之后开始扫描
+     *
+     * @throws IOException 目录创建失败
+     */
+    void start() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create shared memory directory " + directory);
+        }
+        File[] stale = directory.listFiles();
+        if (stale != null) {
+            for (File file : stale) {
+                file.delete();
+            }
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("DubboProxyShmAcceptor", true));
+        scheduler.scheduleWithFixedDelay(this::scan, 0, ACCEPT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void scan() {
+        try {
+            File[] files = directory.listFiles((dir, name) -> name.endsWith(DubboProxyShmSegment.SUFFIX));
+            if (files != null) {
+                for (File file : files) {
+                    if (!accepted.containsKey(file.getName())) {
+                        accept(file);
+                    }
+                }
+            }
+            long now = System.currentTimeMillis();
+            Iterator<DubboProxyShmChannel> iterator = accepted.values().iterator();
+            while (iterator.hasNext()) {
+                DubboProxyShmChannel channel = iterator.next();
+                if (channel.isConnected() && now - channel.getLastRead() > idleTimeout) {
+                    logger.info("Close idle shared memory channel " + channel + ", idle timeout " + idleTimeout + "ms");
+                    channel.close();
+                }
+                if (!channel.isConnected()) {
+                    iterator.remove();
+                }
+            }
+        } catch (Throwable t) {
+            logger.warn("Scan shared memory directory " + directory + " failed, cause: " + t.getMessage(), t);
+        }
+    }
+
+    private void accept(File file) {
+        DubboProxyShmChannel channel;
+        try {
+            channel = new DubboProxyShmChannel(DubboProxyShmSegment.open(file), false, url, handler, codec);
+        } catch (Throwable t) {
+            logger.warn("Failed to accept shared memory channel " + file + ", cause: " + t.getMessage(), t);
+            file.delete();
+            return;
+        }
+        accepted.put(file.getName(), channel);
+        serverChannels.put(NetUtils.toAddressString(channel.getRemoteAddress()), channel);
+        DubboProxyShmPoller.register(channel);
+        try {
+            handler.connected(channel);
+        } catch (Throwable t) {
+            logger.warn(t.getMessage(), t);
+        } finally {
+            channel.getSegment().markAccepted();
+        }
+    }
+
+    /**
+     * 关闭所有共享内存连接并删除目录, 之后新建的客户端使用 TCP
+     */
+    void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        for (DubboProxyShmChannel channel : accepted.values()) {
+            channel.close();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,336 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.Codec2;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.buffer.ChannelBuffer;
+import org.apache.dubbo.remoting.transport.AbstractChannel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.dubbo.common.constants.CommonConstants.DEFAULT_TIMEOUT;
+import static org.apache.dubbo.common.constants.CommonConstants.TIMEOUT_KEY;
+
+/**
+ * 共享内存连接, 帧的编解码与 {@link DubboProxyNettyCodecAdapter} 相同
+ * <p>
+ * 发送方在调用线程中加锁编码并写入出站环, 环中放不下的部分按顺序排队, 由 {@link DubboProxyShmPoller} 在之后的轮询中写出,
+ * 发送从不等待, 轮询线程中分发的消息直接回写也不会阻塞轮询; 排队的数据超时仍未写出时关闭连接.
+ * 入站环由 {@link DubboProxyShmPoller} 读取, 解码出的消息在轮询线程中分发.
+ * 地址与 domain socket 连接相同, 使用合成的地址
+ */
+final class DubboProxyShmChannel extends AbstractChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyShmChannel.class);
+
+    private final DubboProxyShmSegment segment;
+
+    /**
+     * 是否为客户端一侧
+     */
+    private final boolean client;
+
+    private final DubboProxyShmSegment.Ring inbound;
+
+    private final DubboProxyShmSegment.Ring outbound;
+
+    private final Codec2 codec;
+
+    private final InetSocketAddress localAddress;
+
+    private final InetSocketAddress remoteAddress;
+
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    /**
+     * 编码与写入出站环的锁, 编码依赖连接上的服务表等状态, 必须与写入顺序一致
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * 出站环放不下、等待轮询线程写出的帧, 由 {@link #writeLock} 保护
+     */
+    private final ArrayDeque<ByteBuf> pending = new ArrayDeque<>();
+
+    /**
+     * 排队数据最近一次写出进展的时间(ns), 由 {@link #writeLock} 保护
+     */
+    private long pendingSince;
+
+    /**
+     * 入站的累积 buffer, 只在轮询线程中访问
+     */
+    private ByteBuf cumulation;
+
+    private volatile long lastRead = System.currentTimeMillis();
+
+    DubboProxyShmChannel(DubboProxyShmSegment segment, boolean client, URL url, ChannelHandler handler, Codec2 codec) {
+        super(url, handler);
+        this.segment = segment;
+        this.client = client;
+        this.inbound = segment.getRing(!client);
+        this.outbound = segment.getRing(client);
+        this.codec = codec;
+        InetSocketAddress urlAddress = url.toInetSocketAddress();
+        InetSocketAddress peerAddress = DubboProxyNettyChannel.nextLoopbackAddress();
+        this.localAddress = client ? peerAddress : urlAddress;
+        this.remoteAddress = client ? urlAddress : peerAddress;
+    }
+
+    DubboProxyShmSegment getSegment() {
+        return segment;
+    }
+
+    long getLastRead() {
+        return lastRead;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !isClosed() && !segment.isClosed(!client);
+    }
+
+    @Override
+    public void send(Object message, boolean sent) throws RemotingException {
+        // whether the channel is closed
+        super.send(message, sent);
+
+        synchronized (writeLock) {
+            DubboProxyChannelBuffer buffer = new DubboProxyChannelBuffer(PooledByteBufAllocator.DEFAULT.directBuffer());
+            ByteBuf frame;
+            try {
+                codec.encode(this, buffer, message);
+                frame = buffer.toByteBuf();
+            } catch (Throwable t) {
+                buffer.release();
+                throw new RemotingException(this, "Failed to encode message " + message + " to " + getRemoteAddress()
+                        + ", cause: " + t.getMessage(), t);
+            }
+            // 连接关闭后由轮询线程在同一把锁下释放排队的帧, 关闭后不能再排队
+            if (!isConnected()) {
+                frame.release();
+                throw new RemotingException(this, "Failed to send message to " + getRemoteAddress()
+                        + ", cause: Channel closed.");
+            }
+            if (pending.isEmpty()) {
+                outbound.write(frame);
+            }
+            if (frame.isReadable()) {
+                if (pending.isEmpty()) {
+                    pendingSince = System.nanoTime();
+                }
+                pending.add(frame);
+                DubboProxyShmPoller.wakeup();
+            } else {
+                frame.release();
+            }
+        }
+        sent(this, message);
+    }
+
+    /**
+     * 由轮询线程调用, 按顺序写出排队的帧
+     *
+     * @return 写出的字节数, 排队数据超时仍未写出时关闭连接并返回 -1
+     */
+    private int flush() {
+        synchronized (writeLock) {
+            int written = 0;
+            ByteBuf frame;
+            while ((frame = pending.peek()) != null) {
+                written += outbound.write(frame);
+                if (frame.isReadable()) {
+                    break;
+                }
+                pending.poll().release();
+            }
+            if (written > 0) {
+                pendingSince = System.nanoTime();
+            } else if (!pending.isEmpty()) {
+                int timeout = getUrl().getPositiveParameter(TIMEOUT_KEY, DEFAULT_TIMEOUT);
+                if (System.nanoTime() - pendingSince > TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                    // 帧可能已经写出一部分, 连接上的字节流不再完整
+                    logger.warn("Failed to send message to " + getRemoteAddress() + " in timeout(" + timeout
+                            + "ms) limit, the shared memory ring is full, close channel " + this);
+                    close();
+                    return -1;
+                }
+            }
+            return written;
+        }
+    }
+
+    /**
+     * 由轮询线程调用, 写出排队的帧, 读取入站环并分发解码出的消息
+     *
+     * @return 写出与读取的字节数, 连接已关闭时返回 -1
+     */
+    int poll() {
+        if (isClosed()) {
+            return -1;
+        }
+        if (segment.isClosed(!client)) {
+            close();
+            return -1;
+        }
+        int written = flush();
+        if (written < 0) {
+            return -1;
+        }
+        try {
+            if (inbound.readableBytes() == 0) {
+                return written;
+            }
+            if (cumulation == null) {
+                cumulation = PooledByteBufAllocator.DEFAULT.directBuffer();
+            }
+            int read = inbound.read(cumulation);
+            lastRead = System.currentTimeMillis();
+            decode();
+            return written + read;
+        } catch (Throwable t) {
+            try {
+                caught(this, t);
+            } catch (Throwable e) {
+                logger.warn(e.getMessage(), e);
+            }
+            close();
+            return -1;
+        }
+    }
+
+    /**
+     * 解码累积的入站数据, 解码失败时连接上的字节流不再完整, 由调用方关闭连接
+     */
+    private void decode() throws IOException, RemotingException {
+        ChannelBuffer message = new DubboProxyChannelBuffer(cumulation);
+        do {
+            int saveReaderIndex = message.readerIndex();
+            Object msg = codec.decode(this, message);
+            if (msg == Codec2.DecodeResult.NEED_MORE_INPUT) {
+                message.readerIndex(saveReaderIndex);
+                break;
+            }
+            if (saveReaderIndex == message.readerIndex()) {
+                throw new IOException("Decode without read data.");
+            }
+            if (msg != null) {
+                try {
+                    received(this, msg);
+                } catch (Throwable t) {
+                    caught(this, t);
+                }
+            }
+        } while (message.readable());
+
+        if (!cumulation.isReadable()) {
+            cumulation.release();
+            cumulation = null;
+        } else if (cumulation.refCnt() == 1) {
+            cumulation.discardSomeReadBytes();
+        } else {
+            // 解码出的 payload 切片仍引用当前 buffer, 剩余部分拷贝到新的 buffer, 避免扩容时影响切片
+            ByteBuf remaining = PooledByteBufAllocator.DEFAULT.directBuffer(cumulation.readableBytes());
+            remaining.writeBytes(cumulation);
+            cumulation.release();
+            cumulation = remaining;
+        }
+    }
+
+    /**
+     * 由轮询线程在连接关闭后调用, 释放入站 buffer 与排队的帧并通知连接断开
+     */
+    void release() {
+        if (cumulation != null) {
+            cumulation.release();
+            cumulation = null;
+        }
+        synchronized (writeLock) {
+            ByteBuf frame;
+            while ((frame = pending.poll()) != null) {
+                frame.release();
+            }
+        }
+        try {
+            disconnected(this);
+        } catch (Throwable t) {
+            logger.warn(t.getMessage(), t);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (isClosed()) {
+            return;
+        }
+        try {
+            super.close();
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+        try {
+            attributes.clear();
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+        try {
+            if (logger.isInfoEnabled()) {
+                logger.info("Close shared memory channel " + segment.getFile());
+            }
+            segment.markClosed(client);
+            segment.getFile().delete();
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean hasAttribute(String key) {
+        return attributes.containsKey(key);
+    }
+
+    @Override
+    public Object getAttribute(String key) {
+        return attributes.get(key);
+    }
+
+    @Override
+    public void setAttribute(String key, Object value) {
+        // The null value is unallowed in the ConcurrentHashMap.
+        if (value == null) {
+            attributes.remove(key);
+        } else {
+            attributes.put(key, value);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String key) {
+        attributes.remove(key);
+    }
+
+    @Override
+    public String toString() {
+        return "DubboProxyShmChannel [file=" + segment.getFile() + ", client=" + client + "]";
+    }
+}
@@ -0,0 +1,108 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.transport.AbstractClient;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_SHM_RING_SIZE;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SHM_PATH_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SHM_RING_SIZE_KEY;
+
+/**
+ * DubboProxy共享内存客户端
+ * <p>
+ * 每次建立连接都在服务端监听的目录下创建新的连接文件, 等待服务端接受. 空闲检测与重连沿用 dubbo 的定时任务
+ */
+public class DubboProxyShmClient extends AbstractClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyShmClient.class);
+
+    /**
+     * current channel. Each successful invocation of {@link DubboProxyShmClient#doConnect()} will
+     * replace this with new channel and close old channel.
+     */
+    private volatile DubboProxyShmChannel channel;
+
+    public DubboProxyShmClient(final URL url, final ChannelHandler handler) throws RemotingException {
+        super(url, wrapChannelHandler(url, handler));
+    }
+
+    @Override
+    protected void doOpen() throws Throwable {
+        if (!DubboProxyShmSegment.isAvailable()) {
+            throw new RemotingException(this, "Shared memory transport is unavailable, client(url: " + getUrl() + ")");
+        }
+    }
+
+    @Override
+    protected void doConnect() throws Throwable {
+        long start = System.currentTimeMillis();
+        File directory = new File(getUrl().getParameter(SHM_PATH_KEY));
+        if (!directory.isDirectory()) {
+            throw new RemotingException(this, "client(url: " + getUrl() + ") failed to connect to server "
+                    + getRemoteAddress() + ", shared memory directory " + directory + " not found");
+        }
+        int capacity = DubboProxyShmSegment.normalizeCapacity(
+                getUrl().getPositiveParameter(SHM_RING_SIZE_KEY, DEFAULT_SHM_RING_SIZE));
+        DubboProxyShmSegment segment = DubboProxyShmSegment.create(directory, capacity);
+        DubboProxyShmChannel newChannel = new DubboProxyShmChannel(segment, true, getUrl(), this, getCodec());
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getConnectTimeout());
+        int idle = 0;
+        while (!segment.isAccepted() && System.nanoTime() - deadline < 0) {
+            idle = DubboProxyShmPoller.idle(idle);
+        }
+        if (!segment.isAccepted() || !newChannel.isConnected()) {
+            newChannel.close();
+            throw new RemotingException(this, "client(url: " + getUrl() + ") failed to connect to server "
+                    + getRemoteAddress() + " through shared memory " + segment.getFile() + ", "
+                    + (segment.isAccepted() ? "rejected by server" : "client-side timeout " + getConnectTimeout()
+                    + "ms (elapsed: " + (System.currentTimeMillis() - start) + "ms)"));
+        }
+        DubboProxyShmPoller.register(newChannel);
+
+        DubboProxyShmChannel oldChannel = this.channel;
+        if (oldChannel != null) {
+            if (logger.isInfoEnabled()) {
+                logger.info("Close old shared memory channel " + oldChannel + " on create new channel " + newChannel);
+            }
+            oldChannel.close();
+        }
+        if (isClosed()) {
+            if (logger.isInfoEnabled()) {
+                logger.info("Close new shared memory channel " + newChannel + ", because the client closed.");
+            }
+            newChannel.close();
+            this.channel = null;
+        } else {
+            this.channel = newChannel;
+            connected(newChannel);
+        }
+    }
+
+    @Override
+    protected void doDisConnect() throws Throwable {
+        // the channel is closed by AbstractClient#disconnect
+    }
+
+    @Override
+    protected void doClose() throws Throwable {
+        // the poller thread is shared by all clients
+    }
+
+    @Override
+    protected Channel getChannel() {
+        DubboProxyShmChannel c = channel;
+        if (c == null || !c.isConnected()) {
+            return null;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,108 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 共享内存连接的轮询线程, 进程内所有连接共用一个
+ * <p>
+ * 依次写出各连接排队的帧、读取各连接的入站环并在本线程中分发消息, 本线程从不等待出站环的空闲空间. 空闲时先自旋, 再让出 CPU, 最后以逐步加长的间隔 park,
+ * 最长间隔即为空闲之后首条消息的额外延迟上限; 没有连接时 park 直到有连接注册
+ */
+final class DubboProxyShmPoller implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyShmPoller.class);
+
+    private static final int SPIN_TRIES = 1000;
+
+    private static final int YIELD_TRIES = 100;
+
+    private static final long MIN_PARK_NANOS = 1000;
+
+    private static final long MAX_PARK_NANOS = 100_000;
+
+    /**
+     * 连续空闲次数上限, 此时 park 间隔已达到 {@link #MAX_PARK_NANOS}
+     */
+    private static final int MAX_IDLE = SPIN_TRIES + YIELD_TRIES + 20;
+
+    private static final DubboProxyShmPoller INSTANCE = new DubboProxyShmPoller();
+
+    private final CopyOnWriteArrayList<DubboProxyShmChannel> channels = new CopyOnWriteArrayList<>();
+
+    private final Thread thread;
+
+    private DubboProxyShmPoller() {
+        thread = new Thread(this, "DubboProxyShmPoller");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 注册连接, 连接关闭后自动移除
+     *
+     * @param channel 共享内存连接
+     */
+    static void register(DubboProxyShmChannel channel) {
+        INSTANCE.channels.add(channel);
+        LockSupport.unpark(INSTANCE.thread);
+    }
+
+    /**
+     * 有帧排队时唤醒轮询线程, 尽快写出
+     */
+    static void wakeup() {
+        LockSupport.unpark(INSTANCE.thread);
+    }
+
+    /**
+     * 空闲等待, 等待的方式随连续空闲次数逐步退让
+     *
+     * @param idle 连续空闲次数
+     * @return 下一次的连续空闲次数
+     */
+    static int idle(int idle) {
+        if (idle < SPIN_TRIES) {
+            return idle + 1;
+        }
+        if (idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+            return idle + 1;
+        }
+        LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << (idle - SPIN_TRIES - YIELD_TRIES), MAX_PARK_NANOS));
+        return Math.min(idle + 1, MAX_IDLE);
+    }
+
+    @Override
+    public void run() {
+        int idle = 0;
+        for (; ; ) {
+            try {
+                if (channels.isEmpty()) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                boolean busy = false;
+                for (DubboProxyShmChannel channel : channels) {
+                    int read = channel.poll();
+                    if (read < 0) {
+                        channels.remove(channel);
+                        channel.release();
+                    } else if (read > 0) {
+                        busy = true;
+                    }
+                }
+                if (busy) {
+                    idle = 0;
+                } else {
+                    idle = idle(idle);
+                }
+            } catch (Throwable t) {
+                logger.warn("Poll shared memory channels failed, cause: " + t.getMessage(), t);
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+
+/**
+ * 单个共享内存连接映射的文件
+ * <p>
+ * 布局: [4KB 头部][客户端到服务端的环][服务端到客户端的环]. 头部依次为 magic, 版本, 环容量, 以及各占一个缓存行的
+ * 服务端已接受、客户端已关闭、服务端已关闭标记. 文件由客户端创建, 初始化完成后才改为 {@link #SUFFIX} 后缀,
+ * 服务端只会看到完整的文件.
+ * <p>
+ * 映射在文件关闭后不主动解除, 由 GC 回收, 避免轮询线程访问已解除映射的内存.
+ * 共享内存通过 {@link PlatformDependent} 按地址读写, 它只提供普通读写, 需要有序的位置以 {@link Fence} 隔开
+ */
+final class DubboProxyShmSegment {
+
+    /**
+     * 客户端初始化完成后的文件后缀
+     */
+    static final String SUFFIX = ".ring";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x44505348;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4096;
+
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int VERSION_OFFSET = 4;
+
+    private static final int CAPACITY_OFFSET = 8;
+
+    private static final int ACCEPTED_OFFSET = 64;
+
+    private static final int CLIENT_CLOSED_OFFSET = 128;
+
+    private static final int SERVER_CLOSED_OFFSET = 192;
+
+    /**
+     * 环容量上限, 两个环与头部加起来不能超过 int 范围
+     */
+    static final int MAX_CAPACITY = 1 << 29;
+
+    private final File file;
+
+    /**
+     * 持有映射, 避免被回收
+     */
+    private final MappedByteBuffer mapped;
+
+    private final long address;
+
+    /**
+     * 头部标记的屏障
+     */
+    private final Fence fence = new Fence();
+
+    private final Ring clientToServer;
+
+    private final Ring serverToClient;
+
+    private DubboProxyShmSegment(File file, MappedByteBuffer mapped, int capacity) {
+        this.file = file;
+        this.mapped = mapped;
+        this.address = PlatformDependent.directBufferAddress(mapped);
+        ByteBuf memory = Unpooled.wrappedBuffer(mapped);
+        this.clientToServer = new Ring(memory, address, HEADER_SIZE, capacity);
+        this.serverToClient = new Ring(memory, address, HEADER_SIZE + Ring.CONTROL_SIZE + capacity, capacity);
+    }
+
+    /**
+     * @return 当前环境是否可以使用共享内存传输
+     */
+    static boolean isAvailable() {
+        return PlatformDependent.hasUnsafe();
+    }
+
+    /**
+     * @param capacity 配置的环容量
+     * @return 不小于配置值的 2 的幂
+     */
+    static int normalizeCapacity(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Illegal shared memory ring size " + capacity + ", max " + MAX_CAPACITY);
+        }
+        int normalized = Integer.highestOneBit(capacity);
+        return normalized == capacity ? capacity : normalized << 1;
+    }
+
+    /**
+     * 客户端在目录下创建新的连接文件
+     *
+     * @param directory 服务端监听的目录
+     * @param capacity  环容量, 2 的幂
+     * @return 初始化完成的连接文件
+     * @throws IOException 创建失败
+     */
+    static DubboProxyShmSegment create(File directory, int capacity) throws IOException {
+        String name = UUID.randomUUID().toString();
+        File temp = new File(directory, name + TEMP_SUFFIX);
+        File file = new File(directory, name + SUFFIX);
+        MappedByteBuffer mapped;
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel channel = raf.getChannel()) {
+            long size = HEADER_SIZE + 2L * (Ring.CONTROL_SIZE + capacity);
+            raf.setLength(size);
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        DubboProxyShmSegment segment = new DubboProxyShmSegment(file, mapped, capacity);
+        PlatformDependent.putInt(segment.address + VERSION_OFFSET, VERSION);
+        PlatformDependent.putInt(segment.address + CAPACITY_OFFSET, capacity);
+        segment.fence.full();
+        PlatformDependent.putInt(segment.address + MAGIC_OFFSET, MAGIC);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to rename " + temp + " to " + file);
+        }
+        return segment;
+    }
+
+    /**
+     * 服务端打开客户端创建的连接文件
+     *
+     * @param file 连接文件
+     * @return 连接文件
+     * @throws IOException 文件格式不正确
+     */
+    static DubboProxyShmSegment open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            long size = raf.length();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Illegal shared memory file " + file + ", size " + size);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            long address = PlatformDependent.directBufferAddress(mapped);
+            // 文件改名后才对服务端可见, 头部已经写完
+            int magic = PlatformDependent.getInt(address + MAGIC_OFFSET);
+            int version = PlatformDependent.getInt(address + VERSION_OFFSET);
+            int capacity = PlatformDependent.getInt(address + CAPACITY_OFFSET);
+            if (magic != MAGIC || version != VERSION || capacity <= 0 || capacity > MAX_CAPACITY
+                    || Integer.bitCount(capacity) != 1 || size != HEADER_SIZE + 2L * (Ring.CONTROL_SIZE + capacity)) {
+                throw new IOException("Illegal shared memory file " + file + ", magic " + magic + ", version " + version
+                        + ", capacity " + capacity + ", size " + size);
+            }
+            return new DubboProxyShmSegment(file, mapped, capacity);
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    Ring getRing(boolean clientToServer) {
+        return clientToServer ? this.clientToServer : serverToClient;
+    }
+
+    void markAccepted() {
+        fence.full();
+        PlatformDependent.putInt(address + ACCEPTED_OFFSET, 1);
+    }
+
+    boolean isAccepted() {
+        boolean accepted = PlatformDependent.getInt(address + ACCEPTED_OFFSET) != 0;
+        fence.full();
+        return accepted;
+    }
+
+    /**
+     * 标记之前写入环的数据先于标记可见
+     */
+    void markClosed(boolean client) {
+        fence.full();
+        PlatformDependent.putInt(address + (client ? CLIENT_CLOSED_OFFSET : SERVER_CLOSED_OFFSET), 1);
+    }
+
+    boolean isClosed(boolean client) {
+        boolean closed = PlatformDependent.getInt(address + (client ? CLIENT_CLOSED_OFFSET : SERVER_CLOSED_OFFSET)) != 0;
+        fence.full();
+        return closed;
+    }
+
+    /**
+     * 共享内存访问之间的全屏障
+     * <p>
+     * 同一 volatile 字段的写与随后的读之间不能重排, 屏障前的访问先于写完成, 屏障后的访问晚于读开始,
+     * 因此两侧的共享内存访问不会跨过屏障. 每个环各用一个实例, 只被环的一侧访问, 不与其它线程争用缓存行
+     */
+    static final class Fence {
+
+        private volatile int value;
+
+        void full() {
+            value = 0;
+            // 读出的值不使用, 只需要 volatile 读的顺序
+            int ignored = value;
+        }
+    }
+
+    /**
+     * 共享内存中的单生产者单消费者字节环
+     * <p>
+     * 读写位置各占一个缓存行并单调递增, 按容量取模得到偏移. 写入方读取读位置, 拷贝数据, 再发布写位置;
+     * 读取方读取写位置, 拷贝数据, 再发布读位置, 每一步之间以屏障隔开. 环中是连续的字节流, 一帧可以分多次写入
+     */
+    static final class Ring {
+
+        static final int CONTROL_SIZE = 128;
+
+        private static final int READ_INDEX_OFFSET = 0;
+
+        private static final int WRITE_INDEX_OFFSET = 64;
+
+        private final ByteBuf memory;
+
+        private final long readIndexAddress;
+
+        private final long writeIndexAddress;
+
+        private final int dataOffset;
+
+        private final int capacity;
+
+        private final int mask;
+
+        private final Fence fence = new Fence();
+
+        private Ring(ByteBuf memory, long address, int offset, int capacity) {
+            this.memory = memory;
+            this.readIndexAddress = address + offset + READ_INDEX_OFFSET;
+            this.writeIndexAddress = address + offset + WRITE_INDEX_OFFSET;
+            this.dataOffset = offset + CONTROL_SIZE;
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * 只能由写入方调用, 写入空闲空间能容纳的部分
+         *
+         * @param src 待写入的数据, 读位置随写入的字节数后移
+         * @return 写入的字节数, 环已满时为 0
+         */
+        int write(ByteBuf src) {
+            long writeIndex = PlatformDependent.getLong(writeIndexAddress);
+            long readIndex = PlatformDependent.getLong(readIndexAddress);
+            // 读取方发布读位置之前的读取完成后才能覆盖这部分空间
+            fence.full();
+            int length = (int) Math.min(capacity - (writeIndex - readIndex), src.readableBytes());
+            if (length <= 0) {
+                return 0;
+            }
+            int offset = (int) (writeIndex & mask);
+            int first = Math.min(length, capacity - offset);
+            memory.setBytes(dataOffset + offset, src, src.readerIndex(), first);
+            if (first < length) {
+                memory.setBytes(dataOffset, src, src.readerIndex() + first, length - first);
+            }
+            src.skipBytes(length);
+            fence.full();
+            PlatformDependent.putLong(writeIndexAddress, writeIndex + length);
+            return length;
+        }
+
+        /**
+         * 只能由读取方调用
+         *
+         * @return 可读的字节数
+         * @throws IOException 读写位置损坏
+         */
+        int readableBytes() throws IOException {
+            long readable = PlatformDependent.getLong(writeIndexAddress) - PlatformDependent.getLong(readIndexAddress);
+            // 写入方发布写位置之前的数据对之后的读取可见
+            fence.full();
+            if (readable < 0 || readable > capacity) {
+                throw new IOException("Shared memory ring corrupted, readable " + readable + ", capacity " + capacity);
+            }
+            return (int) readable;
+        }
+
+        /**
+         * 只能由读取方调用, 读出全部可读的数据
+         *
+         * @param dst 目标 buffer, 按需扩容
+         * @return 读出的字节数
+         * @throws IOException 读写位置损坏
+         */
+        int read(ByteBuf dst) throws IOException {
+            int length = readableBytes();
+            if (length == 0) {
+                return 0;
+            }
+            long readIndex = PlatformDependent.getLong(readIndexAddress);
+            int offset = (int) (readIndex & mask);
+            int first = Math.min(length, capacity - offset);
+            dst.ensureWritable(length);
+            dst.writeBytes(memory, dataOffset + offset, first);
+            if (first < length) {
+                dst.writeBytes(memory, dataOffset, length - first);
+            }
+            fence.full();
+            PlatformDependent.putLong(readIndexAddress, readIndex + length);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.Client;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.Server;
+import org.apache.dubbo.remoting.Transporter;
+
+import java.io.File;
+
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SHM_PATH_KEY;
+
+/**
+ * DubboProxy共享内存传输层, 用于 SDK 与同机部署的 sidecar 之间延迟最敏感的连接
+ * <p>
+ * 服务端与 {@link DubboProxyNettyTransporter} 相同并额外监听 {@link org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants#SHM_PATH_KEY}
+ * 目录, 未配置时使用 /dev/shm (不存在时为临时目录) 下按端口命名的目录. 客户端在目录存在时使用共享内存连接, 否则使用
+ * {@link DubboProxyNettyClient}
+ */
+public class DubboProxyShmTransporter implements Transporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyShmTransporter.class);
+
+    public static final String NAME = "dubbo-proxy-shm";
+
+    @Override
+    public Server bind(URL url, ChannelHandler listener) throws RemotingException {
+        return new DubboProxyNettyServer(withShmPath(url), listener);
+    }
+
+    @Override
+    public Client connect(URL url, ChannelHandler listener) throws RemotingException {
+        url = withShmPath(url);
+        File directory = new File(url.getParameter(SHM_PATH_KEY));
+        if (DubboProxyShmSegment.isAvailable() && directory.isDirectory()) {
+            return new DubboProxyShmClient(url, listener);
+        }
+        logger.warn("Shared memory directory " + directory + " is not available, connect to "
+                + url.getAddress() + " with " + DubboProxyNettyTransporter.NAME + " instead");
+        return new DubboProxyNettyClient(url, listener);
+    }
+
+    private static URL withShmPath(URL url) {
+        if (url.hasParameter(SHM_PATH_KEY)) {
+            return url;
+        }
+        File shm = new File("/dev/shm");
+        File parent = shm.isDirectory() ? shm : new File(System.getProperty("java.io.tmpdir"));
+        return url.addParameter(SHM_PATH_KEY, new File(parent, "dubbo-proxy-" + url.getPort() + ".shm").getPath());
+    }
+}
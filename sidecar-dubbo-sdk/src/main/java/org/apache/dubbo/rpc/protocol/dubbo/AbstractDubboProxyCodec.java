@@ -2,16 +2,20 @@ package org.apache.dubbo.rpc.protocol.dubbo;
 
 import org.apache.dubbo.common.Version;
 import org.apache.dubbo.common.io.Bytes;
+import org.apache.dubbo.common.io.StreamUtils;
 import org.apache.dubbo.common.logger.Logger;
 import org.apache.dubbo.common.logger.LoggerFactory;
 import org.apache.dubbo.common.serialize.ObjectInput;
 import org.apache.dubbo.common.serialize.ObjectOutput;
 import org.apache.dubbo.common.utils.StringUtils;
 import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.buffer.ChannelBuffer;
 import org.apache.dubbo.remoting.exchange.Request;
 import org.apache.dubbo.remoting.exchange.Response;
 import org.apache.dubbo.remoting.exchange.codec.ExchangeCodec;
+import org.apache.dubbo.remoting.exchange.support.DefaultFuture;
 import org.apache.dubbo.remoting.transport.CodecSupport;
+import org.apache.dubbo.remoting.transport.netty4.DubboProxyChannelBuffer;
 import org.apache.dubbo.rpc.Result;
 import org.apache.dubbo.rpc.RpcInvocation;
 
@@ -113,6 +117,47 @@ public abstract class AbstractDubboProxyCodec extends DubboCodec {
         encodeResponseBody(channel, out, result, version);
     }
 
+    /**
+     * 与 {@link ExchangeCodec} 相同, 底层为 {@link DubboProxyChannelBuffer} 时 body 使用 {@link DubboProxyFrameInputStream},
+     * 解码时可以直接从帧上切出 payload
+     */
+    @Override
+    protected Object decode(Channel channel, ChannelBuffer buffer, int readable, byte[] header) throws IOException {
+        if (!(buffer instanceof DubboProxyChannelBuffer)
+                || readable < HEADER_LENGTH
+                || header[0] != MAGIC_HIGH
+                || header[1] != MAGIC_LOW) {
+            return super.decode(channel, buffer, readable, header);
+        }
+
+        // get data length.
+        int len = Bytes.bytes2int(header, 12);
+        checkPayload(channel, len);
+
+        int tt = len + HEADER_LENGTH;
+        if (readable < tt) {
+            return DecodeResult.NEED_MORE_INPUT;
+        }
+
+        // limit input stream.
+        DubboProxyFrameInputStream is = new DubboProxyFrameInputStream((DubboProxyChannelBuffer) buffer, len);
+
+        try {
+            return decodeBody(channel, is, header);
+        } finally {
+            if (is.available() > 0) {
+                try {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Skip input stream " + is.available());
+                    }
+                    StreamUtils.skipUnusedStream(is);
+                } catch (IOException e) {
+                    log.warn(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
     @Override
     protected Object decodeBody(Channel channel, InputStream is, byte[] header) {
         byte flag = header[2], proto = (byte) (flag & SERIALIZATION_MASK);
@@ -151,6 +196,10 @@ public abstract class AbstractDubboProxyCodec extends DubboCodec {
                 res.setStatus(Response.CLIENT_ERROR);
                 res.setErrorMessage(StringUtils.toString(t));
             }
+            if (res.isHeartbeat() && DefaultFuture.getFuture(id) != null) {
+                // HeartbeatHandler 丢弃心跳响应, 不会交给 HeaderExchangeHandler, 有 future 等待的心跳请求(如预热)在这里完成
+                DefaultFuture.received(channel, res);
+            }
             return res;
         } else {
             // decode request.
@@ -162,15 +211,23 @@ public abstract class AbstractDubboProxyCodec extends DubboCodec {
             }
             try {
                 Object data;
-                ObjectInput in = CodecSupport.deserialize(channel.getUrl(), is, proto);
+                // 业务请求不在这里创建序列化输入, 部分序列化创建时就会预读输入流, payload 需要原样保留
                 if (req.isHeartbeat()) {
+                    ObjectInput in = CodecSupport.deserialize(channel.getUrl(), is, proto);
                     data = decodeHeartbeatData(channel, in);
                 } else if (req.isEvent()) {
+                    ObjectInput in = CodecSupport.deserialize(channel.getUrl(), is, proto);
                     data = decodeEventData(channel, in);
                 } else {
                     data = decodeRequestBody(channel, is, header, req);
                 }
                 req.setData(data);
+            } catch (DubboProxyTableException e) {
+                // 连接上的表已经与对端不一致, 关闭连接后两端都从空表重新开始
+                log.error("Decode request tables failed, close channel " + channel + ": " + e.getMessage(), e);
+                channel.close();
+                req.setBroken(true);
+                req.setData(e);
             } catch (Throwable t) {
                 if (log.isWarnEnabled()) {
                     log.warn("Decode request failed: " + t.getMessage(), t);
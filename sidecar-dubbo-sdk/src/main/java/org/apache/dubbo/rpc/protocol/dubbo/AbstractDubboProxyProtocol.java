@@ -20,6 +20,7 @@ import org.apache.dubbo.remoting.exchange.ExchangeHandler;
 import org.apache.dubbo.remoting.exchange.ExchangeServer;
 import org.apache.dubbo.remoting.exchange.Exchangers;
 import org.apache.dubbo.remoting.exchange.support.ExchangeHandlerAdapter;
+import org.apache.dubbo.remoting.transport.netty4.DubboProxyEventLoops;
 import org.apache.dubbo.rpc.Exporter;
 import org.apache.dubbo.rpc.Invocation;
 import org.apache.dubbo.rpc.Invoker;
@@ -65,6 +66,8 @@ import static org.apache.dubbo.rpc.protocol.dubbo.Constants.ON_CONNECT_KEY;
 import static org.apache.dubbo.rpc.protocol.dubbo.Constants.ON_DISCONNECT_KEY;
 import static org.apache.dubbo.rpc.protocol.dubbo.Constants.OPTIMIZER_KEY;
 import static org.apache.dubbo.rpc.protocol.dubbo.Constants.SHARE_CONNECTIONS_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.EVENT_LOOP_AFFINITY_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.EVENT_LOOP_KEY;
 
 /**
  * DubboProxy客户端Protocol
@@ -84,6 +87,10 @@ public abstract class AbstractDubboProxyProtocol extends DubboProtocol {
      * <host:port,Exchanger>
      */
     private final Map<String, List<ReferenceCountExchangeClient>> referenceClientMap = new ConcurrentHashMap<>();
+    /**
+     * <host:port,连接池>, 开启 {@link #isClientPoolEnabled()} 时使用
+     */
+    private final Map<String, DubboProxyClientPool> clientPoolMap = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
     private final Set<String> optimizers = new ConcurrentHashSet<>();
     /**
@@ -125,12 +132,22 @@ public abstract class AbstractDubboProxyProtocol extends DubboProtocol {
                             + " not found in callback service interface ,invoke will be ignored."
                             + " please update the api interface. url is:"
                             + invoker.getUrl()) + " ,invocation is :" + inv);
+                    DubboProxyPayload.release(inv.getArguments());
                     return null;
                 }
             }
             RpcContext.getContext().setRemoteAddress(channel.getRemoteAddress());
-            Result result = invoker.invoke(inv);
-            return result.completionFuture().thenApply(Function.identity());
+            Result result;
+            try {
+                result = invoker.invoke(inv);
+            } catch (Throwable e) {
+                DubboProxyPayload.release(inv.getArguments());
+                throw e;
+            }
+            // 请求 payload 在调用完成(含超时、异常)后释放
+            return result.completionFuture()
+                    .whenComplete((r, t) -> DubboProxyPayload.release(inv.getArguments()))
+                    .thenApply(Function.identity());
         }
 
         @Override
@@ -188,6 +205,13 @@ public abstract class AbstractDubboProxyProtocol extends DubboProtocol {
 
     protected abstract String getCodecName();
 
+    /**
+     * 是否将同一地址的多个连接合并为按负载选择连接的 {@link DubboProxyClientPool}, 否则与 dubbo 相同由 invoker 轮询
+     */
+    protected boolean isClientPoolEnabled() {
+        return false;
+    }
+
     public Collection<ExchangeServer> getServers() {
         return Collections.unmodifiableCollection(serverMap.values());
     }
@@ -373,18 +397,26 @@ public abstract class AbstractDubboProxyProtocol extends DubboProtocol {
         optimizeSerialization(url);
 
         // create rpc invoker.
-        DubboInvoker<T> invoker = new DubboInvoker<T>(serviceType, url, getClients(url), invokers);
+        DubboInvoker<T> invoker = createInvoker(serviceType, url, getClients(url));
         invokers.add(invoker);
 
         return invoker;
     }
 
+    /**
+     * 创建服务引用的 invoker, 子类可以替换为自己的实现
+     */
+    protected <T> DubboInvoker<T> createInvoker(Class<T> serviceType, URL url, ExchangeClient[] clients) {
+        return new DubboInvoker<T>(serviceType, url, clients, invokers);
+    }
+
     private ExchangeClient[] getClients(URL url) {
         // whether to share connection
 
         boolean useShareConnect = false;
 
         int connections = url.getParameter(CONNECTIONS_KEY, 0);
+        int affinity = getEventLoopAffinity(url);
         List<ReferenceCountExchangeClient> shareClients = null;
         // if not configured, connection is shared, otherwise, one connection for one service
         if (connections == 0) {
@@ -397,22 +429,45 @@ public abstract class AbstractDubboProxyProtocol extends DubboProtocol {
             connections = Integer.parseInt((shareConnectionsStr == null || shareConnectionsStr.isEmpty())
                     ? ConfigUtils.getProperty(SHARE_CONNECTIONS_KEY, DEFAULT_SHARE_CONNECTIONS)
                     : shareConnectionsStr);
-            shareClients = getSharedClient(url, connections);
+            if (isClientPoolEnabled()) {
+                return new ExchangeClient[]{getSharedClientPool(url, connections)};
+            }
+            shareClients = getSharedClient(url, affinity > 0 ? affinity : connections);
+
+        } else if (isClientPoolEnabled()) {
+            return new ExchangeClient[]{new DubboProxyClientPool(url, connections, () -> initClient(url))};
+
+        } else if (affinity > 0) {
+            connections = affinity;
         }
 
-        ExchangeClient[] clients = new ExchangeClient[connections];
+        ExchangeClient[] clients = new ExchangeClient[useShareConnect ? shareClients.size() : connections];
         for (int i = 0; i < clients.length; i++) {
             if (useShareConnect) {
                 clients[i] = shareClients.get(i);
 
             } else {
-                clients[i] = initClient(url);
+                clients[i] = initClient(withEventLoop(url, i));
             }
         }
 
         return clients;
     }
 
+    /**
+     * 开启 {@link DubboProxyConstants#EVENT_LOOP_AFFINITY_KEY} 时为本进程服务端的每个 IO 线程建立一个连接,
+     * 第 i 个连接绑定第 i 个 IO 线程
+     *
+     * @return 需要建立的连接数, 未开启或本进程没有打开的服务端时返回 0
+     */
+    protected int getEventLoopAffinity(URL url) {
+        return url.getParameter(EVENT_LOOP_AFFINITY_KEY, false) ? DubboProxyEventLoops.size() : 0;
+    }
+
+    private URL withEventLoop(URL url, int index) {
+        return getEventLoopAffinity(url) > 0 ? url.addParameter(EVENT_LOOP_KEY, index) : url;
+    }
+
     /**
      * Get shared connection
      *
@@ -450,7 +505,7 @@ public abstract class AbstractDubboProxyProtocol extends DubboProtocol {
                     ReferenceCountExchangeClient referenceCountExchangeClient = clients.get(i);
                     // If there is a client in the list that is no longer available, create a new one to replace him.
                     if (referenceCountExchangeClient == null || referenceCountExchangeClient.isClosed()) {
-                        clients.set(i, buildReferenceCountExchangeClient(url));
+                        clients.set(i, buildReferenceCountExchangeClient(withEventLoop(url, i)));
                         continue;
                     }
 
@@ -468,6 +523,35 @@ public abstract class AbstractDubboProxyProtocol extends DubboProtocol {
         }
     }
 
+    /**
+     * Get shared connection pool
+     *
+     * @param url
+     * @param connectNum initial connections of a new pool
+     */
+    private DubboProxyClientPool getSharedClientPool(URL url, int connectNum) {
+        String key = url.getAddress();
+        DubboProxyClientPool pool = clientPoolMap.get(key);
+        if (pool != null && pool.retain()) {
+            return pool;
+        }
+
+        locks.putIfAbsent(key, new Object());
+        synchronized (locks.get(key)) {
+            pool = clientPoolMap.get(key);
+            // double check, a closed pool can not be retained any more
+            if (pool != null && pool.retain()) {
+                return pool;
+            }
+
+            pool = new DubboProxyClientPool(url, connectNum, () -> initClient(url));
+            clientPoolMap.put(key, pool);
+            locks.remove(key);
+
+            return pool;
+        }
+    }
+
     /**
      * Check if the client list is all available
      *
@@ -517,7 +601,7 @@ public abstract class AbstractDubboProxyProtocol extends DubboProtocol {
         List<ReferenceCountExchangeClient> clients = new ArrayList<>();
 
         for (int i = 0; i < connectNum; i++) {
-            clients.add(buildReferenceCountExchangeClient(url));
+            clients.add(buildReferenceCountExchangeClient(withEventLoop(url, i)));
         }
 
         return clients;
@@ -605,6 +689,20 @@ public abstract class AbstractDubboProxyProtocol extends DubboProtocol {
             }
         }
 
+        for (String key : new ArrayList<>(clientPoolMap.keySet())) {
+            DubboProxyClientPool pool = clientPoolMap.remove(key);
+
+            if (pool == null) {
+                continue;
+            }
+
+            try {
+                pool.close(ConfigurationUtils.getServerShutdownTimeout());
+            } catch (Throwable t) {
+                logger.warn(t.getMessage(), t);
+            }
+        }
+
         stubServiceMethodsMap.clear();
         super.destroy();
     }
@@ -0,0 +1,290 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.remoting.Channel;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个连接上的 attachments 动态表, 参考 HPACK
+ * <p>
+ * 两端按帧顺序维护相同的 (name, value) 表, 表大小按 name/value 长度加固定开销计算, 超出上限时淘汰最早的条目.
+ * 已在表中的 attachment 只写出索引, 其余的写出字面值, 同一个值第二次出现时才加入表, 每次都变化的 trace id 之类
+ * 不会挤掉常驻的条目. 一帧内新增的条目在整帧编码成功(SDK 端)或解码完成(服务端)后才加入表, 帧内的索引都指向帧开始时的表.
+ * <p>
+ * 每个 attachment 以 varint(index << 2 | type) 开头, index 为相对索引(1 为最新的条目), 字面 name 的 index 为 0;
+ * 字符串为 varint(UTF-8 长度 + 1) 加内容, 长度 0 表示 null
+ */
+final class DubboProxyAttachmentTable {
+
+    /**
+     * 连接上保存动态表的属性名
+     */
+    private static final String KEY = "dubbo.proxy.attachments";
+
+    /**
+     * 动态表大小上限, 两端必须一致
+     */
+    static final int MAX_SIZE = 4096;
+
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final int MAX_ENTRIES = MAX_SIZE / ENTRY_OVERHEAD;
+
+    /**
+     * SDK 端记录 name 上一次字面值的数量上限
+     */
+    private static final int MAX_LAST_VALUES = 1024;
+
+    private static final int TYPE_INDEXED = 1;
+
+    private static final int TYPE_LITERAL_INDEXED = 2;
+
+    private static final int TYPE_LITERAL = 3;
+
+    /**
+     * 动态表, 条目按插入序号存放在环形数组中, [evicted, inserted) 为表中的条目
+     */
+    private final String[] names = new String[MAX_ENTRIES];
+
+    private final String[] values = new String[MAX_ENTRIES];
+
+    private long inserted;
+
+    private long evicted;
+
+    private int size;
+
+    /**
+     * SDK 端: <name, <value, 插入序号>>
+     */
+    private final Map<String, Map<String, Long>> pairIndex = new HashMap<>();
+
+    /**
+     * SDK 端: <name, 最新的插入序号>
+     */
+    private final Map<String, Long> nameIndex = new HashMap<>();
+
+    /**
+     * SDK 端: <name, 上一次的字面值>
+     */
+    private final Map<String, String> lastValues = new HashMap<>();
+
+    /**
+     * SDK 端: 当前帧待加入表的 name, value
+     */
+    private final List<String> pending = new ArrayList<>();
+
+    static DubboProxyAttachmentTable of(Channel channel) {
+        DubboProxyAttachmentTable table = (DubboProxyAttachmentTable) channel.getAttribute(KEY);
+        if (table == null) {
+            table = new DubboProxyAttachmentTable();
+            channel.setAttribute(KEY, table);
+        }
+        return table;
+    }
+
+    /**
+     * 编码 attachments, 帧编码成功后需要调用 {@link #commit()}
+     *
+     * @param attachments attachments
+     * @param os          输出流
+     * @throws IOException 写出异常
+     */
+    void encode(Map<String, String> attachments, OutputStream os) throws IOException {
+        // 上一帧编码失败时丢弃未提交的条目
+        pending.clear();
+        if (lastValues.size() > MAX_LAST_VALUES) {
+            lastValues.clear();
+        }
+        writeVarint(os, attachments.size());
+        for (Map.Entry<String, String> attachment : attachments.entrySet()) {
+            String name = attachment.getKey();
+            String value = attachment.getValue();
+            Map<String, Long> byValue = pairIndex.get(name);
+            Long seq = byValue == null || value == null ? null : byValue.get(value);
+            if (seq != null) {
+                writeVarint(os, (inserted - seq) << 2 | TYPE_INDEXED);
+                continue;
+            }
+
+            Long nameSeq = nameIndex.get(name);
+            long nameRef = nameSeq == null ? 0 : inserted - nameSeq;
+            boolean index = name != null && value != null
+                    && value.equals(lastValues.put(name, value))
+                    && entrySize(name, value) <= MAX_SIZE / 2;
+            writeVarint(os, nameRef << 2 | (index ? TYPE_LITERAL_INDEXED : TYPE_LITERAL));
+            if (nameRef == 0) {
+                writeString(os, name);
+            }
+            writeString(os, value);
+            if (index) {
+                pending.add(name);
+                pending.add(value);
+            }
+        }
+    }
+
+    /**
+     * 帧编码成功后将本帧的新条目加入表
+     */
+    void commit() {
+        for (int i = 0; i < pending.size(); i += 2) {
+            insert(pending.get(i), pending.get(i + 1));
+        }
+        pending.clear();
+    }
+
+    /**
+     * 解码 attachments, 并将本帧的新条目加入表
+     *
+     * @param is 输入流
+     * @return attachments
+     * @throws IOException 读取异常或索引超出范围
+     */
+    Map<String, String> decode(InputStream is) throws IOException {
+        long count = readVarint(is);
+        if (count > is.available()) {
+            throw new IOException("Attachment count " + count + " exceeds readable " + is.available());
+        }
+        Map<String, String> attachments = new HashMap<>(Math.max((int) count * 4 / 3 + 1, 16));
+        List<String> inserts = null;
+        for (int i = 0; i < count; i++) {
+            long code = readVarint(is);
+            int type = (int) (code & 3);
+            long index = code >>> 2;
+            if (type == TYPE_INDEXED) {
+                int slot = slot(index);
+                attachments.put(names[slot], values[slot]);
+                continue;
+            }
+            if (type != TYPE_LITERAL_INDEXED && type != TYPE_LITERAL) {
+                throw new IOException("Unknown attachment type " + type);
+            }
+            String name = index == 0 ? readString(is) : names[slot(index)];
+            String value = readString(is);
+            attachments.put(name, value);
+            if (type == TYPE_LITERAL_INDEXED) {
+                if (name == null || value == null) {
+                    throw new IOException("Null attachment can not be indexed.");
+                }
+                if (inserts == null) {
+                    inserts = new ArrayList<>();
+                }
+                inserts.add(name);
+                inserts.add(value);
+            }
+        }
+        if (inserts != null) {
+            for (int i = 0; i < inserts.size(); i += 2) {
+                insert(inserts.get(i), inserts.get(i + 1));
+            }
+        }
+        return attachments;
+    }
+
+    private int slot(long index) throws IOException {
+        long seq = inserted - index;
+        if (index <= 0 || seq < evicted) {
+            throw new IOException("Attachment index " + index + " out of range, entries " + (inserted - evicted));
+        }
+        return (int) (seq % MAX_ENTRIES);
+    }
+
+    private void insert(String name, String value) {
+        int entrySize = entrySize(name, value);
+        while (size + entrySize > MAX_SIZE) {
+            evict();
+        }
+        long seq = inserted++;
+        int slot = (int) (seq % MAX_ENTRIES);
+        names[slot] = name;
+        values[slot] = value;
+        size += entrySize;
+        pairIndex.computeIfAbsent(name, key -> new HashMap<>()).put(value, seq);
+        nameIndex.put(name, seq);
+    }
+
+    private void evict() {
+        long seq = evicted++;
+        int slot = (int) (seq % MAX_ENTRIES);
+        String name = names[slot];
+        String value = values[slot];
+        names[slot] = null;
+        values[slot] = null;
+        size -= entrySize(name, value);
+
+        Map<String, Long> byValue = pairIndex.get(name);
+        Long pairSeq = byValue == null ? null : byValue.get(value);
+        if (pairSeq != null && pairSeq == seq) {
+            byValue.remove(value);
+            if (byValue.isEmpty()) {
+                pairIndex.remove(name);
+            }
+        }
+        Long nameSeq = nameIndex.get(name);
+        if (nameSeq != null && nameSeq == seq) {
+            nameIndex.remove(name);
+        }
+    }
+
+    private static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+    private static void writeVarint(OutputStream os, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            os.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        os.write((int) value);
+    }
+
+    private static long readVarint(InputStream is) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = is.read();
+            if (b < 0) {
+                throw new EOFException("Read attachment varint failed.");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed attachment varint.");
+    }
+
+    private static void writeString(OutputStream os, String value) throws IOException {
+        if (value == null) {
+            writeVarint(os, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(os, bytes.length + 1);
+        os.write(bytes);
+    }
+
+    private static String readString(InputStream is) throws IOException {
+        long length = readVarint(is);
+        if (length == 0) {
+            return null;
+        }
+        int len = (int) length - 1;
+        if (len < 0 || len > is.available()) {
+            throw new IOException("Attachment length " + len + " exceeds readable " + is.available());
+        }
+        byte[] bytes = new byte[len];
+        if (len > 0 && is.read(bytes) != len) {
+            throw new EOFException("Read attachment failed.");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
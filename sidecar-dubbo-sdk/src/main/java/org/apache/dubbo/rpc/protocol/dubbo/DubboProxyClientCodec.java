@@ -2,10 +2,13 @@ package org.apache.dubbo.rpc.protocol.dubbo;
 
 import org.apache.dubbo.common.io.Bytes;
 import org.apache.dubbo.common.io.UnsafeByteArrayInputStream;
+import org.apache.dubbo.common.serialize.Cleanable;
 import org.apache.dubbo.common.serialize.ObjectOutput;
-import org.apache.dubbo.common.serialize.hessian2.Hessian2ObjectOutput;
-import org.apache.dubbo.common.utils.ReflectUtils;
+import org.apache.dubbo.common.serialize.Serialization;
+import org.apache.dubbo.common.serialize.hessian2.Hessian2Serialization;
 import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.buffer.ChannelBuffer;
+import org.apache.dubbo.remoting.buffer.ChannelBufferOutputStream;
 import org.apache.dubbo.remoting.exchange.Request;
 import org.apache.dubbo.remoting.exchange.Response;
 import org.apache.dubbo.rpc.Invocation;
@@ -15,6 +18,7 @@ import org.apache.dubbo.rpc.RpcInvocation;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 
 import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
@@ -22,52 +26,231 @@ import static org.apache.dubbo.common.constants.CommonConstants.PATH_KEY;
 import static org.apache.dubbo.common.constants.CommonConstants.VERSION_KEY;
 import static org.apache.dubbo.rpc.protocol.dubbo.Constants.DECODE_IN_IO_THREAD_KEY;
 import static org.apache.dubbo.rpc.protocol.dubbo.Constants.DEFAULT_DECODE_IN_IO_THREAD;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.ATTACHMENT_TABLE_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_ATTACHMENT_TABLE;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_SERVICE_ID;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_SINGLE_PASS_ENCODE;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.FRAME_FLAG_ATTACHMENT_TABLE;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.FRAME_FLAG_RAW_PAYLOAD;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.FRAME_FLAG_SERVICE_ID;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.PAYLOAD_OFFSET_LENGTH;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SERVICE_ID_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SERVICE_ID_LENGTH;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SINGLE_PASS_ENCODE_KEY;
 
 /**
  * DubboProxy客户端Codec
  */
 public class DubboProxyClientCodec extends AbstractDubboProxyCodec {
 
-    private final DubboCodec dubboCodec = new DubboCodec();
+    /**
+     * 单次写入编码
+     * <p>
+     * 预留 dubbo header 与 payload offset, proxy header 与 payload 依次直接写入 channel buffer,
+     * 写完后回填长度信息, payload 只会被写入一次. 开启服务 id 时, 已登记的服务只写出服务 id;
+     * 开启 attachments 动态表时, attachments 按动态表编码, 两者都开启时不再需要序列化 proxy header.
+     * payload 由预编译的 {@link DubboProxyRequestEncoder} 写出.
+     * <p>
+     * 旧帧格式中 payload 经过 {@link ObjectOutput#writeBytes} 写出, fastjson / gson / avro 等序列化的字节数组无法原样读回,
+     * 旧版本 sidecar 也只支持 Hessian2, 因此 Hessian2 以外的序列化始终使用单次写入编码
+     */
+    @Override
+    protected void encodeRequest(Channel channel, ChannelBuffer buffer, Request req) throws IOException {
+        Serialization serialization = getSerialization(channel);
+        if (req.isEvent() || (serialization instanceof Hessian2Serialization
+                && !channel.getUrl().getParameter(SINGLE_PASS_ENCODE_KEY, DEFAULT_SINGLE_PASS_ENCODE))) {
+            int savedWriteIndex = buffer.writerIndex();
+            super.encodeRequest(channel, buffer, req);
+            sent(channel, req, buffer.writerIndex() - savedWriteIndex);
+            return;
+        }
+        RpcInvocation inv = (RpcInvocation) req.getData();
+
+        DubboProxyRequestEncoder encoder = DubboProxyRequestEncoder.get(inv, req.getVersion());
+
+        // 服务 id, 未登记的服务分配新 id 并随本帧登记
+        DubboProxyServiceTable services = null;
+        int serviceId = -1;
+        boolean define = false;
+        if (channel.getUrl().getParameter(SERVICE_ID_KEY, DEFAULT_SERVICE_ID)) {
+            services = DubboProxyServiceTable.of(channel);
+            serviceId = services.getId(encoder.getKey());
+            if (serviceId < 0) {
+                serviceId = services.nextId();
+                define = serviceId >= 0;
+            }
+        }
+
+        DubboProxyAttachmentTable attachments = channel.getUrl()
+                .getParameter(ATTACHMENT_TABLE_KEY, DEFAULT_ATTACHMENT_TABLE)
+                ? DubboProxyAttachmentTable.of(channel)
+                : null;
+
+        // header.
+        byte[] header = new byte[HEADER_LENGTH + PAYLOAD_OFFSET_LENGTH + (serviceId >= 0 ? SERVICE_ID_LENGTH : 0)];
+        Bytes.short2bytes(MAGIC, header);
+        header[2] = (byte) (FLAG_REQUEST | serialization.getContentTypeId());
+        if (req.isTwoWay()) {
+            header[2] |= FLAG_TWOWAY;
+        }
+        header[3] = FRAME_FLAG_RAW_PAYLOAD;
+        Bytes.long2bytes(req.getId(), header, 4);
+        if (serviceId >= 0) {
+            header[3] |= FRAME_FLAG_SERVICE_ID;
+            Bytes.int2bytes(define ? serviceId | DubboProxyServiceTable.DEFINE_FLAG : serviceId,
+                    header, HEADER_LENGTH + PAYLOAD_OFFSET_LENGTH);
+        }
+        if (attachments != null) {
+            header[3] |= FRAME_FLAG_ATTACHMENT_TABLE;
+        }
+
+        // 预留 header, payload offset 与服务 id
+        int savedWriteIndex = buffer.writerIndex();
+        buffer.ensureWritableBytes(header.length);
+        buffer.writerIndex(savedWriteIndex + header.length);
+        ChannelBufferOutputStream bos = new ChannelBufferOutputStream(buffer);
+        if (define) {
+            encoder.getDescriptor().writeTo(bos);
+        }
+        if (attachments != null) {
+            attachments.encode(inv.getAttachments(), bos);
+        }
+
+        // proxy header
+        if (serviceId < 0 || attachments == null) {
+            ObjectOutput out = serialization.serialize(channel.getUrl(), bos);
+            if (serviceId < 0) {
+                encodeProxyHeader(out, inv, encoder.getDescriptor());
+            }
+            if (attachments == null) {
+                encodeAttachments(out, inv);
+            }
+            out.flushBuffer();
+            if (out instanceof Cleanable) {
+                ((Cleanable) out).cleanup();
+            }
+        }
+        int payloadOffset = header.length - HEADER_LENGTH + bos.writtenBytes();
+
+        // payload, 与 proxy header 使用相互独立的序列化上下文
+        ObjectOutput payloadOut = createPayloadOutput(channel, serialization, bos);
+        try {
+            encoder.encode(channel, bos, payloadOut, inv);
+            payloadOut.flushBuffer();
+        } finally {
+            if (payloadOut instanceof Cleanable) {
+                ((Cleanable) payloadOut).cleanup();
+            }
+        }
+        bos.flush();
+        bos.close();
+
+        int len = header.length - HEADER_LENGTH + bos.writtenBytes();
+        checkPayload(channel, len);
+        Bytes.int2bytes(len, header, 12);
+        Bytes.int2bytes(payloadOffset, header, HEADER_LENGTH);
+
+        // 回填 header
+        buffer.setBytes(savedWriteIndex, header);
+        if (define) {
+            services.define(encoder.getKey(), serviceId);
+        }
+        if (attachments != null) {
+            attachments.commit();
+        }
+        sent(channel, req, HEADER_LENGTH + len);
+    }
+
+    /**
+     * 记录等待响应的请求帧, 用于连接负载统计
+     */
+    private void sent(Channel channel, Request req, int bytes) {
+        if (req.isTwoWay()) {
+            DubboProxyConnectionLoad.of(channel).sent(req.getId(), bytes);
+        }
+    }
+
+    /**
+     * 与父类相同, 额外记录正在接收中的响应帧剩余的字节数, 用于连接负载统计
+     */
+    @Override
+    protected Object decode(Channel channel, ChannelBuffer buffer, int readable, byte[] header) throws IOException {
+        Object msg = super.decode(channel, buffer, readable, header);
+        if (msg == DecodeResult.NEED_MORE_INPUT) {
+            if (readable >= HEADER_LENGTH && header[0] == MAGIC_HIGH && header[1] == MAGIC_LOW) {
+                DubboProxyConnectionLoad.of(channel).receiving(Bytes.bytes2int(header, 12) + HEADER_LENGTH - readable);
+            }
+        } else if (msg instanceof Response) {
+            DubboProxyConnectionLoad.of(channel).receiving(0);
+        }
+        return msg;
+    }
 
     @Override
-    @SuppressWarnings("Duplicates")
     protected void encodeRequestBody(
             Channel channel,
             ObjectOutput out,
             RpcInvocation inv,
             String version
     ) throws IOException {
-        out.writeUTF(version);
+        DubboProxyRequestEncoder encoder = DubboProxyRequestEncoder.get(inv, version);
+        encodeProxyHeader(out, inv, encoder.getDescriptor());
+        encodeAttachments(out, inv);
+        out.writeBytes(getRequestPayload(channel, inv, encoder));
+        out.flushBuffer();
+    }
+
+    private void encodeProxyHeader(
+            ObjectOutput out,
+            RpcInvocation inv,
+            DubboProxyServiceDescriptor descriptor
+    ) throws IOException {
+        out.writeUTF(descriptor.getDubboVersion());
         out.writeUTF(inv.getAttachment(PATH_KEY));
         out.writeUTF(inv.getAttachment(VERSION_KEY));
         out.writeUTF(inv.getAttachment(GROUP_KEY));
         out.writeUTF(inv.getMethodName());
-        out.writeUTF(ReflectUtils.getDesc(inv.getParameterTypes()));
+        out.writeUTF(descriptor.getDesc());
+    }
+
+    private void encodeAttachments(ObjectOutput out, RpcInvocation inv) throws IOException {
         out.writeObject(new HashMap<>(inv.getAttachments()));
-        out.writeBytes(getRequestPayload(channel, out, inv, version));
-        out.flushBuffer();
     }
 
     private byte[] getRequestPayload(
             Channel channel,
-            ObjectOutput out,
             RpcInvocation inv,
-            String version
+            DubboProxyRequestEncoder encoder
     ) throws IOException {
-        ObjectOutput delegateOutput;
         try (ByteArrayOutputStream delegate = new ByteArrayOutputStream()) {
-            if (out instanceof Hessian2ObjectOutput) {
-                delegateOutput = new DubboProxyHessian2ObjectOutput(delegate);
-            } else {
-                throw new IOException("DubboProxyClient dose not support serialization type=" + out.getClass().getName());
+            ObjectOutput delegateOutput = createPayloadOutput(channel, getSerialization(channel), delegate);
+            try {
+                encoder.encode(channel, delegate, delegateOutput, inv);
+                delegateOutput.flushBuffer();
+            } finally {
+                if (delegateOutput instanceof Cleanable) {
+                    ((Cleanable) delegateOutput).cleanup();
+                }
             }
-            dubboCodec.encodeRequestData(channel, delegateOutput, inv, version);
-            delegateOutput.flushBuffer();
             return delegate.toByteArray();
         }
     }
 
+    /**
+     * payload 与 proxy header 使用相同的序列化, 帧 header 中的序列化 id 同时也是 payload 的序列化 id,
+     * 代理只转发 payload 原始字节, 任意序列化都可以透传. Hessian2 输出在线程内复用, 用完后需要 cleanup
+     */
+    private ObjectOutput createPayloadOutput(
+            Channel channel,
+            Serialization serialization,
+            OutputStream os
+    ) throws IOException {
+        if (serialization instanceof Hessian2Serialization) {
+            return DubboProxyHessian2ObjectOutput.acquire(os);
+        }
+        return serialization.serialize(channel.getUrl(), os);
+    }
+
     @Override
     protected RpcInvocation decodeRequestBody(Channel channel, InputStream is, byte[] header, Request req) {
         throw new UnsupportedOperationException("DubboProxyClientCodec#decodeRequestBody is not supported.");
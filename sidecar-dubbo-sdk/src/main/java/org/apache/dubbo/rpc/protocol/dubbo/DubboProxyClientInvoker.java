@@ -0,0 +1,34 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcInvocation;
+import org.apache.dubbo.rpc.support.RpcUtils;
+
+import java.util.Set;
+
+import static org.apache.dubbo.common.constants.CommonConstants.DEFAULT_TIMEOUT;
+import static org.apache.dubbo.common.constants.CommonConstants.TIMEOUT_KEY;
+
+/**
+ * 与 {@link DubboInvoker} 相同, 额外在请求中携带调用方的超时时间.
+ * sidecar 直接转发请求时按该时间等待上游响应, 与 SDK 等待 sidecar 响应的时间一致
+ */
+class DubboProxyClientInvoker<T> extends DubboInvoker<T> {
+
+    DubboProxyClientInvoker(Class<T> serviceType, URL url, ExchangeClient[] clients, Set<Invoker<?>> invokers) {
+        super(serviceType, url, clients, invokers);
+    }
+
+    @Override
+    protected Result doInvoke(Invocation invocation) throws Throwable {
+        // 同一方法的超时时间不变, 使用动态 attachment 表时之后的请求只写出索引
+        ((RpcInvocation) invocation).setAttachment(TIMEOUT_KEY, String.valueOf(getUrl().getMethodPositiveParameter(
+                RpcUtils.getMethodName(invocation), TIMEOUT_KEY, DEFAULT_TIMEOUT)));
+        return super.doInvoke(invocation);
+    }
+
+}
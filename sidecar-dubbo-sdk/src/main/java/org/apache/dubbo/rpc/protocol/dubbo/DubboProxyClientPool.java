@@ -0,0 +1,477 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.Parameters;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.config.ConfigurationUtils;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.utils.NamedThreadFactory;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+import org.apache.dubbo.remoting.exchange.ExchangeHandler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.apache.dubbo.common.constants.CommonConstants.DEFAULT_TIMEOUT;
+import static org.apache.dubbo.common.constants.CommonConstants.TIMEOUT_KEY;
+import static org.apache.dubbo.remoting.Constants.CHANNEL_ATTRIBUTE_READONLY_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.CONNECTIONS_IDLE_TIMEOUT_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.CONNECTIONS_MAX_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.CONNECTIONS_SATURATION_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_CONNECTIONS_IDLE_TIMEOUT;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_CONNECTIONS_SATURATION;
+
+/**
+ * 同一 sidecar 地址的多个连接, 对 invoker 表现为单个 {@link ExchangeClient}
+ * <p>
+ * 每个请求选择进行中请求数与字节数折算后负载最低的连接, 避免一个慢的大响应阻塞轮询到同一连接上的其它请求.
+ * 负载相同时优先选择靠前的连接, 因此扩容出的连接在负载下降后会空闲下来. 所有连接都饱和时在后台扩容,
+ * 直到 {@code connections.max}; 扩容出的连接空闲超过 {@code connections.idle.timeout} 后关闭.
+ * 共享连接时按引用计数关闭
+ */
+final class DubboProxyClientPool implements ExchangeClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyClientPool.class);
+
+    /**
+     * 进行中的字节数按该大小折算为一个请求
+     */
+    private static final int BYTES_PER_REQUEST = 64 * 1024;
+
+    private static final long IDLE_CHECK_PERIOD = 1000;
+
+    /**
+     * dubbo 2.7.5 起的 {@code ExchangeClient#request(Object, int, ExecutorService)}, 不存在时为 null
+     */
+    private static final MethodHandle REQUEST_WITH_EXECUTOR = findRequestWithExecutor();
+
+    private static final ExecutorService CONNECTOR = Executors.newCachedThreadPool(
+            new NamedThreadFactory("dubbo-proxy-client-pool-connector", true));
+
+    private static final ScheduledExecutorService IDLE_CHECKER = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("dubbo-proxy-client-pool-idle-checker", true));
+
+    private final URL url;
+
+    private final Supplier<ExchangeClient> factory;
+
+    private final int minConnections;
+
+    private final int maxConnections;
+
+    private final int saturation;
+
+    private final long idleTimeout;
+
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    private final AtomicBoolean growing = new AtomicBoolean();
+
+    private final ScheduledFuture<?> idleCheck;
+
+    private volatile Member[] members;
+
+    private volatile boolean closed;
+
+    /**
+     * @param url         引用 url
+     * @param connections 初始连接数, 同时也是空闲收缩的下限
+     * @param factory     创建连接
+     */
+    DubboProxyClientPool(URL url, int connections, Supplier<ExchangeClient> factory) {
+        this.url = url;
+        this.factory = factory;
+        this.minConnections = Math.max(connections, 1);
+        this.maxConnections = Math.max(url.getParameter(CONNECTIONS_MAX_KEY, minConnections), minConnections);
+        this.saturation = url.getPositiveParameter(CONNECTIONS_SATURATION_KEY, DEFAULT_CONNECTIONS_SATURATION);
+        this.idleTimeout = url.getPositiveParameter(CONNECTIONS_IDLE_TIMEOUT_KEY, DEFAULT_CONNECTIONS_IDLE_TIMEOUT);
+
+        Member[] members = new Member[minConnections];
+        try {
+            for (int i = 0; i < members.length; i++) {
+                members[i] = new Member(factory.get());
+            }
+        } catch (RuntimeException e) {
+            for (Member member : members) {
+                if (member != null) {
+                    member.client.close();
+                }
+            }
+            throw e;
+        }
+        this.members = members;
+        this.idleCheck = IDLE_CHECKER.scheduleWithFixedDelay(
+                this::checkIdle, IDLE_CHECK_PERIOD, IDLE_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    private static MethodHandle findRequestWithExecutor() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(ExchangeClient.class, "request",
+                    MethodType.methodType(CompletableFuture.class, Object.class, int.class, ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 共享连接时增加引用
+     *
+     * @return false 表示已经关闭, 需要重新创建
+     */
+    boolean retain() {
+        for (; ; ) {
+            int count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 选择负载最低的可用连接, 没有可用连接时选择负载最低的连接. 最低负载也已饱和时触发扩容
+     */
+    private Member select() {
+        Member[] members = this.members;
+        if (maxConnections == 1) {
+            return members[0];
+        }
+        Member best = null, fallback = null;
+        long bestLoad = Long.MAX_VALUE, fallbackLoad = Long.MAX_VALUE;
+        for (Member member : members) {
+            long load = member.getLoad();
+            if (load < fallbackLoad) {
+                fallback = member;
+                fallbackLoad = load;
+            }
+            if (load < bestLoad && member.isAvailable()) {
+                best = member;
+                bestLoad = load;
+            }
+        }
+        if (best == null) {
+            return fallback;
+        }
+        if (bestLoad >= saturation && members.length < maxConnections) {
+            grow();
+        }
+        return best;
+    }
+
+    private void grow() {
+        if (closed || !growing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            CONNECTOR.execute(() -> {
+                try {
+                    ExchangeClient client = factory.get();
+                    synchronized (this) {
+                        if (closed || members.length >= maxConnections) {
+                            client.close();
+                            return;
+                        }
+                        Member[] grown = Arrays.copyOf(members, members.length + 1);
+                        grown[grown.length - 1] = new Member(client);
+                        members = grown;
+                    }
+                    if (logger.isInfoEnabled()) {
+                        logger.info("All connections to " + url.getAddress() + " are saturated, grow to "
+                                + members.length + " connections.");
+                    }
+                } catch (Throwable t) {
+                    logger.warn("Grow connections to " + url.getAddress() + " failed, cause: " + t.getMessage(), t);
+                } finally {
+                    growing.set(false);
+                }
+            });
+        } catch (Throwable t) {
+            growing.set(false);
+            logger.warn("Grow connections to " + url.getAddress() + " failed, cause: " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * 关闭最后一个空闲超时的扩容连接
+     */
+    private void checkIdle() {
+        try {
+            Member[] members = this.members;
+            if (members.length <= minConnections) {
+                return;
+            }
+            Member last = members[members.length - 1];
+            if (!last.isIdle(System.currentTimeMillis() - idleTimeout)) {
+                return;
+            }
+            synchronized (this) {
+                if (closed || this.members[this.members.length - 1] != last) {
+                    return;
+                }
+                this.members = Arrays.copyOf(this.members, this.members.length - 1);
+            }
+            if (logger.isInfoEnabled()) {
+                logger.info("Connection " + last.client.getLocalAddress() + " --> " + last.client.getRemoteAddress()
+                        + " is idle for " + idleTimeout + " ms, shrink to " + (members.length - 1) + " connections.");
+            }
+            // 移除前刚被选中的请求由优雅关闭等待完成
+            CONNECTOR.execute(() -> last.client.close(ConfigurationUtils.getServerShutdownTimeout()));
+        } catch (Throwable t) {
+            logger.warn("Check idle connections to " + url.getAddress() + " failed, cause: " + t.getMessage(), t);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Object> request(Object request) throws RemotingException {
+        return select().request(request, -1);
+    }
+
+    @Override
+    public CompletableFuture<Object> request(Object request, int timeout) throws RemotingException {
+        return select().request(request, timeout);
+    }
+
+    /**
+     * dubbo 2.7.5 起 ExchangeChannel 增加的方法, 编译依赖的 2.7.3 中不存在, 因此不加 @Override
+     */
+    public CompletableFuture<Object> request(Object request, ExecutorService executor) throws RemotingException {
+        return request(request, getUrl().getPositiveParameter(TIMEOUT_KEY, DEFAULT_TIMEOUT), executor);
+    }
+
+    /**
+     * dubbo 2.7.5 起 ExchangeChannel 增加的方法, 编译依赖的 2.7.3 中不存在, 因此不加 @Override
+     */
+    public CompletableFuture<Object> request(Object request, int timeout, ExecutorService executor)
+            throws RemotingException {
+        return select().request(request, timeout, executor);
+    }
+
+    @Override
+    public void send(Object message) throws RemotingException {
+        select().client.send(message);
+    }
+
+    @Override
+    public void send(Object message, boolean sent) throws RemotingException {
+        select().client.send(message, sent);
+    }
+
+    @Override
+    public URL getUrl() {
+        return members[0].client.getUrl();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return members[0].client.getRemoteAddress();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return members[0].client.getLocalAddress();
+    }
+
+    @Override
+    public ChannelHandler getChannelHandler() {
+        return members[0].client.getChannelHandler();
+    }
+
+    @Override
+    public ExchangeHandler getExchangeHandler() {
+        return members[0].client.getExchangeHandler();
+    }
+
+    /**
+     * @return 任意一个连接可用
+     */
+    @Override
+    public boolean isConnected() {
+        for (Member member : members) {
+            if (member.client.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void reconnect() throws RemotingException {
+        for (Member member : members) {
+            member.client.reconnect();
+        }
+    }
+
+    @Override
+    public void reset(URL url) {
+        for (Member member : members) {
+            member.client.reset(url);
+        }
+    }
+
+    @Deprecated
+    @Override
+    public void reset(Parameters parameters) {
+        reset(getUrl().addParameters(parameters.getParameters()));
+    }
+
+    /**
+     * @return 所有连接都带有该属性, 例如所有连接都收到了只读事件
+     */
+    @Override
+    public boolean hasAttribute(String key) {
+        for (Member member : members) {
+            if (!member.client.hasAttribute(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Object getAttribute(String key) {
+        return members[0].client.getAttribute(key);
+    }
+
+    @Override
+    public void setAttribute(String key, Object value) {
+        for (Member member : members) {
+            member.client.setAttribute(key, value);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String key) {
+        for (Member member : members) {
+            member.client.removeAttribute(key);
+        }
+    }
+
+    @Override
+    public void close() {
+        close(0);
+    }
+
+    /**
+     * 引用计数归零时关闭所有连接
+     */
+    @Override
+    public void close(int timeout) {
+        if (refCount.decrementAndGet() > 0) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        idleCheck.cancel(false);
+        for (Member member : members) {
+            if (logger.isInfoEnabled()) {
+                logger.info("Close dubbo connect: " + member.client.getLocalAddress()
+                        + "-->" + member.client.getRemoteAddress());
+            }
+            try {
+                member.client.close(timeout);
+            } catch (Throwable t) {
+                logger.warn(t.getMessage(), t);
+            }
+        }
+    }
+
+    @Override
+    public void startClose() {
+        for (Member member : members) {
+            member.client.startClose();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 单个连接及其进行中的请求数
+     */
+    private static final class Member {
+
+        private final ExchangeClient client;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /**
+         * 最近一次进行中请求数归零的时间
+         */
+        private volatile long lastIdle = System.currentTimeMillis();
+
+        private Member(ExchangeClient client) {
+            this.client = client;
+        }
+
+        private CompletableFuture<Object> request(Object request, int timeout) throws RemotingException {
+            return request(request, timeout, null);
+        }
+
+        @SuppressWarnings("unchecked")
+        private CompletableFuture<Object> request(Object request, int timeout, ExecutorService executor)
+                throws RemotingException {
+            inFlight.incrementAndGet();
+            CompletableFuture<Object> future;
+            try {
+                if (executor != null && REQUEST_WITH_EXECUTOR != null) {
+                    future = (CompletableFuture<Object>) REQUEST_WITH_EXECUTOR.invoke(client, request, timeout, executor);
+                } else {
+                    future = timeout < 0 ? client.request(request) : client.request(request, timeout);
+                }
+            } catch (RemotingException | RuntimeException | Error e) {
+                done();
+                throw e;
+            } catch (Throwable t) {
+                done();
+                throw new RemotingException(client, t);
+            }
+            future.whenComplete((r, t) -> done());
+            return future;
+        }
+
+        private void done() {
+            if (inFlight.decrementAndGet() == 0) {
+                lastIdle = System.currentTimeMillis();
+            }
+        }
+
+        private long getLoad() {
+            DubboProxyConnectionLoad load = getConnectionLoad();
+            return inFlight.get() + (load == null ? 0 : load.getBytes() / BYTES_PER_REQUEST);
+        }
+
+        private boolean isAvailable() {
+            return client.isConnected() && !client.hasAttribute(CHANNEL_ATTRIBUTE_READONLY_KEY);
+        }
+
+        private boolean isIdle(long deadline) {
+            return inFlight.get() == 0 && lastIdle <= deadline;
+        }
+
+        private DubboProxyConnectionLoad getConnectionLoad() {
+            return (DubboProxyConnectionLoad) client.getAttribute(DubboProxyConnectionLoad.KEY);
+        }
+    }
+}
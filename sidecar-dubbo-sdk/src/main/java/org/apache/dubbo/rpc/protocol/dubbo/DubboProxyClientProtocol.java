@@ -1,5 +1,8 @@
 package org.apache.dubbo.rpc.protocol.dubbo;
 
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+
 /**
  * @author chpengzh@foxmail.com
  * @date 7/6/21 10:20
@@ -13,4 +16,26 @@ public class DubboProxyClientProtocol extends AbstractDubboProxyProtocol {
         return NAME;
     }
 
+    /**
+     * SDK 到 sidecar 的连接按负载选择, 避免大响应阻塞同一连接上的其它请求
+     */
+    @Override
+    protected boolean isClientPoolEnabled() {
+        return true;
+    }
+
+    /**
+     * 引用创建时预先创建接口所有方法的请求编码器, 失败时在首次调用时再创建.
+     * 请求携带调用方的超时时间, 见 {@link DubboProxyClientInvoker}
+     */
+    @Override
+    protected <T> DubboInvoker<T> createInvoker(Class<T> serviceType, URL url, ExchangeClient[] clients) {
+        try {
+            DubboProxyRequestEncoder.compile(serviceType, url);
+        } catch (Throwable t) {
+            logger.warn("Compile request encoders of " + url.getServiceKey() + " failed, cause: " + t.getMessage(), t);
+        }
+        return new DubboProxyClientInvoker<>(serviceType, url, clients, invokers);
+    }
+
 }
@@ -0,0 +1,68 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.exchange.support.DefaultFuture;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个 SDK 连接上进行中的字节数, 供 {@link DubboProxyClientPool} 选择负载最低的连接
+ * <p>
+ * 包括已写出但尚未收到响应的请求帧, 以及正在接收中的响应帧剩余的字节数. 后者是大响应阻塞同一连接上
+ * 后续响应的主要原因. 由 {@link DubboProxyClientCodec} 在编解码时更新, 请求帧在请求的 {@link DefaultFuture}
+ * 完成时扣除, 收到响应、超时与连接关闭都会完成 future, 不需要按请求 id 记录
+ */
+final class DubboProxyConnectionLoad {
+
+    /**
+     * 连接上保存负载的属性名
+     */
+    static final String KEY = "dubbo.proxy.load";
+
+    private final AtomicLong requestBytes = new AtomicLong();
+
+    private volatile int receivingBytes;
+
+    static DubboProxyConnectionLoad of(Channel channel) {
+        DubboProxyConnectionLoad load = (DubboProxyConnectionLoad) channel.getAttribute(KEY);
+        if (load == null) {
+            // 共享内存连接的编码与解码不在同一线程中
+            synchronized (channel) {
+                load = (DubboProxyConnectionLoad) channel.getAttribute(KEY);
+                if (load == null) {
+                    load = new DubboProxyConnectionLoad();
+                    channel.setAttribute(KEY, load);
+                }
+            }
+        }
+        return load;
+    }
+
+    /**
+     * @param id    请求 id
+     * @param bytes 请求帧字节数
+     */
+    void sent(long id, int bytes) {
+        DefaultFuture future = DefaultFuture.getFuture(id);
+        if (future == null) {
+            // 已经完成的请求不会再有响应
+            return;
+        }
+        requestBytes.addAndGet(bytes);
+        future.whenComplete((result, t) -> requestBytes.addAndGet(-bytes));
+    }
+
+    /**
+     * @param bytes 正在接收中的响应帧剩余的字节数, 帧接收完成后为 0
+     */
+    void receiving(int bytes) {
+        receivingBytes = bytes;
+    }
+
+    /**
+     * @return 进行中的字节数
+     */
+    long getBytes() {
+        return requestBytes.get() + receivingBytes;
+    }
+}
@@ -6,4 +6,189 @@ package org.apache.dubbo.rpc.protocol.dubbo;
 public interface DubboProxyConstants {
 
     String METHOD_PARAM_TYPES = "param_types";
+
+    /**
+     * 单次写入编码: proxy header 与 dubbo payload 直接写入 channel buffer, 不再经过中间缓冲区
+     * <p>
+     * 该编码使用新的帧格式, 旧版本 sidecar 无法解析, 默认关闭; 所有 sidecar 升级后再在 SDK 引用上开启.
+     * 只对 Hessian2 生效, 其余序列化始终使用单次写入编码.
+     * 服务 id 与 attachments 动态表只在单次写入编码时生效
+     */
+    String SINGLE_PASS_ENCODE_KEY = "single.pass.encode";
+
+    boolean DEFAULT_SINGLE_PASS_ENCODE = false;
+
+    /**
+     * 代理请求帧标记, 复用 dubbo 请求头中未使用的 status 位(header[3])
+     * <p>
+     * 置位时 body 布局为: [4 bytes payload offset][proxy header][raw payload]
+     */
+    byte FRAME_FLAG_RAW_PAYLOAD = 0x01;
+
+    /**
+     * payload offset 占用字节数, offset 从 body 起始位置计算
+     */
+    int PAYLOAD_OFFSET_LENGTH = 4;
+
+    /**
+     * 服务 id: 连接上首次调用某个方法时登记服务描述, 之后的帧只携带服务 id
+     */
+    String SERVICE_ID_KEY = "service.id";
+
+    boolean DEFAULT_SERVICE_ID = true;
+
+    /**
+     * 服务 id 帧标记, 只与 {@link #FRAME_FLAG_RAW_PAYLOAD} 同时使用
+     * <p>
+     * 置位时 payload offset 之后为 4 bytes 服务 id, 最高位置位表示其后紧跟服务描述, proxy header 中只保留 attachments
+     */
+    byte FRAME_FLAG_SERVICE_ID = 0x02;
+
+    int SERVICE_ID_LENGTH = 4;
+
+    /**
+     * attachments 动态表: 重复出现的 attachment 只写出动态表索引, 关闭时 attachments 以 Map 整体序列化
+     */
+    String ATTACHMENT_TABLE_KEY = "attachment.table";
+
+    boolean DEFAULT_ATTACHMENT_TABLE = true;
+
+    /**
+     * attachments 动态表帧标记, 只与 {@link #FRAME_FLAG_RAW_PAYLOAD} 同时使用
+     * <p>
+     * 置位时服务 id 之后为动态表编码的 attachments, proxy header 中不再包含 attachments
+     */
+    byte FRAME_FLAG_ATTACHMENT_TABLE = 0x04;
+
+    /**
+     * 每个上游连接可同时转发中的请求数上限, 超出的请求交给调用链处理. 请求表按需增长, 不预先分配
+     */
+    String FORWARD_INFLIGHT_SLOTS_KEY = "forward.inflight.slots";
+
+    int DEFAULT_FORWARD_INFLIGHT_SLOTS = 1 << 14;
+
+    /**
+     * unix domain socket 路径: 服务端在 TCP 端口之外同时监听该路径, 客户端在路径存在时优先通过它连接, 否则使用 TCP
+     * <p>
+     * 需要 epoll 可用, 不可用时只使用 TCP
+     */
+    String UNIX_PATH_KEY = "unix.path";
+
+    /**
+     * 共享内存连接目录: 服务端在 TCP 端口之外同时扫描该目录中客户端创建的连接文件, 每个连接一个文件, 两个方向各一个环
+     */
+    String SHM_PATH_KEY = "shm.path";
+
+    /**
+     * 共享内存连接每个方向的环容量, 由客户端决定, 向上取整为 2 的幂
+     */
+    String SHM_RING_SIZE_KEY = "shm.ring.size";
+
+    int DEFAULT_SHM_RING_SIZE = 1 << 20;
+
+    /**
+     * 合并 flush: 连续的 flush 最多合并的次数, 不大于 1 时每条消息单独 flush
+     */
+    String FLUSH_MAX_BATCH_KEY = "flush.max.batch";
+
+    int DEFAULT_FLUSH_MAX_BATCH = 64;
+
+    /**
+     * 合并 flush: flush 最长推迟的时间(微秒), 0 表示只推迟到事件循环中已排队的写入执行完
+     */
+    String FLUSH_MAX_DELAY_KEY = "flush.max.delay";
+
+    int DEFAULT_FLUSH_MAX_DELAY = 0;
+
+    /**
+     * SDK 连接池: 同一地址最多建立的连接数, 所有连接都饱和时扩容, 默认与初始连接数相同即不扩容
+     */
+    String CONNECTIONS_MAX_KEY = "connections.max";
+
+    /**
+     * SDK 连接池: 连接上进行中的请求数(字节数按 64KB 折算为一个请求)达到该值时视为饱和
+     */
+    String CONNECTIONS_SATURATION_KEY = "connections.saturation";
+
+    int DEFAULT_CONNECTIONS_SATURATION = 64;
+
+    /**
+     * SDK 连接池: 扩容出的连接空闲超过该时间(毫秒)后关闭
+     */
+    String CONNECTIONS_IDLE_TIMEOUT_KEY = "connections.idle.timeout";
+
+    int DEFAULT_CONNECTIONS_IDLE_TIMEOUT = 60 * 1000;
+
+    /**
+     * 上游连接绑定服务端 IO 线程: 为每个 IO 线程建立一个上游连接, 在某个 IO 线程上收到的请求从绑定该线程的连接转发,
+     * 请求与响应都不需要跨线程. 本进程没有打开的服务端时不生效
+     */
+    String EVENT_LOOP_AFFINITY_KEY = "event.loop.affinity";
+
+    /**
+     * 客户端连接绑定的服务端 IO 线程序号, 由 {@link #EVENT_LOOP_AFFINITY_KEY} 为每个连接设置
+     */
+    String EVENT_LOOP_KEY = "event.loop";
+
+    /**
+     * 服务端以 SO_REUSEPORT 为每个 IO 线程绑定一个监听, 由内核在各监听之间分配新连接. 需要 epoll 可用, 不可用时只绑定一个监听
+     */
+    String REUSEPORT_KEY = "reuseport";
+
+    /**
+     * 注册中心目录: 新 provider 的引用在后台线程池中并行建立, 建好一个发布一个, 地址刷新不等待引用.
+     * 订阅时目录中没有可用 invoker 的, 订阅线程最多等待该时间(毫秒)直到第一个引用建好, 避免冷启动后的首次调用找不到 provider
+     */
+    String REFER_WAIT_KEY = "refer.wait";
+
+    int DEFAULT_REFER_WAIT = 3000;
+
+    /**
+     * 注册中心目录: 订阅完成后收到的地址通知在该时间窗口(毫秒)内合并, 每个分类只应用最新的一次, 在后台线程中刷新.
+     * 为 0 时在注册中心的通知线程中立即刷新
+     */
+    String NOTIFY_WINDOW_KEY = "notify.window";
+
+    int DEFAULT_NOTIFY_WINDOW = 100;
+
+    /**
+     * 注册中心目录: 把每个服务最近收到的地址与路由规则增量写入内存映射的快照文件, 启动时先按快照刷新目录,
+     * 不必等待注册中心推送
+     */
+    String SNAPSHOT_KEY = "snapshot";
+
+    boolean DEFAULT_SNAPSHOT = false;
+
+    /**
+     * 目录快照文件路径, 默认为临时目录下按应用与注册中心命名的 dubbo-proxy-directory-{应用}@{注册中心}.snapshot
+     */
+    String SNAPSHOT_PATH_KEY = "snapshot.path";
+
+    /**
+     * 目录快照文件大小(字节), 写满时只保留每个服务的最新记录重写
+     */
+    String SNAPSHOT_SIZE_KEY = "snapshot.size";
+
+    int DEFAULT_SNAPSHOT_SIZE = 16 << 20;
+
+    /**
+     * 注册中心目录: provider 下线时立即退出路由, 连接保持到转发中的请求完成, 最多等待该时间(毫秒)后销毁
+     */
+    String DRAIN_TIMEOUT_KEY = "drain.timeout";
+
+    int DEFAULT_DRAIN_TIMEOUT = 5000;
+
+    /**
+     * 上游慢启动: 新上线的 provider 按注册时间在该窗口(毫秒)内从 1% 线性升至满权重接收直接转发的请求, 为 0 时不启用
+     */
+    String SLOW_START_WINDOW_KEY = "slow.start.window";
+
+    int DEFAULT_SLOW_START_WINDOW = 30 * 1000;
+
+    /**
+     * 上游慢启动: 新引用加入转发路由前在每个上游连接上逐个发出并等待响应的心跳请求数, 为 0 时不发出
+     */
+    String SLOW_START_WARMUP_KEY = "slow.start.warmup";
+
+    int DEFAULT_SLOW_START_WARMUP = 0;
 }
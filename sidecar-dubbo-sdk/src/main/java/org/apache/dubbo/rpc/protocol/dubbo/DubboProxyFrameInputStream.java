@@ -0,0 +1,41 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.dubbo.remoting.buffer.ChannelBufferInputStream;
+import org.apache.dubbo.remoting.transport.netty4.DubboProxyChannelBuffer;
+
+import java.io.IOException;
+
+/**
+ * 帧 body 输入流, 可以在读取过程中从底层帧上直接切出 retained slice
+ */
+final class DubboProxyFrameInputStream extends ChannelBufferInputStream {
+
+    private final DubboProxyChannelBuffer buffer;
+
+    DubboProxyFrameInputStream(DubboProxyChannelBuffer buffer, int length) {
+        super(buffer, length);
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param retained 已 retain 的 body, 所有权转移给输入流的使用方
+     */
+    DubboProxyFrameInputStream(ByteBuf retained) {
+        this(new DubboProxyChannelBuffer(retained), retained.readableBytes());
+    }
+
+    /**
+     * 从当前位置切出 length 字节, 读位置随之后移
+     *
+     * @param length 切片长度
+     * @return retained slice, 由调用方负责释放
+     * @throws IOException 剩余字节不足
+     */
+    ByteBuf readRetainedSlice(int length) throws IOException {
+        if (length > available()) {
+            throw new IOException("Not enough readable bytes, expect " + length + " but " + available());
+        }
+        return buffer.readRetainedSlice(length);
+    }
+}
@@ -1,21 +1,70 @@
 package org.apache.dubbo.rpc.protocol.dubbo;
 
 import com.alibaba.com.caucho.hessian.io.Hessian2Output;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.serialize.Cleanable;
 import org.apache.dubbo.common.serialize.ObjectOutput;
+import org.apache.dubbo.common.serialize.hessian2.Hessian2SerializerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.Map;
 
 /**
  * 因为Hessian2ObjectOutput有自己独立的ThreadLocal上下文，所以这里拷贝了一份
+ * <p>
+ * 通过 {@link #acquire(OutputStream)} 获取的实例在线程内复用, 用完后必须调用 {@link #cleanup()},
+ * 编码中途失败时同样在 finally 中调用: 未写出的内容被丢弃, 引用表与类定义被清空, 不再持有输出流
  */
-final class DubboProxyHessian2ObjectOutput implements ObjectOutput {
+final class DubboProxyHessian2ObjectOutput implements ObjectOutput, Cleanable {
 
-    private final Hessian2Output mH2o;
+    private static final ThreadLocal<DubboProxyHessian2ObjectOutput> CACHE = new ThreadLocal<>();
+
+    private final ResettableHessian2Output mH2o;
+
+    /**
+     * 是否为线程内复用的实例
+     */
+    private final boolean cached;
+
+    /**
+     * 复用的实例是否正在使用, 嵌套获取时创建新的实例
+     */
+    private boolean inUse;
 
     DubboProxyHessian2ObjectOutput(OutputStream os) {
-        mH2o = new Hessian2Output(os);
+        this(os, false);
+    }
+
+    private DubboProxyHessian2ObjectOutput(OutputStream os, boolean cached) {
+        mH2o = new ResettableHessian2Output();
         mH2o.init(os);
+        this.cached = cached;
+    }
+
+    /**
+     * 获取当前线程复用的输出, 用完后必须调用 {@link #cleanup()}
+     *
+     * @param os 输出流
+     * @return 序列化输出
+     */
+    static DubboProxyHessian2ObjectOutput acquire(OutputStream os) {
+        if (!ResettableHessian2Output.RESETTABLE) {
+            return new DubboProxyHessian2ObjectOutput(os);
+        }
+        DubboProxyHessian2ObjectOutput out = CACHE.get();
+        if (out == null) {
+            out = new DubboProxyHessian2ObjectOutput(os, true);
+            CACHE.set(out);
+        } else if (out.inUse) {
+            return new DubboProxyHessian2ObjectOutput(os);
+        } else {
+            out.mH2o.init(os);
+        }
+        out.inUse = true;
+        return out;
     }
 
     @Override
@@ -81,4 +130,95 @@ final class DubboProxyHessian2ObjectOutput implements ObjectOutput {
     public OutputStream getOutputStream() throws IOException {
         return mH2o.getBytesOutputStream();
     }
-}
\ No newline at end of file
+
+    @Override
+    public void cleanup() {
+        if (cached) {
+            inUse = false;
+            if (!mH2o.reset()) {
+                CACHE.remove();
+            }
+        }
+    }
+
+    /**
+     * 可以重置的 Hessian2Output, 使用 dubbo 共享的 SerializerFactory, 不再每次创建并重新解析类的序列化器.
+     * 当前版本的 Hessian2Output 没有清空类定义的方法, 通过反射清空, 不可用时退化为每次创建
+     */
+    private static final class ResettableHessian2Output extends Hessian2Output {
+
+        private static final Logger logger = LoggerFactory.getLogger(ResettableHessian2Output.class);
+
+        private static final OutputStream DISCARD = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        private static final Field CLASS_REFS;
+
+        private static final Field TYPE_REFS;
+
+        private static final boolean RESETTABLE;
+
+        static {
+            Field classRefs = null;
+            Field typeRefs = null;
+            try {
+                classRefs = Hessian2Output.class.getDeclaredField("_classRefs");
+                classRefs.setAccessible(true);
+                typeRefs = Hessian2Output.class.getDeclaredField("_typeRefs");
+                typeRefs.setAccessible(true);
+            } catch (Throwable t) {
+                logger.warn("Hessian2Output can not be reset, create one per request instead, cause: "
+                        + t.getMessage());
+                classRefs = null;
+                typeRefs = null;
+            }
+            CLASS_REFS = classRefs;
+            TYPE_REFS = typeRefs;
+            RESETTABLE = classRefs != null;
+        }
+
+        private ResettableHessian2Output() {
+            super(null);
+            setSerializerFactory(Hessian2SerializerFactory.SERIALIZER_FACTORY);
+        }
+
+        @Override
+        public void init(OutputStream os) {
+            _os = os;
+        }
+
+        /**
+         * @return 是否重置成功, 失败时不能再复用
+         */
+        boolean reset() {
+            try {
+                // 丢弃编码失败时缓冲区中未写出的内容
+                _os = DISCARD;
+                flushBuffer();
+                resetReferences();
+                clear(CLASS_REFS);
+                clear(TYPE_REFS);
+                return true;
+            } catch (Throwable t) {
+                logger.warn("Reset Hessian2Output failed, cause: " + t.getMessage(), t);
+                return false;
+            } finally {
+                _os = null;
+            }
+        }
+
+        private void clear(Field field) throws IllegalAccessException {
+            Map<?, ?> refs = (Map<?, ?>) field.get(this);
+            if (refs != null) {
+                refs.clear();
+            }
+        }
+    }
+}
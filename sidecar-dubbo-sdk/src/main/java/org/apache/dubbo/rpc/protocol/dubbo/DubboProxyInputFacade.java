@@ -9,8 +9,14 @@ import java.util.concurrent.CompletableFuture;
  */
 public interface DubboProxyInputFacade {
 
-    CompletableFuture<byte[]> invoke(
-            byte[] payload,
+    /**
+     * @param payload     请求 payload, 调用完成后由框架释放, 实现方不应在返回的 future 完成后继续持有
+     * @param headers     proxy header
+     * @param attachments 调用附件
+     * @return 响应 payload, 写回 SDK 后由框架释放
+     */
+    CompletableFuture<DubboProxyPayload> invoke(
+            DubboProxyPayload payload,
             Map<String, String> headers,
             Map<String, String> attachments
     );
@@ -0,0 +1,123 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 代理转发的 payload
+ * <p>
+ * 零拷贝模式下持有入站帧的 retained slice, 否则包装堆内字节数组.
+ * 发送方通过 {@link #retainedBuffer()} 获取独立引用写出, 所属的调用在完成、超时或异常时调用 {@link #release()} 释放,
+ * 重复释放是安全的. payload 记录自身的序列化 id, 转发时写入帧 header, 代理不需要理解 payload 的序列化方式
+ */
+public final class DubboProxyPayload {
+
+    private static final AtomicIntegerFieldUpdater<DubboProxyPayload> RELEASED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(DubboProxyPayload.class, "released");
+
+    /**
+     * 未知的序列化 id, dubbo 内置的序列化 id 均不为 0
+     */
+    public static final byte UNKNOWN_SERIALIZATION_ID = 0;
+
+    private final ByteBuf buffer;
+
+    private final byte serializationId;
+
+    private volatile int released;
+
+    private DubboProxyPayload(ByteBuf buffer, byte serializationId) {
+        this.buffer = buffer;
+        this.serializationId = serializationId;
+    }
+
+    /**
+     * @param bytes 堆内 payload
+     * @return 包装后的 payload, 序列化 id 未知
+     */
+    public static DubboProxyPayload wrap(byte[] bytes) {
+        return wrap(bytes, UNKNOWN_SERIALIZATION_ID);
+    }
+
+    /**
+     * @param bytes           堆内 payload
+     * @param serializationId payload 的序列化 id
+     * @return 包装后的 payload
+     */
+    public static DubboProxyPayload wrap(byte[] bytes, byte serializationId) {
+        return new DubboProxyPayload(Unpooled.wrappedBuffer(bytes), serializationId);
+    }
+
+    /**
+     * @param retained 已 retain 的 buffer, 所有权转移给 payload
+     * @return 包装后的 payload, 序列化 id 未知
+     */
+    public static DubboProxyPayload of(ByteBuf retained) {
+        return of(retained, UNKNOWN_SERIALIZATION_ID);
+    }
+
+    /**
+     * @param retained        已 retain 的 buffer, 所有权转移给 payload
+     * @param serializationId payload 的序列化 id
+     * @return 包装后的 payload
+     */
+    public static DubboProxyPayload of(ByteBuf retained, byte serializationId) {
+        return new DubboProxyPayload(retained, serializationId);
+    }
+
+    /**
+     * 释放参数列表中的全部 payload, 泛化调用的参数数组会被展开
+     *
+     * @param args 调用参数
+     */
+    public static void release(Object[] args) {
+        if (args == null) {
+            return;
+        }
+        for (Object arg : args) {
+            if (arg instanceof DubboProxyPayload) {
+                ((DubboProxyPayload) arg).release();
+            } else if (arg instanceof Object[]) {
+                release((Object[]) arg);
+            }
+        }
+    }
+
+    /**
+     * @return payload 的序列化 id, 未知时为 {@link #UNKNOWN_SERIALIZATION_ID}
+     */
+    public byte getSerializationId() {
+        return serializationId;
+    }
+
+    public int length() {
+        return buffer.readableBytes();
+    }
+
+    /**
+     * @return 新的引用, 由调用方负责释放
+     */
+    public ByteBuf retainedBuffer() {
+        return buffer.retainedDuplicate();
+    }
+
+    /**
+     * 拷贝写出到输出流
+     *
+     * @param os 输出流
+     * @throws IOException 写出异常
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        buffer.getBytes(buffer.readerIndex(), os, buffer.readableBytes());
+    }
+
+    public void release() {
+        if (RELEASED_UPDATER.compareAndSet(this, 0, 1)) {
+            buffer.release();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.Version;
+import org.apache.dubbo.common.serialize.ObjectOutput;
+import org.apache.dubbo.common.utils.StringUtils;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.rpc.RpcInvocation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.PATH_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.VERSION_KEY;
+
+/**
+ * 预编译的方法级请求编码器
+ * <p>
+ * 与 {@link DubboCodec#encodeRequestData} 输出相同的字节. Hessian2 序列化下 dubbo version, path, version, method, desc
+ * 在创建时预先编码, 每次调用只需要写出参数与 attachments, 基本类型与 String 参数直接调用对应的写方法, 不再经过序列化器查找;
+ * 其他序列化按 {@link DubboCodec#encodeRequestData} 的顺序逐项写出.
+ * 服务引用创建时为接口的所有方法预先创建, 泛化调用等未预先创建的方法在首次调用时创建
+ */
+final class DubboProxyRequestEncoder {
+
+    /**
+     * 缓存的编码器数量上限, 超出后不再缓存
+     */
+    private static final int MAX_ENCODERS = 1 << 16;
+
+    private static final ConcurrentMap<DubboProxyServiceTable.Key, DubboProxyRequestEncoder> ENCODERS =
+            new ConcurrentHashMap<>();
+
+    private final DubboProxyServiceTable.Key key;
+
+    private final DubboProxyServiceDescriptor descriptor;
+
+    /**
+     * Hessian2 序列化下 payload 中参数之前的部分
+     */
+    private final byte[] prefix;
+
+    private final ArgumentWriter[] writers;
+
+    /**
+     * 是否有参数回调配置, 有则参数按 {@link CallbackServiceCodec#encodeInvocationArgument} 处理
+     */
+    private final boolean callback;
+
+    private DubboProxyRequestEncoder(DubboProxyServiceTable.Key key, Class<?>[] parameterTypes, URL url)
+            throws IOException {
+        this.key = key;
+        this.descriptor = key.toDescriptor();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutput out = new DubboProxyHessian2ObjectOutput(bos);
+        out.writeUTF(descriptor.getDubboVersion());
+        out.writeUTF(descriptor.getPath());
+        out.writeUTF(descriptor.getVersion());
+        out.writeUTF(descriptor.getMethod());
+        out.writeUTF(descriptor.getDesc());
+        out.flushBuffer();
+        this.prefix = bos.toByteArray();
+        this.writers = new ArgumentWriter[parameterTypes.length];
+        boolean callback = false;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            writers[i] = ArgumentWriter.of(parameterTypes[i]);
+            callback |= url != null && url.hasParameter(descriptor.getMethod() + "." + i + ".callback");
+        }
+        this.callback = callback;
+    }
+
+    /**
+     * 服务引用创建时预先创建接口所有方法的编码器
+     *
+     * @param serviceType 服务接口
+     * @param url         服务引用 url
+     */
+    static void compile(Class<?> serviceType, URL url) throws IOException {
+        String dubboVersion = Version.getProtocolVersion();
+        String path = url.getPath();
+        String version = url.getParameter(VERSION_KEY, "0.0.0");
+        String group = StringUtils.isEmpty(url.getParameter(GROUP_KEY)) ? null : url.getParameter(GROUP_KEY);
+        for (Method method : serviceType.getMethods()) {
+            if (method.getDeclaringClass() == Object.class || ENCODERS.size() >= MAX_ENCODERS) {
+                continue;
+            }
+            DubboProxyServiceTable.Key key = new DubboProxyServiceTable.Key(
+                    dubboVersion, path, version, group, method.getName(), method.getParameterTypes());
+            if (!ENCODERS.containsKey(key)) {
+                ENCODERS.putIfAbsent(key, new DubboProxyRequestEncoder(key, method.getParameterTypes(), url));
+            }
+        }
+    }
+
+    /**
+     * @param inv          调用
+     * @param dubboVersion dubbo 协议版本
+     * @return 调用对应的编码器
+     */
+    static DubboProxyRequestEncoder get(RpcInvocation inv, String dubboVersion) throws IOException {
+        DubboProxyServiceTable.Key key = new DubboProxyServiceTable.Key(dubboVersion,
+                inv.getAttachment(PATH_KEY), inv.getAttachment(VERSION_KEY), inv.getAttachment(GROUP_KEY),
+                inv.getMethodName(), inv.getParameterTypes());
+        DubboProxyRequestEncoder encoder = ENCODERS.get(key);
+        if (encoder == null) {
+            encoder = new DubboProxyRequestEncoder(key, inv.getParameterTypes(),
+                    inv.getInvoker() == null ? null : inv.getInvoker().getUrl());
+            if (ENCODERS.size() < MAX_ENCODERS) {
+                DubboProxyRequestEncoder exists = ENCODERS.putIfAbsent(key, encoder);
+                if (exists != null) {
+                    encoder = exists;
+                }
+            }
+        }
+        return encoder;
+    }
+
+    DubboProxyServiceTable.Key getKey() {
+        return key;
+    }
+
+    DubboProxyServiceDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * 写出 payload
+     *
+     * @param channel 连接
+     * @param os      payload 输出流, Hessian2 序列化下预编码部分直接写入
+     * @param out     写在 os 上的 payload 序列化输出
+     * @param inv     调用
+     * @throws IOException 写出异常
+     */
+    void encode(Channel channel, OutputStream os, ObjectOutput out, RpcInvocation inv) throws IOException {
+        boolean hessian2 = out instanceof DubboProxyHessian2ObjectOutput;
+        if (hessian2) {
+            os.write(prefix);
+        } else {
+            out.writeUTF(descriptor.getDubboVersion());
+            out.writeUTF(descriptor.getPath());
+            out.writeUTF(descriptor.getVersion());
+            out.writeUTF(descriptor.getMethod());
+            out.writeUTF(descriptor.getDesc());
+        }
+        Object[] args = inv.getArguments();
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                if (callback) {
+                    out.writeObject(CallbackServiceCodec.encodeInvocationArgument(channel, inv, i));
+                } else if (hessian2 && i < writers.length && args[i] != null) {
+                    writers[i].write(out, args[i]);
+                } else {
+                    out.writeObject(args[i]);
+                }
+            }
+        }
+        out.writeObject(inv.getAttachments());
+    }
+
+    /**
+     * 按声明类型写出参数, Hessian2 序列化下与 writeObject 输出相同
+     */
+    private enum ArgumentWriter {
+
+        OBJECT {
+            @Override
+            void write(ObjectOutput out, Object arg) throws IOException {
+                out.writeObject(arg);
+            }
+        },
+
+        BOOLEAN {
+            @Override
+            void write(ObjectOutput out, Object arg) throws IOException {
+                out.writeBool((Boolean) arg);
+            }
+        },
+
+        INT {
+            @Override
+            void write(ObjectOutput out, Object arg) throws IOException {
+                out.writeInt((Integer) arg);
+            }
+        },
+
+        LONG {
+            @Override
+            void write(ObjectOutput out, Object arg) throws IOException {
+                out.writeLong((Long) arg);
+            }
+        },
+
+        DOUBLE {
+            @Override
+            void write(ObjectOutput out, Object arg) throws IOException {
+                out.writeDouble((Double) arg);
+            }
+        },
+
+        STRING {
+            @Override
+            void write(ObjectOutput out, Object arg) throws IOException {
+                out.writeUTF((String) arg);
+            }
+        };
+
+        abstract void write(ObjectOutput out, Object arg) throws IOException;
+
+        private static ArgumentWriter of(Class<?> type) {
+            if (type == boolean.class || type == Boolean.class) {
+                return BOOLEAN;
+            } else if (type == int.class || type == Integer.class) {
+                return INT;
+            } else if (type == long.class || type == Long.class) {
+                return LONG;
+            } else if (type == double.class || type == Double.class) {
+                return DOUBLE;
+            } else if (type == String.class) {
+                return STRING;
+            }
+            return OBJECT;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.METHOD_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.PATH_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.VERSION_KEY;
+import static org.apache.dubbo.remoting.Constants.DUBBO_VERSION_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.METHOD_PARAM_TYPES;
+
+/**
+ * 服务描述, 即旧帧格式 proxy header 中除 attachments 以外的部分
+ */
+final class DubboProxyServiceDescriptor {
+
+    private final String dubboVersion;
+
+    /**
+     * 与旧帧格式解码出的 headers 内容相同, 同一个服务的请求共享, 不可修改
+     */
+    private final Map<String, Object> headers;
+
+    DubboProxyServiceDescriptor(
+            String dubboVersion,
+            String path,
+            String version,
+            String group,
+            String method,
+            String desc
+    ) {
+        this.dubboVersion = dubboVersion;
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(DUBBO_VERSION_KEY, dubboVersion);
+        headers.put(PATH_KEY, path);
+        headers.put(VERSION_KEY, version);
+        headers.put(GROUP_KEY, group);
+        headers.put(METHOD_KEY, method);
+        headers.put(METHOD_PARAM_TYPES, desc);
+        this.headers = Collections.unmodifiableMap(headers);
+    }
+
+    String getDubboVersion() {
+        return dubboVersion;
+    }
+
+    String getPath() {
+        return (String) headers.get(PATH_KEY);
+    }
+
+    String getVersion() {
+        return (String) headers.get(VERSION_KEY);
+    }
+
+    String getMethod() {
+        return (String) headers.get(METHOD_KEY);
+    }
+
+    String getDesc() {
+        return (String) headers.get(METHOD_PARAM_TYPES);
+    }
+
+    Map<String, Object> getHeaders() {
+        return headers;
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        writeString(out, dubboVersion);
+        writeString(out, getPath());
+        writeString(out, getVersion());
+        writeString(out, (String) headers.get(GROUP_KEY));
+        writeString(out, getMethod());
+        writeString(out, getDesc());
+        out.flush();
+    }
+
+    static DubboProxyServiceDescriptor readFrom(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        return new DubboProxyServiceDescriptor(
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
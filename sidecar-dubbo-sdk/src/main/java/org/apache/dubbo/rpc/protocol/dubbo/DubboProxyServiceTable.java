@@ -0,0 +1,173 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.io.Bytes;
+import org.apache.dubbo.common.utils.ReflectUtils;
+import org.apache.dubbo.remoting.Channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SERVICE_ID_LENGTH;
+
+/**
+ * 单个连接上已登记的服务 id
+ * <p>
+ * id 由 SDK 分配, 首次使用时服务描述随帧一起发出. 同一连接上的帧按顺序编解码, 服务端总是先看到登记再看到引用,
+ * 不需要额外的往返. 编码与解码都在连接的IO线程中进行, 表不需要同步. 连接重建后两端都从空表开始
+ */
+final class DubboProxyServiceTable {
+
+    /**
+     * 连接上保存服务表的属性名
+     */
+    private static final String KEY = "dubbo.proxy.services";
+
+    /**
+     * 服务 id 最高位, 置位表示其后紧跟服务描述
+     */
+    static final int DEFINE_FLAG = 0x80000000;
+
+    /**
+     * 每个连接最多登记的服务数, 超出后回退为完整的 proxy header
+     */
+    static final int MAX_SERVICES = 1 << 12;
+
+    /**
+     * SDK 端: <服务, id>
+     */
+    private final Map<Key, Integer> ids = new HashMap<>();
+
+    private int nextId;
+
+    /**
+     * 服务端: 按 id 索引的服务描述
+     */
+    private DubboProxyServiceDescriptor[] descriptors = new DubboProxyServiceDescriptor[16];
+
+    static DubboProxyServiceTable of(Channel channel) {
+        DubboProxyServiceTable table = (DubboProxyServiceTable) channel.getAttribute(KEY);
+        if (table == null) {
+            table = new DubboProxyServiceTable();
+            channel.setAttribute(KEY, table);
+        }
+        return table;
+    }
+
+    /**
+     * @return 已登记的服务 id, 未登记时返回 -1
+     */
+    int getId(Key key) {
+        Integer id = ids.get(key);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 为未登记的服务分配 id, 帧编码成功后再调用 {@link #define(Key, int)}, 编码失败时 id 直接作废
+     *
+     * @return 新的服务 id, 表满时返回 -1
+     */
+    int nextId() {
+        return nextId < MAX_SERVICES ? nextId++ : -1;
+    }
+
+    void define(Key key, int id) {
+        ids.put(key, id);
+    }
+
+    /**
+     * 读取服务 id, 带有服务描述时一并登记
+     *
+     * @param is 位于服务 id 处的输入流
+     * @return 服务描述
+     * @throws IOException 服务 id 未登记或超出范围
+     */
+    DubboProxyServiceDescriptor read(InputStream is) throws IOException {
+        byte[] bytes = new byte[SERVICE_ID_LENGTH];
+        if (is.read(bytes) != SERVICE_ID_LENGTH) {
+            throw new IOException("Read service id failed.");
+        }
+        int value = Bytes.bytes2int(bytes);
+        int id = value & ~DEFINE_FLAG;
+        if (id >= MAX_SERVICES) {
+            throw new IOException("Service id " + id + " out of range, max " + MAX_SERVICES);
+        }
+        if ((value & DEFINE_FLAG) != 0) {
+            if (id >= descriptors.length) {
+                descriptors = Arrays.copyOf(descriptors, Math.min(Integer.highestOneBit(id) << 1, MAX_SERVICES));
+            }
+            descriptors[id] = DubboProxyServiceDescriptor.readFrom(is);
+        }
+        DubboProxyServiceDescriptor descriptor = id < descriptors.length ? descriptors[id] : null;
+        if (descriptor == null) {
+            throw new IOException("Unknown service id " + id);
+        }
+        return descriptor;
+    }
+
+    /**
+     * SDK 端查找服务 id 的键, 参数类型直接比较, 只在登记时才生成方法描述
+     */
+    static final class Key {
+
+        private final String dubboVersion;
+
+        private final String path;
+
+        private final String version;
+
+        private final String group;
+
+        private final String method;
+
+        private final Class<?>[] parameterTypes;
+
+        private final int hash;
+
+        Key(String dubboVersion, String path, String version, String group, String method, Class<?>[] parameterTypes) {
+            this.dubboVersion = dubboVersion;
+            this.path = path;
+            this.version = version;
+            this.group = group;
+            this.method = method;
+            this.parameterTypes = parameterTypes;
+            int h = Objects.hashCode(dubboVersion);
+            h = 31 * h + Objects.hashCode(path);
+            h = 31 * h + Objects.hashCode(version);
+            h = 31 * h + Objects.hashCode(group);
+            h = 31 * h + Objects.hashCode(method);
+            this.hash = 31 * h + Arrays.hashCode(parameterTypes);
+        }
+
+        DubboProxyServiceDescriptor toDescriptor() {
+            return new DubboProxyServiceDescriptor(dubboVersion, path, version, group, method,
+                    ReflectUtils.getDesc(parameterTypes));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash
+                    && Objects.equals(method, key.method)
+                    && Objects.equals(path, key.path)
+                    && Objects.equals(version, key.version)
+                    && Objects.equals(group, key.group)
+                    && Objects.equals(dubboVersion, key.dubboVersion)
+                    && Arrays.equals(parameterTypes, key.parameterTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import java.io.IOException;
+
+/**
+ * 读取连接上的服务表或 attachment 动态表失败
+ * <p>
+ * 两端的表按帧顺序同步更新, 一帧读取失败后两端的表已经不一致, 之后的帧都无法正确解码, 连接需要关闭重建
+ */
+final class DubboProxyTableException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    DubboProxyTableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -6,12 +6,31 @@ import org.apache.dubbo.config.ProtocolConfig;
 import org.apache.dubbo.config.ReferenceConfig;
 import org.apache.dubbo.config.RegistryConfig;
 import org.apache.dubbo.config.ServiceConfig;
+import org.apache.dubbo.remoting.transport.netty4.DubboProxyNettyDomainSocketTransporter;
+import org.apache.dubbo.remoting.transport.netty4.DubboProxyNettyTransporter;
 import org.apache.dubbo.rpc.RpcContext;
+import org.apache.dubbo.rpc.protocol.dubbo.DubboProxyDrainStatusChecker;
+import org.apache.dubbo.rpc.protocol.dubbo.DubboProxyExchanger;
 import org.apache.dubbo.rpc.protocol.dubbo.DubboProxyInputFacade;
+import org.apache.dubbo.rpc.protocol.dubbo.DubboProxyPayload;
 import org.apache.dubbo.rpc.service.GenericService;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.METHOD_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.PATH_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.VERSION_KEY;
+import static org.apache.dubbo.remoting.Constants.DISPATCHER_KEY;
+import static org.apache.dubbo.remoting.Constants.EXCHANGER_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.EVENT_LOOP_AFFINITY_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.REUSEPORT_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SNAPSHOT_KEY;
 
 /**
  * @author chen.pengzhi (chpengzh@foxmail.com)
@@ -27,11 +46,20 @@ public class DubboMeshLauncher {
         // 1.使用协议名称 dubbo-proxy-server
         // 2.因为是纯异步实现，所以只需要核心数相等的线程即可，减少cpu调度消耗
         // 3.相应的要调整等待队列大小，防止因为并发执行耗时误差调至的拒绝策略
+        // 4.传输层使用 dubbo-proxy-uds, 在 TCP 端口之外同时监听 unix domain socket, 同机的 SDK 使用 client=dubbo-proxy-uds 连接;
+        //   请求 payload 直接以入站帧的切片形式转发
+        // 5.交换层使用 dubbo-proxy, 已知上游的请求不经过调用链直接转发
+        // 6.epoll 可用时以 SO_REUSEPORT 为每个 IO 线程绑定一个监听, 重启后大量 SDK 同时重连时 accept 分散到多个线程
+        // 7.telnet status 命令输出下线 provider 的摘流计数与耗时
         //
         ProtocolConfig protocol = new ProtocolConfig();
         protocol.setPort(8999);
         protocol.setName("dubbo-proxy-server");
         protocol.setDispatcher("direct");
+        protocol.setServer(DubboProxyNettyDomainSocketTransporter.NAME);
+        protocol.setExchanger(DubboProxyExchanger.NAME);
+        protocol.setParameters(Collections.singletonMap(REUSEPORT_KEY, Boolean.TRUE.toString()));
+        protocol.setStatus(DubboProxyDrainStatusChecker.NAME);
 
         //
         // Dubbo Registry
@@ -55,33 +83,47 @@ public class DubboMeshLauncher {
 
         //
         // Dubbo Reference 定义
-        // 1.以下信息个性数据来自于业务应用初始化上报
+        // 1.interface/version/group 来自请求的 proxy header, 首次调用时在后台创建
         // 2.使用的编解码协议是 dubbo-proxy-server
+        // 3.传输层使用 dubbo-proxy-netty, 请求 payload 以零拷贝的方式转发
+        // 4.上游响应在IO线程中直接写回
+        // 5.空闲 30 分钟或超出 1024 个的引用会被销毁
+        // 6.每个 provider 按本进程的服务端 IO 线程各建立一个连接, 请求在哪个 IO 线程上收到就从同一线程的连接转发
+        // 7.以 -Ddubbo.proxy.snapshot=true 启动时注册中心推送的地址与路由规则写入目录快照, 重启后先按快照建立连接,
+        //   注册中心较慢或不可用时也能转发. 快照中的 provider 可能已经下线, 默认关闭
         //
-        ReferenceConfig<GenericService> reference = new ReferenceConfig<>();
-        reference.setInterface("com.github.example.TestApi");
-        reference.setVersion("1.0.0");
-        reference.setGroup("some_group");
-        reference.setTimeout(1000000);
-        reference.setProtocol("dubbo-proxy-server");
-        reference.setConsumer(consumer);
-        reference.setGeneric(true);
         consumer.setCheck(false);
-        GenericService outputFacade = reference.get();
+        DubboMeshReferenceCache references = new DubboMeshReferenceCache(() -> {
+            ReferenceConfig<GenericService> reference = new ReferenceConfig<>();
+            reference.setTimeout(1000000);
+            reference.setProtocol("dubbo-proxy-server");
+            reference.setClient(DubboProxyNettyTransporter.NAME);
+            Map<String, String> parameters = new HashMap<>();
+            parameters.put(EXCHANGER_KEY, DubboProxyExchanger.NAME);
+            parameters.put(DISPATCHER_KEY, "direct");
+            parameters.put(EVENT_LOOP_AFFINITY_KEY, Boolean.TRUE.toString());
+            parameters.put(SNAPSHOT_KEY, String.valueOf(Boolean.getBoolean("dubbo.proxy.snapshot")));
+            reference.setParameters(parameters);
+            reference.setConsumer(consumer);
+            reference.setGeneric(true);
+            return reference;
+        }, 1024, TimeUnit.MINUTES.toMillis(30));
 
         //
         // 代理接口服务
-        // 1.所有的应用的出口流量均在这个服务中进行处理
+        // 1.没有直接转发的出口流量在这个服务中进行处理
         // 2.可以支持到Filter实现异步逻辑扩展
+        // 3.引用尚未创建完成时, 请求在引用创建完成后由创建线程发出
+        // 4.调用完成前引用不会被淘汰销毁
         //
         ServiceConfig<DubboProxyInputFacade> service = new ServiceConfig<>();
         service.setInterface(DubboProxyInputFacade.class);
-        service.setRef((payloads, headers, attachment) -> {
-            // 这里是在业务线程池里面进行的
-            System.out.println(outputFacade.$invoke("", new String[0], new Object[]{payloads}));
-            //noinspection unchecked
-            return (CompletableFuture) RpcContext.getContext().getFuture();
-        });
+        service.setRef((payloads, headers, attachment) -> references
+                .invoke(headers.get(PATH_KEY), headers.get(VERSION_KEY), headers.get(GROUP_KEY), outputFacade -> {
+                    outputFacade.$invoke(headers.get(METHOD_KEY), new String[0], new Object[]{payloads});
+                    //noinspection unchecked
+                    return (CompletableFuture<DubboProxyPayload>) (CompletableFuture) RpcContext.getContext().getFuture();
+                }));
         service.setVersion("1.0.0");
         service.setGroup("");
         service.setApplication(application);
@@ -89,6 +131,9 @@ public class DubboMeshLauncher {
         service.setProtocol(protocol);
         service.export();
 
+        // 服务端 IO 线程就绪后再预热引用, 上游连接才能按 IO 线程建立
+        references.warmup("com.github.example.TestApi", "1.0.0", "some_group");
+
         System.in.read();
     }
 
@@ -0,0 +1,288 @@
+package org.apache.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.utils.NamedThreadFactory;
+import org.apache.dubbo.config.ReferenceConfig;
+import org.apache.dubbo.rpc.protocol.dubbo.DubboProxyServerProtocol;
+import org.apache.dubbo.rpc.service.GenericService;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 上游泛化引用缓存
+ * <p>
+ * 按 proxy header 中的 path/version/group 在首次调用时创建引用. 注册中心订阅与建立连接在后台线程中完成,
+ * 调用方拿到的是引用的 future, 不会阻塞 IO 线程. 空闲超时或超出容量的引用按最近使用时间淘汰并销毁,
+ * 最近使用时间取经过缓存的调用与 {@link DubboProxyServerProtocol} 直接转发中较晚的一次.
+ * <p>
+ * 调用期间引用被固定, 固定中的引用不会被淘汰; 淘汰与固定竞争时淘汰成功的一方胜出, 调用方改用新创建的引用
+ */
+public class DubboMeshReferenceCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboMeshReferenceCache.class);
+
+    private static final int REFER_THREADS = 4;
+
+    /**
+     * 调用时调整访问顺序的最小间隔(ms), 避免每次调用都竞争顺序表的锁
+     */
+    private static final long TOUCH_INTERVAL = 1000;
+
+    /**
+     * 引用模板, 只需要设置 interface/version/group
+     */
+    private final Supplier<ReferenceConfig<GenericService>> template;
+
+    private final int capacity;
+
+    private final long idleTimeout;
+
+    /**
+     * <service key, 引用>
+     */
+    private final ConcurrentMap<String, Entry> references = new ConcurrentHashMap<>();
+
+    /**
+     * 按访问顺序排列的引用, 最久未使用的在前, 由自身加锁保护
+     */
+    private final Map<String, Entry> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(
+            REFER_THREADS, new NamedThreadFactory("dubbo-mesh-reference", true));
+
+    /**
+     * @param template    引用模板
+     * @param capacity    最多保留的引用数
+     * @param idleTimeout 引用空闲多久后销毁(ms)
+     */
+    public DubboMeshReferenceCache(
+            Supplier<ReferenceConfig<GenericService>> template,
+            int capacity,
+            long idleTimeout
+    ) {
+        this.template = template;
+        this.capacity = capacity;
+        this.idleTimeout = idleTimeout;
+        long period = Math.max(idleTimeout / 2, 1000);
+        executor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 使用上游引用发起调用, 引用不存在时在后台创建, 调用完成前引用不会被淘汰
+     *
+     * @param path    接口名
+     * @param version 版本
+     * @param group   分组
+     * @param call    引用创建完成后发起调用, 返回调用结果
+     * @return 调用结果, 引用创建失败时异常完成且下一次调用会重新创建
+     */
+    public <R> CompletableFuture<R> invoke(
+            String path,
+            String version,
+            String group,
+            Function<GenericService, CompletableFuture<R>> call
+    ) {
+        Entry entry = acquire(path, version, group);
+        return entry.service.thenCompose(call).whenComplete((r, t) -> entry.pins.decrementAndGet());
+    }
+
+    /**
+     * 在后台预热上游引用
+     *
+     * @param path    接口名
+     * @param version 版本
+     * @param group   分组
+     */
+    public void warmup(String path, String version, String group) {
+        acquire(path, version, group).pins.decrementAndGet();
+    }
+
+    /**
+     * @return 已固定的引用
+     */
+    private Entry acquire(String path, String version, String group) {
+        String key = URL.buildKey(path, group, version);
+        for (; ; ) {
+            Entry entry = references.get(key);
+            if (entry == null) {
+                Entry created = new Entry(key);
+                created.pins.incrementAndGet();
+                entry = references.putIfAbsent(key, created);
+                if (entry == null) {
+                    synchronized (accessOrder) {
+                        accessOrder.put(key, created);
+                    }
+                    executor.execute(() -> refer(created, path, version, group));
+                    return created;
+                }
+            }
+            if (entry.pin()) {
+                touch(entry);
+                return entry;
+            }
+            // 正在被淘汰, 淘汰方会从缓存中移除
+            references.remove(key, entry);
+        }
+    }
+
+    private void touch(Entry entry) {
+        long now = System.currentTimeMillis();
+        if (now - entry.lastAccess >= TOUCH_INTERVAL) {
+            synchronized (accessOrder) {
+                accessOrder.get(entry.key);
+            }
+        }
+        entry.lastAccess = now;
+    }
+
+    private void refer(Entry entry, String path, String version, String group) {
+        ReferenceConfig<GenericService> reference = template.get();
+        reference.setInterface(path);
+        reference.setVersion(version);
+        reference.setGroup(group);
+        try {
+            GenericService service = reference.get();
+            entry.reference = reference;
+            entry.service.complete(service);
+        } catch (Throwable t) {
+            logger.warn("Refer upstream service " + entry.key + " failed, cause: " + t.getMessage(), t);
+            remove(entry);
+            entry.service.completeExceptionally(t);
+            reference.destroy();
+            return;
+        }
+        evictExceeded();
+    }
+
+    /**
+     * 超出容量时按访问顺序淘汰最久未使用的引用.
+     * 直接转发不经过缓存, 转发时间较新的引用记录转发时间并移到队尾, 仍超出容量时再检查一轮
+     */
+    private void evictExceeded() {
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (accessOrder) {
+            int exceeded = accessOrder.size() - capacity;
+            for (int pass = 0; pass < 2 && exceeded > 0; pass++) {
+                List<Entry> forwarded = new ArrayList<>();
+                Iterator<Entry> iterator = accessOrder.values().iterator();
+                while (exceeded > 0 && iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    if (entry.reference == null) {
+                        continue;
+                    }
+                    long lastForward = DubboProxyServerProtocol.getLastForwardTime(entry.key);
+                    if (lastForward > entry.lastAccess) {
+                        entry.lastAccess = lastForward;
+                        forwarded.add(entry);
+                    } else if (entry.evict()) {
+                        iterator.remove();
+                        evicted.add(entry);
+                        exceeded--;
+                    }
+                }
+                for (Entry entry : forwarded) {
+                    accessOrder.get(entry.key);
+                }
+            }
+        }
+        evicted.forEach(this::destroy);
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (accessOrder) {
+            Iterator<Entry> iterator = accessOrder.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.reference != null && now - lastAccess(entry) > idleTimeout && entry.evict()) {
+                    iterator.remove();
+                    evicted.add(entry);
+                }
+            }
+        }
+        evicted.forEach(this::destroy);
+    }
+
+    private static long lastAccess(Entry entry) {
+        return Math.max(entry.lastAccess, DubboProxyServerProtocol.getLastForwardTime(entry.key));
+    }
+
+    private void remove(Entry entry) {
+        references.remove(entry.key, entry);
+        synchronized (accessOrder) {
+            accessOrder.remove(entry.key, entry);
+        }
+    }
+
+    private void destroy(Entry entry) {
+        references.remove(entry.key, entry);
+        try {
+            entry.reference.destroy();
+        } catch (Throwable t) {
+            logger.warn("Destroy upstream reference " + entry.key + " failed, cause: " + t.getMessage(), t);
+        }
+    }
+
+    private static class Entry {
+
+        /**
+         * 淘汰后的固定计数, 之后的固定都会失败
+         */
+        private static final int EVICTED = Integer.MIN_VALUE;
+
+        private final String key;
+
+        private final CompletableFuture<GenericService> service = new CompletableFuture<>();
+
+        /**
+         * 进行中的调用数
+         */
+        private final AtomicInteger pins = new AtomicInteger();
+
+        /**
+         * 创建完成后赋值, 只有创建完成的引用才会被淘汰
+         */
+        private volatile ReferenceConfig<GenericService> reference;
+
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+        private boolean pin() {
+            for (; ; ) {
+                int count = pins.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (pins.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return 没有进行中的调用时标记为已淘汰
+         */
+        private boolean evict() {
+            return pins.compareAndSet(0, EVICTED);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package org.apache.dubbo.registry.integration;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.apache.dubbo.common.constants.CommonConstants.APPLICATION_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_SNAPSHOT_SIZE;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SNAPSHOT_PATH_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SNAPSHOT_SIZE_KEY;
+
+/**
+ * 注册中心目录快照, 保存每个注册中心上每个服务最近一次收到的各分类地址(providers / routers / configurators)
+ * <p>
+ * 快照是一个内存映射文件, 以追加记录的方式增量写入: 文件头为魔数与已写入的末尾位置, 每条记录为
+ * [长度][地址数][注册中心][服务][分类][地址...], 同一注册中心同一服务同一分类以最后一条为准.
+ * 记录写完后才更新文件头中的末尾位置, 进程中途退出时未写完的记录不会被读到; 读到损坏的记录时保留之前的记录并重写文件.
+ * 每次更新后刷盘, 机器掉电时最多丢失最近一次更新. 空间不足时只保留每个分类的最新记录重写整个文件.
+ * <p>
+ * 进程启动时一次读入全部记录, 目录订阅注册中心之前先按快照刷新, 注册中心较慢或不可用时也能立即转发,
+ * 之后收到的实时通知覆盖快照中的地址. 默认文件按应用与注册中心区分, 同一文件只能被一个进程打开, 其余进程不使用快照
+ */
+final class DubboProxyDirectorySnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyDirectorySnapshot.class);
+
+    private static final int MAGIC = 0xDBB0_5A02;
+
+    /**
+     * 文件头: 魔数 + 末尾位置
+     */
+    private static final int HEADER_LENGTH = 8;
+
+    private static final int END_OFFSET = 4;
+
+    /**
+     * <文件路径, 快照>, 打开失败的文件对应 {@link #DISABLED}
+     */
+    private static final ConcurrentMap<String, DubboProxyDirectorySnapshot> SNAPSHOTS = new ConcurrentHashMap<>();
+
+    private static final DubboProxyDirectorySnapshot DISABLED = new DubboProxyDirectorySnapshot(null, null, null);
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    /**
+     * <注册中心 + 服务 + 分类, 最新的记录>, 按首次写入的顺序排列, 用于读取与重写
+     */
+    private final Map<String, Record> records = new LinkedHashMap<>();
+
+    private boolean closed;
+
+    private DubboProxyDirectorySnapshot(File file, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param url      目录 url, 按 {@link org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants#SNAPSHOT_PATH_KEY}
+     *                 打开快照文件, 未配置时为临时目录下按应用与注册中心命名的文件
+     * @param registry 注册中心地址
+     * @return 同一文件在进程内共享一个快照, 无法打开时返回的快照不读写文件
+     */
+    static DubboProxyDirectorySnapshot of(URL url, String registry) {
+        String path = url.getParameter(SNAPSHOT_PATH_KEY);
+        if (path == null || path.isEmpty()) {
+            String name = url.getParameter(APPLICATION_KEY, "") + "@" + registry;
+            path = new File(System.getProperty("java.io.tmpdir"),
+                    "dubbo-proxy-directory-" + name.replaceAll("[^A-Za-z0-9._@-]", "_") + ".snapshot").getPath();
+        }
+        int size = url.getParameter(SNAPSHOT_SIZE_KEY, DEFAULT_SNAPSHOT_SIZE);
+        return SNAPSHOTS.computeIfAbsent(path, key -> open(new File(key), size));
+    }
+
+    private static DubboProxyDirectorySnapshot open(File file, int size) {
+        long begin = System.currentTimeMillis();
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory " + parent);
+            }
+            // 通道与文件锁在进程退出或 close 前一直持有
+            @SuppressWarnings("resource")
+            FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                logger.warn("Directory snapshot " + file + " is used by another process, ignore it");
+                return DISABLED;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(size, channel.size()));
+            DubboProxyDirectorySnapshot snapshot = new DubboProxyDirectorySnapshot(file, channel, buffer);
+            snapshot.load();
+            logger.info("Loaded " + snapshot.records.size() + " records from directory snapshot " + file + " in "
+                    + (System.currentTimeMillis() - begin) + " ms");
+            return snapshot;
+        } catch (Throwable t) {
+            logger.warn("Failed to open directory snapshot " + file + ", cause: " + t.getMessage(), t);
+            return DISABLED;
+        }
+    }
+
+    /**
+     * @param registry 注册中心地址
+     * @param service  服务 key
+     * @return 快照中该服务各分类的地址, 没有时返回空列表
+     */
+    synchronized List<URL> get(String registry, String service) {
+        if (buffer == null || closed) {
+            return Collections.emptyList();
+        }
+        List<URL> urls = new ArrayList<>();
+        for (Record record : records.values()) {
+            if (record.registry.equals(registry) && record.service.equals(service)) {
+                for (String url : record.urls) {
+                    urls.add(URL.valueOf(url));
+                }
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * 记录服务各分类的最新地址, 与快照中相同的分类不写入, 有写入时刷盘
+     *
+     * @param registry   注册中心地址
+     * @param service    服务 key
+     * @param categories <分类, 该分类的全部地址>
+     */
+    synchronized void put(String registry, String service, Map<String, List<URL>> categories) {
+        if (buffer == null || closed) {
+            return;
+        }
+        boolean written = false;
+        for (Map.Entry<String, List<URL>> category : categories.entrySet()) {
+            written |= put(registry, service, category.getKey(), category.getValue());
+        }
+        if (written) {
+            force();
+        }
+    }
+
+    private boolean put(String registry, String service, String category, List<URL> urls) {
+        String[] strings = new String[urls.size()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = urls.get(i).toFullString();
+        }
+        String key = registry + '\n' + service + '\n' + category;
+        Record old = records.get(key);
+        if (old != null && Arrays.equals(old.urls, strings)) {
+            return false;
+        }
+        Record record = new Record(registry, service, category, strings);
+        records.put(key, record);
+        int end = buffer.getInt(END_OFFSET);
+        if (end + record.bytes.length > buffer.capacity()) {
+            end = compact();
+            if (end < 0) {
+                return true;
+            }
+        } else {
+            end = append(end, record);
+        }
+        buffer.putInt(END_OFFSET, end);
+        return true;
+    }
+
+    /**
+     * 刷盘并释放文件锁, 之后不再读写. 同一进程重新打开同一文件前调用
+     */
+    synchronized void close() {
+        if (buffer == null || closed) {
+            return;
+        }
+        closed = true;
+        SNAPSHOTS.remove(file.getPath(), this);
+        force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close directory snapshot " + file + ", cause: " + e.getMessage(), e);
+        }
+    }
+
+    private void force() {
+        try {
+            buffer.force();
+        } catch (Throwable t) {
+            logger.warn("Failed to flush directory snapshot " + file + ", cause: " + t.getMessage(), t);
+        }
+    }
+
+    private void load() {
+        if (buffer.getInt(0) != MAGIC) {
+            reset();
+            return;
+        }
+        int end = buffer.getInt(END_OFFSET);
+        if (end < HEADER_LENGTH || end > buffer.capacity()) {
+            reset();
+            return;
+        }
+        ByteBuffer reader = buffer.duplicate();
+        reader.position(HEADER_LENGTH).limit(end);
+        try {
+            while (reader.hasRemaining()) {
+                Record record = Record.read(reader);
+                records.put(record.registry + '\n' + record.service + '\n' + record.category, record);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            logger.warn("Directory snapshot " + file + " is corrupted, keep " + records.size()
+                    + " records before the corruption and rewrite it", e);
+            compact();
+            force();
+        }
+    }
+
+    private void reset() {
+        records.clear();
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(END_OFFSET, HEADER_LENGTH);
+    }
+
+    /**
+     * 只保留每个服务每个分类的最新记录, 从文件头之后重写
+     *
+     * @return 新的末尾位置, 最新记录仍然放不下时清空快照并返回 -1
+     */
+    private int compact() {
+        int end = HEADER_LENGTH;
+        // 重写期间末尾位置指向文件头, 中途退出时快照为空而不是半条记录
+        buffer.putInt(END_OFFSET, end);
+        for (Record record : records.values()) {
+            if (end + record.bytes.length > buffer.capacity()) {
+                logger.warn("Directory snapshot " + file + " is full with " + records.size()
+                        + " records, increase " + SNAPSHOT_SIZE_KEY);
+                reset();
+                return -1;
+            }
+            end = append(end, record);
+        }
+        buffer.putInt(END_OFFSET, end);
+        return end;
+    }
+
+    private int append(int end, Record record) {
+        ByteBuffer writer = buffer.duplicate();
+        writer.position(end);
+        writer.put(record.bytes);
+        return writer.position();
+    }
+
+    private static final class Record {
+
+        private final String registry;
+
+        private final String service;
+
+        private final String category;
+
+        private final String[] urls;
+
+        /**
+         * 编码后的记录, 包括长度
+         */
+        private final byte[] bytes;
+
+        private Record(String registry, String service, String category, String[] urls) {
+            this.registry = registry;
+            this.service = service;
+            this.category = category;
+            this.urls = urls;
+            byte[][] strings = new byte[urls.length + 3][];
+            strings[0] = registry.getBytes(StandardCharsets.UTF_8);
+            strings[1] = service.getBytes(StandardCharsets.UTF_8);
+            strings[2] = category.getBytes(StandardCharsets.UTF_8);
+            int length = 4 + 4;
+            for (int i = 0; i < urls.length; i++) {
+                strings[i + 3] = urls[i].getBytes(StandardCharsets.UTF_8);
+            }
+            for (byte[] string : strings) {
+                length += 4 + string.length;
+            }
+            ByteBuffer writer = ByteBuffer.allocate(length);
+            writer.putInt(length).putInt(urls.length);
+            for (byte[] string : strings) {
+                writer.putInt(string.length).put(string);
+            }
+            this.bytes = writer.array();
+        }
+
+        private static Record read(ByteBuffer reader) {
+            int start = reader.position();
+            int length = reader.getInt();
+            if (length < 8 || start + length > reader.limit()) {
+                throw new IllegalArgumentException("Illegal record length " + length + " at " + start);
+            }
+            int count = reader.getInt();
+            if (count < 0 || count > length) {
+                throw new IllegalArgumentException("Illegal url count " + count + " at " + start);
+            }
+            String registry = readString(reader);
+            String service = readString(reader);
+            String category = readString(reader);
+            String[] urls = new String[count];
+            for (int i = 0; i < count; i++) {
+                urls[i] = readString(reader);
+            }
+            if (reader.position() != start + length) {
+                throw new IllegalArgumentException("Illegal record at " + start);
+            }
+            return new Record(registry, service, category, urls);
+        }
+
+        private static String readString(ByteBuffer reader) {
+            int length = reader.getInt();
+            if (length < 0 || length > reader.remaining()) {
+                throw new IllegalArgumentException("Illegal string length " + length + " at " + reader.position());
+            }
+            byte[] bytes = new byte[length];
+            reader.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
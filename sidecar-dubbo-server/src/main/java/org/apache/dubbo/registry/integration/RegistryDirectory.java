@@ -24,9 +24,12 @@ import org.apache.dubbo.common.logger.Logger;
 import org.apache.dubbo.common.logger.LoggerFactory;
 import org.apache.dubbo.common.utils.Assert;
 import org.apache.dubbo.common.utils.CollectionUtils;
+import org.apache.dubbo.common.utils.NamedThreadFactory;
 import org.apache.dubbo.common.utils.NetUtils;
 import org.apache.dubbo.common.utils.StringUtils;
 import org.apache.dubbo.common.utils.UrlUtils;
+import org.apache.dubbo.configcenter.ConfigChangeType;
+import org.apache.dubbo.configcenter.ConfigurationListener;
 import org.apache.dubbo.configcenter.DynamicConfiguration;
 import org.apache.dubbo.registry.NotifyListener;
 import org.apache.dubbo.registry.Registry;
@@ -42,11 +45,23 @@ import org.apache.dubbo.rpc.cluster.RouterChain;
 import org.apache.dubbo.rpc.cluster.RouterFactory;
 import org.apache.dubbo.rpc.cluster.directory.AbstractDirectory;
 import org.apache.dubbo.rpc.cluster.directory.StaticDirectory;
+import org.apache.dubbo.rpc.cluster.router.condition.ConditionRouter;
+import org.apache.dubbo.rpc.cluster.router.condition.config.AppRouter;
+import org.apache.dubbo.rpc.cluster.router.condition.config.ServiceRouter;
+import org.apache.dubbo.rpc.cluster.router.condition.config.model.ConditionRouterRule;
+import org.apache.dubbo.rpc.cluster.router.condition.config.model.ConditionRuleParser;
+import org.apache.dubbo.rpc.cluster.router.mock.MockInvokersSelector;
+import org.apache.dubbo.rpc.cluster.router.tag.TagRouter;
 import org.apache.dubbo.rpc.cluster.support.ClusterUtils;
 import org.apache.dubbo.rpc.model.ApplicationModel;
 import org.apache.dubbo.rpc.protocol.InvokerWrapper;
+import org.apache.dubbo.rpc.protocol.dubbo.DubboProxyDrain;
+import org.apache.dubbo.rpc.protocol.dubbo.DubboProxyRouteCache;
+import org.apache.dubbo.rpc.protocol.dubbo.DubboProxyServerProtocol;
+import org.apache.dubbo.rpc.support.RpcUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -56,9 +71,21 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.apache.dubbo.common.constants.CommonConstants.ANY_VALUE;
+import static org.apache.dubbo.common.constants.CommonConstants.APPLICATION_KEY;
 import static org.apache.dubbo.common.constants.CommonConstants.DEFAULT_KEY;
 import static org.apache.dubbo.common.constants.CommonConstants.DISABLED_KEY;
 import static org.apache.dubbo.common.constants.CommonConstants.DUBBO_PROTOCOL;
@@ -67,6 +94,7 @@ import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
 import static org.apache.dubbo.common.constants.CommonConstants.INTERFACE_KEY;
 import static org.apache.dubbo.common.constants.CommonConstants.MONITOR_KEY;
 import static org.apache.dubbo.common.constants.CommonConstants.PROTOCOL_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.REMOTE_APPLICATION_KEY;
 import static org.apache.dubbo.common.constants.RegistryConstants.APP_DYNAMIC_CONFIGURATORS_CATEGORY;
 import static org.apache.dubbo.common.constants.RegistryConstants.CATEGORY_KEY;
 import static org.apache.dubbo.common.constants.RegistryConstants.COMPATIBLE_CONFIG_KEY;
@@ -81,12 +109,20 @@ import static org.apache.dubbo.common.constants.RegistryConstants.ROUTE_PROTOCOL
 import static org.apache.dubbo.registry.Constants.CONFIGURATORS_SUFFIX;
 import static org.apache.dubbo.rpc.cluster.Constants.REFER_KEY;
 import static org.apache.dubbo.rpc.cluster.Constants.ROUTER_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_DRAIN_TIMEOUT;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_NOTIFY_WINDOW;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DRAIN_TIMEOUT_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_REFER_WAIT;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_SNAPSHOT;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.NOTIFY_WINDOW_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.REFER_WAIT_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SNAPSHOT_KEY;
 
 
 /**
  * RegistryDirectory
  */
-public class RegistryDirectory<T> extends AbstractDirectory<T> implements NotifyListener {
+public class RegistryDirectory<T> extends AbstractDirectory<T> implements NotifyListener, DubboProxyRouteCache {
 
     private static final Logger logger = LoggerFactory.getLogger(RegistryDirectory.class);
 
@@ -95,11 +131,39 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
     private static final RouterFactory ROUTER_FACTORY = ExtensionLoader.getExtensionLoader(RouterFactory.class)
             .getAdaptiveExtension();
 
+    private static final int REFER_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+    // Shared by all directories, bounds the number of providers being connected at the same time
+    private static final ExecutorService REFER_EXECUTOR = new ThreadPoolExecutor(
+            REFER_THREADS, REFER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new NamedThreadFactory("dubbo-registry-directory-refer", true));
+
+    private static final int NOTIFY_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    // Applies coalesced notifications of all directories, off the registry event thread
+    private static final ScheduledExecutorService NOTIFY_EXECUTOR = new ScheduledThreadPoolExecutor(
+            NOTIFY_THREADS, new NamedThreadFactory("dubbo-registry-directory-notify", true));
+
+    // Dynamic rule keys of the condition routers (application and service level) and the tag router
+    private static final String CONDITION_RULE_SUFFIX = ".condition-router";
+    private static final String TAG_RULE_SUFFIX = ".tag-router";
+
+    // Attachments the built-in routers read: dubbo.tag and dubbo.force.tag for TagRouter,
+    // invocation.need.mock for MockInvokersSelector
+    private static final String[] ROUTE_ATTACHMENT_KEYS = {"dubbo.tag", "dubbo.force.tag", "invocation.need.mock"};
+
+    // Bounds the number of cached route results per directory, tag values come from the callers
+    private static final int ROUTE_CACHE_CAPACITY = 1024;
+
     private final String serviceKey; // Initialization at construction time, assertion not null
     private final Class<T> serviceType; // Initialization at construction time, assertion not null
     private final Map<String, String> queryMap; // Initialization at construction time, assertion not null
     private final URL directoryUrl; // Initialization at construction time, assertion not null, and always assign non null value
     private final boolean multiGroup;
+    private final long notifyWindow; // Notifications within the window are merged, 0 applies them immediately
+    private final DubboProxyDirectorySnapshot snapshot; // Last notified urls of every service, null if disabled
+    private final String snapshotRegistry; // Registry protocol and addresses, snapshot records are kept per registry
+    private final long drainTimeout; // Removed invokers are closed once idle or after the timeout
     private Protocol protocol; // Initialization at the time of injection, the assertion is not null
     private Registry registry; // Initialization at the time of injection, the assertion is not null
     private volatile boolean forbidden = false;
@@ -123,6 +187,43 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
     // Set<invokerUrls> cache invokeUrls to invokers mapping.
     private volatile Set<URL> cachedInvokerUrls; // The initial value is null and the midway may be assigned to null, please use the local variable reference
 
+    // Map<providerUrl, ProviderEntry> cache the merged url and invoker key of every notified provider url.
+    // Provider urls are compared by address and parameters, so unchanged providers skip mergeUrl and toFullString.
+    private volatile Map<URL, ProviderEntry> providerEntries = Collections.emptyMap();
+    // The configurators the cached provider entries were merged with, any replaced list invalidates all entries
+    private volatile Object[] providerEntriesConfigurators;
+
+    // Map<invokerKey, PendingRefer> refers running on REFER_EXECUTOR, guarded by the directory lock
+    private final Map<String, PendingRefer<T>> pendingRefers = new HashMap<>();
+    // Invoker keys of the latest notified providers, a refer finished after its key left this set is destroyed
+    private Set<String> referKeys = Collections.emptySet(); // guarded by the directory lock
+    // Notified whenever a pending refer finishes, the subscribing thread waits on it for the first invoker
+    private final Object referMonitor = new Object();
+
+    // Route results of the current routers, configurators and invokers, replaced with a new version on any change
+    private final AtomicLong routeVersion = new AtomicLong();
+    private volatile RouteCache<T> routeCache = new RouteCache<>(0, false);
+    // Dynamic router rules change inside the routers, the directory listens to the same keys to drop cached routes
+    private final Set<String> routeRuleKeys = ConcurrentHashMap.newKeySet();
+    private final ConfigurationListener routeRuleListener = event -> {
+        updateConditionRule(event.getKey(),
+                event.getChangeType() == ConfigChangeType.DELETED ? null : event.getValue());
+        invalidateRoutes();
+    };
+    // Rule keys of the service and application condition routers, known once subscribed
+    private volatile String serviceConditionRuleKey;
+    private volatile String appConditionRuleKey;
+    // Map<ruleKey, runtime> ListenableRouter keeps its rule private, the directory parses the same rule content
+    private final Map<String, Boolean> conditionRuleRuntime = new ConcurrentHashMap<>();
+    // RouterChain keeps its routers private, the directory tracks the builtin and notified routers it installs
+    private volatile List<Router> builtinRouters = Collections.emptyList();
+    private volatile List<Router> addedRouters = Collections.emptyList();
+
+    // Map<category, urls> the newest notification of every category not applied yet, guarded by itself
+    private final Map<String, List<URL>> pendingNotifications = new HashMap<>();
+    // Notifications during registry.subscribe are applied at once, so the reference starts with its providers
+    private volatile boolean subscribed;
+
     private static final ConsumerConfigurationListener CONSUMER_CONFIGURATION_LISTENER = new ConsumerConfigurationListener();
     private ReferenceConfigurationListener serviceConfigurationListener;
 
@@ -141,6 +242,12 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
         this.overrideDirectoryUrl = this.directoryUrl = turnRegistryUrlToConsumerUrl(url);
         String group = directoryUrl.getParameter(GROUP_KEY, "");
         this.multiGroup = group != null && (ANY_VALUE.equals(group) || group.contains(","));
+        this.notifyWindow = directoryUrl.getParameter(NOTIFY_WINDOW_KEY, DEFAULT_NOTIFY_WINDOW);
+        this.drainTimeout = directoryUrl.getParameter(DRAIN_TIMEOUT_KEY, DEFAULT_DRAIN_TIMEOUT);
+        this.snapshotRegistry = url.getProtocol() + "://" + url.getBackupAddress();
+        this.snapshot = directoryUrl.getParameter(SNAPSHOT_KEY, DEFAULT_SNAPSHOT)
+                ? DubboProxyDirectorySnapshot.of(directoryUrl, snapshotRegistry)
+                : null;
     }
 
     private URL turnRegistryUrlToConsumerUrl(URL url) {
@@ -169,7 +276,29 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
         setConsumerUrl(url);
         CONSUMER_CONFIGURATION_LISTENER.addNotifyListener(this);
         serviceConfigurationListener = new ReferenceConfigurationListener(this, url);
+        // Registered after the routers of the chain, so the cache is dropped after they apply a new rule
+        String application = url.getParameter(APPLICATION_KEY);
+        if (StringUtils.isNotEmpty(application)) {
+            appConditionRuleKey = application + CONDITION_RULE_SUFFIX;
+            addRouteRuleListener(appConditionRuleKey);
+        }
+        serviceConditionRuleKey = DynamicConfiguration.getRuleKey(url) + CONDITION_RULE_SUFFIX;
+        addRouteRuleListener(serviceConditionRuleKey);
+        invalidateRoutes();
+        if (snapshot != null) {
+            // Serve the last known providers and rules until the registry notifies the live ones
+            List<URL> snapshotUrls = snapshot.get(snapshotRegistry, directoryUrl.getServiceKey());
+            if (!snapshotUrls.isEmpty()) {
+                logger.info("Refresh service " + directoryUrl.getServiceKey() + " with " + snapshotUrls.size()
+                        + " urls from directory snapshot");
+                refreshNotified(snapshotUrls);
+            }
+        }
         registry.subscribe(url, this);
+        subscribed = true;
+        awaitFirstRefer();
+        // Forwarded requests skip the cluster invoker, they follow the route results cached here
+        DubboProxyServerProtocol.addRouteCache(directoryUrl.getServiceKey(), this);
     }
 
 
@@ -194,9 +323,13 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
             }
             DynamicConfiguration.getDynamicConfiguration()
                     .removeListener(ApplicationModel.getApplication(), CONSUMER_CONFIGURATION_LISTENER);
+            for (String key : routeRuleKeys) {
+                DynamicConfiguration.getDynamicConfiguration().removeListener(key, routeRuleListener);
+            }
         } catch (Throwable t) {
             logger.warn("unexpected error when unsubscribe service " + serviceKey + "from registry" + registry.getUrl(), t);
         }
+        DubboProxyServerProtocol.removeRouteCache(directoryUrl.getServiceKey(), this);
         super.destroy(); // must be executed after unsubscribing
         try {
             destroyAllInvokers();
@@ -205,8 +338,51 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
         }
     }
 
+    /**
+     * Registries notify one category at a time, and every notification carries the full list of that category.
+     * During a deploy they come in bursts, so only the newest list of every category is kept and all of them are
+     * applied together once the notify window elapses.
+     */
     @Override
-    public synchronized void notify(List<URL> urls) {
+    public void notify(List<URL> urls) {
+        if (!subscribed || notifyWindow <= 0) {
+            refreshNotified(urls);
+            return;
+        }
+        Map<String, List<URL>> notified = urls.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.groupingBy(url -> url.getParameter(CATEGORY_KEY, DEFAULT_CATEGORY)));
+        synchronized (pendingNotifications) {
+            boolean scheduled = !pendingNotifications.isEmpty();
+            pendingNotifications.putAll(notified);
+            if (!scheduled && !pendingNotifications.isEmpty()) {
+                NOTIFY_EXECUTOR.schedule(this::flushNotifications, notifyWindow, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flushNotifications() {
+        List<URL> urls = new ArrayList<>();
+        synchronized (pendingNotifications) {
+            pendingNotifications.values().forEach(urls::addAll);
+            pendingNotifications.clear();
+        }
+        if (urls.isEmpty() || isDestroyed()) {
+            return;
+        }
+        try {
+            refreshNotified(urls);
+        } catch (Throwable t) {
+            logger.error("Failed to refresh notified urls of service " + serviceKey + ", cause: " + t.getMessage(), t);
+        }
+    }
+
+    private synchronized void refreshNotified(List<URL> urls) {
+        if (snapshot != null) {
+            snapshot.put(snapshotRegistry, directoryUrl.getServiceKey(), urls.stream()
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.groupingBy(url -> url.getParameter(CATEGORY_KEY, DEFAULT_CATEGORY))));
+        }
         Map<String, List<URL>> categoryUrls = urls.stream()
                 .filter(Objects::nonNull)
                 .filter(this::isValidCategory)
@@ -227,6 +403,7 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
 
         List<URL> routerURLs = categoryUrls.getOrDefault(ROUTERS_CATEGORY, Collections.emptyList());
         toRouters(routerURLs).ifPresent(this::addRouters);
+        invalidateRoutes();
 
         // providers
         List<URL> providerURLs = categoryUrls.getOrDefault(PROVIDERS_CATEGORY, Collections.emptyList());
@@ -251,19 +428,21 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
      *
      * @param invokerUrls this parameter can't be null
      */
-    // TODO: 2017/8/31 FIXME The thread pool should be used to refresh the address, otherwise the task may be accumulated.
-    private void refreshInvoker(List<URL> invokerUrls) {
+    private synchronized void refreshInvoker(List<URL> invokerUrls) {
         Assert.notNull(invokerUrls, "invokerUrls should not be null");
 
         if (invokerUrls.size() == 1
                 && invokerUrls.get(0) != null
                 && EMPTY_PROTOCOL.equals(invokerUrls.get(0).getProtocol())) {
             this.forbidden = true; // Forbid to access
+            this.referKeys = Collections.emptySet(); // Pending refers are destroyed once finished
             this.invokers = Collections.emptyList();
             routerChain.setInvokers(this.invokers);
-            destroyAllInvokers(); // Close all invokers
+            invalidateRoutes();
+            retireAllInvokers(); // Close all invokers once drained
         } else {
             this.forbidden = false; // Allow to access
+            invalidateRoutes(); // Configurators may have changed
             Map<String, Invoker<T>> oldUrlInvokerMap = this.urlInvokerMap; // local reference
             if (invokerUrls == Collections.<URL>emptyList()) {
                 invokerUrls = new ArrayList<>();
@@ -288,26 +467,118 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
              *
              */
             if (CollectionUtils.isEmptyMap(newUrlInvokerMap)) {
+                if (!pendingRefers.isEmpty()) {
+                    // Keep the current invokers, the pending ones are published as soon as they are referred
+                    return;
+                }
                 logger.error(new IllegalStateException("urls to invokers error .invokerUrls.size :" + invokerUrls.size() + ", invoker.size :0. urls :" + invokerUrls
                         .toString()));
                 return;
             }
 
-            List<Invoker<T>> newInvokers = Collections.unmodifiableList(new ArrayList<>(newUrlInvokerMap.values()));
-            // pre-route and build cache, notice that route cache should build on original Invoker list.
-            // toMergeMethodInvokerMap() will wrap some invokers having different groups, those wrapped invokers not should be routed.
-            routerChain.setInvokers(newInvokers);
-            this.invokers = multiGroup ? toMergeInvokerList(newInvokers) : newInvokers;
-            this.urlInvokerMap = newUrlInvokerMap;
+            publishInvokers(oldUrlInvokerMap, newUrlInvokerMap);
+        }
+    }
 
-            try {
-                destroyUnusedInvokers(oldUrlInvokerMap, newUrlInvokerMap); // Close the unused Invoker
-            } catch (Exception e) {
-                logger.warn("destroyUnusedInvokers error. ", e);
+    /**
+     * Replace the invoker snapshot, every published list and map is a new one and never modified afterwards,
+     * so concurrent routing never sees an invoker that is still being referred.
+     */
+    private void publishInvokers(Map<String, Invoker<T>> oldUrlInvokerMap, Map<String, Invoker<T>> newUrlInvokerMap) {
+        List<Invoker<T>> newInvokers = Collections.unmodifiableList(new ArrayList<>(newUrlInvokerMap.values()));
+        // pre-route and build cache, notice that route cache should build on original Invoker list.
+        // toMergeMethodInvokerMap() will wrap some invokers having different groups, those wrapped invokers not should be routed.
+        routerChain.setInvokers(newInvokers);
+        this.invokers = multiGroup ? toMergeInvokerList(newInvokers) : newInvokers;
+        this.urlInvokerMap = newUrlInvokerMap;
+        if (!newInvokers.isEmpty()) {
+            // TagRouter subscribes to the rule of the provider application once it is notified with the invokers
+            String application = newInvokers.get(0).getUrl().getParameter(REMOTE_APPLICATION_KEY);
+            if (StringUtils.isNotEmpty(application)) {
+                addRouteRuleListener(application + TAG_RULE_SUFFIX);
+            }
+        }
+        invalidateRoutes();
+
+        try {
+            destroyUnusedInvokers(oldUrlInvokerMap, newUrlInvokerMap); // Close the unused Invoker
+        } catch (Exception e) {
+            logger.warn("destroyUnusedInvokers error. ", e);
+        }
+    }
+
+    /**
+     * Refer on REFER_EXECUTOR, then publish the invoker unless a refresh has already taken it.
+     */
+    private void refer(PendingRefer<T> pending) {
+        Invoker<T> invoker = null;
+        try {
+            invoker = new InvokerDelegate<>(protocol.refer(serviceType, pending.url), pending.url, pending.providerUrl);
+        } catch (Throwable t) {
+            logger.error("Failed to refer invoker for interface:" + serviceType + ",url:(" + pending.url + ")" + t.getMessage(), t);
+        }
+        pending.invoker = invoker;
+        pending.done = true;
+        try {
+            publishRefer(pending, invoker);
+        } finally {
+            // Notified after the directory lock is released, the waiting thread takes it to check the refers
+            synchronized (referMonitor) {
+                referMonitor.notifyAll();
+            }
+        }
+    }
+
+    private synchronized void publishRefer(PendingRefer<T> pending, Invoker<T> invoker) {
+        if (pendingRefers.get(pending.key) != pending) {
+            return; // Taken by a refresh
+        }
+        pendingRefers.remove(pending.key);
+        if (invoker == null) {
+            return;
+        }
+        if (isDestroyed() || !referKeys.contains(pending.key)) {
+            // The provider is gone while referring
+            destroyInvoker(invoker);
+            return;
+        }
+        Map<String, Invoker<T>> oldUrlInvokerMap = this.urlInvokerMap; // local reference
+        Map<String, Invoker<T>> newUrlInvokerMap = new HashMap<>();
+        if (oldUrlInvokerMap != null) {
+            for (Map.Entry<String, Invoker<T>> entry : oldUrlInvokerMap.entrySet()) {
+                if (referKeys.contains(entry.getKey())) {
+                    newUrlInvokerMap.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        newUrlInvokerMap.put(pending.key, invoker);
+        publishInvokers(oldUrlInvokerMap, newUrlInvokerMap);
+    }
+
+    /**
+     * Wait on the subscribing thread until the first invoker is published or the refer wait elapses, so the reference
+     * starts with a provider. Refreshes never wait, they publish what is referred and leave the rest to the refers.
+     */
+    private void awaitFirstRefer() {
+        long deadline = System.currentTimeMillis() + directoryUrl.getParameter(REFER_WAIT_KEY, DEFAULT_REFER_WAIT);
+        synchronized (referMonitor) {
+            long remaining;
+            while (CollectionUtils.isEmpty(invokers) && !isDestroyed() && hasPendingRefers()
+                    && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    referMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
             }
         }
     }
 
+    private synchronized boolean hasPendingRefers() {
+        return !pendingRefers.isEmpty();
+    }
+
     private List<Invoker<T>> toMergeInvokerList(List<Invoker<T>> invokers) {
         List<Invoker<T>> mergedInvokers = new ArrayList<>();
         Map<String, List<Invoker<T>>> groupMap = new HashMap<>();
@@ -375,72 +646,118 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
             return newUrlInvokerMap;
         }
         Set<String> keys = new HashSet<>();
+        List<PendingRefer<T>> referring = new ArrayList<>();
         String queryProtocols = this.queryMap.get(PROTOCOL_KEY);
-        for (URL providerUrl : urls) {
-            // If protocol is configured at the reference side, only the matching protocol is selected
-            if (queryProtocols != null && queryProtocols.length() > 0) {
-                boolean accept = false;
-                String[] acceptProtocols = queryProtocols.split(",");
-                for (String acceptProtocol : acceptProtocols) {
-                    if (Objects.equals("dubbo-proxy-server", acceptProtocol)) {
-                        providerUrl = providerUrl.setProtocol("dubbo-proxy-server");
-                        accept = true;
-                        break;
+        String[] acceptProtocols = queryProtocols != null && queryProtocols.length() > 0
+                ? queryProtocols.split(",")
+                : null;
+
+        // Incremental diff: entries of unchanged provider urls are reused as long as no configurator changed
+        Object[] configurators = currentConfigurators();
+        Map<URL, ProviderEntry> oldProviderEntries = Arrays.equals(configurators, this.providerEntriesConfigurators)
+                ? this.providerEntries
+                : Collections.emptyMap();
+        Map<URL, ProviderEntry> newProviderEntries = new HashMap<>();
+        Map<String, String> providerParameters = new HashMap<>();
+        for (URL notifiedUrl : urls) {
+            // Provider urls accepted before are neither filtered nor merged again
+            ProviderEntry entry = oldProviderEntries.get(notifiedUrl);
+            if (entry == null) {
+                URL providerUrl = notifiedUrl;
+                // If protocol is configured at the reference side, only the matching protocol is selected
+                if (acceptProtocols != null) {
+                    boolean accept = false;
+                    for (String acceptProtocol : acceptProtocols) {
+                        if (Objects.equals("dubbo-proxy-server", acceptProtocol)) {
+                            providerUrl = providerUrl.setProtocol("dubbo-proxy-server");
+                            accept = true;
+                            break;
+                        }
+                        if (providerUrl.getProtocol().equals(acceptProtocol)) {
+                            accept = true;
+                            break;
+                        }
                     }
-                    if (providerUrl.getProtocol().equals(acceptProtocol)) {
-                        accept = true;
-                        break;
+                    if (!accept) {
+                        continue;
                     }
                 }
-                if (!accept) {
+                if (EMPTY_PROTOCOL.equals(providerUrl.getProtocol())) {
                     continue;
                 }
+                if (!ExtensionLoader.getExtensionLoader(Protocol.class).hasExtension(providerUrl.getProtocol())) {
+                    logger.error(new IllegalStateException("Unsupported protocol " + providerUrl.getProtocol() +
+                            " in notified url: " + providerUrl + " from registry " + getUrl().getAddress() +
+                            " to consumer " + NetUtils.getLocalHost() + ", supported protocol: " +
+                            ExtensionLoader.getExtensionLoader(Protocol.class).getSupportedExtensions()));
+                    continue;
+                }
+                URL url = mergeUrl(providerUrl);
+                entry = new ProviderEntry(providerUrl, url, url.toFullString()); // The parameter urls are sorted
             }
-            if (EMPTY_PROTOCOL.equals(providerUrl.getProtocol())) {
-                continue;
-            }
-            if (!ExtensionLoader.getExtensionLoader(Protocol.class).hasExtension(providerUrl.getProtocol())) {
-                logger.error(new IllegalStateException("Unsupported protocol " + providerUrl.getProtocol() +
-                        " in notified url: " + providerUrl + " from registry " + getUrl().getAddress() +
-                        " to consumer " + NetUtils.getLocalHost() + ", supported protocol: " +
-                        ExtensionLoader.getExtensionLoader(Protocol.class).getSupportedExtensions()));
-                continue;
-            }
-            URL url = mergeUrl(providerUrl);
+            newProviderEntries.put(notifiedUrl, entry);
+            URL providerUrl = entry.providerUrl;
+            URL url = entry.url;
 
-            String key = url.toFullString(); // The parameter urls are sorted
+            String key = entry.key;
             if (keys.contains(key)) { // Repeated url
                 continue;
             }
             keys.add(key);
+            // Merge the provider side parameters, the first provider wins as addParametersIfAbsent does
+            for (Map.Entry<String, String> parameter : url.getParameters().entrySet()) {
+                providerParameters.putIfAbsent(parameter.getKey(), parameter.getValue());
+            }
             // Cache key is url that does not merge with consumer side parameters, regardless of how the consumer combines parameters, if the server url changes, then refer again
             Map<String, Invoker<T>> localUrlInvokerMap = this.urlInvokerMap; // local reference
             Invoker<T> invoker = localUrlInvokerMap == null ? null : localUrlInvokerMap.get(key);
-            if (invoker == null) { // Not in the cache, refer again
-                try {
-                    boolean enabled = true;
-                    if (url.hasParameter(DISABLED_KEY)) {
-                        enabled = !url.getParameter(DISABLED_KEY, false);
-                    } else {
-                        enabled = url.getParameter(ENABLED_KEY, true);
-                    }
-                    if (enabled) {
-                        invoker = new InvokerDelegate<>(protocol.refer(serviceType, url), url, providerUrl);
-                    }
-                } catch (Throwable t) {
-                    logger.error("Failed to refer invoker for interface:" + serviceType + ",url:(" + url + ")" + t.getMessage(), t);
+            if (invoker == null) { // Not in the cache, refer again in parallel
+                boolean enabled = true;
+                if (url.hasParameter(DISABLED_KEY)) {
+                    enabled = !url.getParameter(DISABLED_KEY, false);
+                } else {
+                    enabled = url.getParameter(ENABLED_KEY, true);
                 }
-                if (invoker != null) { // Put new invoker in cache
-                    newUrlInvokerMap.put(key, invoker);
+                if (enabled) {
+                    PendingRefer<T> pending = pendingRefers.get(key);
+                    if (pending == null) {
+                        PendingRefer<T> created = new PendingRefer<>(key, url, providerUrl);
+                        pendingRefers.put(key, created);
+                        REFER_EXECUTOR.execute(() -> refer(created));
+                        pending = created;
+                    }
+                    referring.add(pending);
                 }
             } else {
                 newUrlInvokerMap.put(key, invoker);
             }
         }
-        keys.clear();
+        this.referKeys = keys;
+        // Take over the finished refers, the others are published by the refer threads
+        for (PendingRefer<T> pending : referring) {
+            if (pending.done && pendingRefers.remove(pending.key) == pending && pending.invoker != null) {
+                newUrlInvokerMap.put(pending.key, pending.invoker);
+            }
+        }
+        this.providerEntries = newProviderEntries;
+        this.providerEntriesConfigurators = configurators;
+        // The combination of directoryUrl and override is at the end of notify, which can't be handled here
+        this.overrideDirectoryUrl = this.overrideDirectoryUrl.addParametersIfAbsent(providerParameters);
         return newUrlInvokerMap;
     }
 
+    /**
+     * The configurator lists are replaced rather than modified when rules change, so comparing them by identity is
+     * enough to tell whether cached merged urls are still valid.
+     */
+    private Object[] currentConfigurators() {
+        return new Object[]{
+                this.configurators,
+                CONSUMER_CONFIGURATION_LISTENER.getConfigurators(),
+                serviceConfigurationListener == null ? null : serviceConfigurationListener.getConfigurators()
+        };
+    }
+
     /**
      * Merge url parameters. the order is: override > -D >Consumer > Provider
      *
@@ -454,9 +771,6 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
 
         providerUrl = providerUrl.addParameter(Constants.CHECK_KEY, String.valueOf(false)); // Do not check whether the connection is successful or not, always create Invoker!
 
-        // The combination of directoryUrl and override is at the end of notify, which can't be handled here
-        this.overrideDirectoryUrl = this.overrideDirectoryUrl.addParametersIfAbsent(providerUrl.getParameters()); // Merge the provider side parameters
-
         if ((providerUrl.getPath() == null || providerUrl.getPath()
                 .length() == 0) && DUBBO_PROTOCOL.equals(providerUrl.getProtocol())) { // Compatible version 1.0
             //fix by tony.chenl DUBBO-44
@@ -518,6 +832,23 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
         invokers = null;
     }
 
+    /**
+     * Drain and close all invokers, they have already been removed from the routed invokers
+     */
+    private void retireAllInvokers() {
+        Map<String, Invoker<T>> localUrlInvokerMap = this.urlInvokerMap; // local reference
+        this.urlInvokerMap = null;
+        retireInvokers(localUrlInvokerMap);
+    }
+
+    private void retireInvokers(Map<String, Invoker<T>> urlInvokerMap) {
+        if (urlInvokerMap != null) {
+            for (Invoker<T> invoker : urlInvokerMap.values()) {
+                DubboProxyDrain.retire(invoker, drainTimeout);
+            }
+        }
+    }
+
     /**
      * Check whether the invoker in the cache needs to be destroyed
      * If set attribute of url: refer.autodestroy=false, the invokers will only increase without decreasing,there may be a refer leak
@@ -530,7 +861,8 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
             Map<String, Invoker<T>> newUrlInvokerMap
     ) {
         if (newUrlInvokerMap == null || newUrlInvokerMap.size() == 0) {
-            destroyAllInvokers();
+            // The new map is already published, every old invoker has left the routed invokers
+            retireInvokers(oldUrlInvokerMap);
             return;
         }
         // check deleted invoker
@@ -552,20 +884,25 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
                 if (url != null) {
                     Invoker<T> invoker = oldUrlInvokerMap.remove(url);
                     if (invoker != null) {
-                        try {
-                            invoker.destroy();
-                            if (logger.isDebugEnabled()) {
-                                logger.debug("destroy invoker[" + invoker.getUrl() + "] success. ");
-                            }
-                        } catch (Exception e) {
-                            logger.warn("destroy invoker[" + invoker.getUrl() + "] failed. " + e.getMessage(), e);
-                        }
+                        // Already out of the routed invokers, requests in flight complete before it is closed
+                        DubboProxyDrain.retire(invoker, drainTimeout);
                     }
                 }
             }
         }
     }
 
+    private void destroyInvoker(Invoker<T> invoker) {
+        try {
+            invoker.destroy();
+            if (logger.isDebugEnabled()) {
+                logger.debug("destroy invoker[" + invoker.getUrl() + "] success. ");
+            }
+        } catch (Exception e) {
+            logger.warn("destroy invoker[" + invoker.getUrl() + "] failed. " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public List<Invoker<T>> doList(Invocation invocation) {
         if (forbidden) {
@@ -580,10 +917,24 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
             return this.invokers == null ? Collections.emptyList() : this.invokers;
         }
 
+        // Routes are cached by method and routing attachments until routers, configurators or invokers change
+        RouteCache<T> cache = this.routeCache;
+        String routeKey = cache.enabled
+                ? routeKey(RpcUtils.getMethodName(invocation), invocation.getAttachments())
+                : null;
+        CachedRoute<T> route = routeKey == null ? null : cache.routes.get(routeKey);
+        if (route != null) {
+            return route.invokers;
+        }
         List<Invoker<T>> invokers = null;
         try {
-            // Get invokers from cache, only runtime routers will be executed.
             invokers = routerChain.route(getConsumerUrl(), invocation);
+            // A result routed while the cache was replaced may come from the previous routers, it is not kept
+            if (routeKey != null && invokers != null && cache == this.routeCache
+                    && cache.routes.size() < ROUTE_CACHE_CAPACITY) {
+                invokers = Collections.unmodifiableList(invokers);
+                cache.routes.putIfAbsent(routeKey, new CachedRoute<>(invokers));
+            }
         } catch (Throwable t) {
             logger.error("Failed to execute router: " + getUrl() + ", cause: " + t.getMessage(), t);
         }
@@ -607,6 +958,31 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
         return invokers == null ? Collections.emptyList() : invokers;
     }
 
+    /**
+     * Route results are only served while the cache is enabled, a forbidden directory or a runtime router
+     * leaves every request to the cluster invoker.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> R getCachedRoute(String method, Map<String, String> attachments,
+                                Function<List<? extends Invoker<?>>, R> resolver) {
+        RouteCache<T> cache = this.routeCache;
+        if (forbidden || !cache.enabled || isDestroyed()) {
+            return null;
+        }
+        CachedRoute<T> route = cache.routes.get(routeKey(method, attachments));
+        if (route == null) {
+            return null;
+        }
+        Object resolved = route.resolved;
+        if (resolved == null) {
+            // Racing resolvers compute the same value from the same invokers
+            resolved = resolver.apply(route.invokers);
+            route.resolved = resolved;
+        }
+        return (R) resolved;
+    }
+
     @Override
     public Class<T> getInterface() {
         return serviceType;
@@ -642,7 +1018,121 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
     }
 
     public void buildRouterChain(URL url) {
+        // The builtin router factories cache their routers per url, except the stateless mock selector
+        this.builtinRouters = ExtensionLoader.getExtensionLoader(RouterFactory.class)
+                .getActivateExtension(url, (String[]) null).stream()
+                .map(factory -> factory.getRouter(url))
+                .collect(Collectors.toList());
         this.setRouterChain(RouterChain.buildChain(url));
+        invalidateRoutes();
+    }
+
+    @Override
+    protected void addRouters(List<Router> routers) {
+        super.addRouters(routers);
+        // RouterChain replaces the previously added routers as well
+        this.addedRouters = routers == null ? Collections.emptyList() : routers;
+    }
+
+    /**
+     * Drop all cached route results. Routes are cached only if no router has to run on every invocation.
+     */
+    private void invalidateRoutes() {
+        RouterChain<T> chain = this.routerChain;
+        boolean enabled = !multiGroup && chain != null
+                && Stream.concat(builtinRouters.stream(), addedRouters.stream()).allMatch(this::isCacheable);
+        RouteCache<T> cache = new RouteCache<>(routeVersion.incrementAndGet(), enabled);
+        this.routeCache = cache;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Reset route cache of service " + serviceKey + " to version " + cache.version
+                    + (enabled ? "" : ", runtime routers present, not caching"));
+        }
+    }
+
+    /**
+     * Whether the routes of a router depend on nothing but the method, the routing attachments and the invokers.
+     * {@link Router#isRuntime()} is true for every router that does not override it, so it is trusted only for the
+     * routers that derive it from their rule.
+     */
+    private boolean isCacheable(Router router) {
+        if (router instanceof MockInvokersSelector) {
+            // Reads only the invocation.need.mock attachment, which is part of the route key
+            return true;
+        }
+        if (router instanceof TagRouter || router instanceof ConditionRouter) {
+            // The runtime flag of the dynamic tag rule, or of the router url
+            return !router.isRuntime();
+        }
+        if (router instanceof ServiceRouter) {
+            return isStaticConditionRule(serviceConditionRuleKey);
+        }
+        if (router instanceof AppRouter) {
+            // Without an application name the router never loads a rule
+            URL consumerUrl = getConsumerUrl();
+            return consumerUrl != null && (StringUtils.isEmpty(consumerUrl.getParameter(APPLICATION_KEY))
+                    || isStaticConditionRule(appConditionRuleKey));
+        }
+        // Script, file and custom routers may route on anything of the invocation
+        return false;
+    }
+
+    private boolean isStaticConditionRule(String key) {
+        return key != null && Boolean.FALSE.equals(conditionRuleRuntime.get(key));
+    }
+
+    /**
+     * Track the runtime flag of a condition rule the same way ListenableRouter applies it: a missing or invalid rule
+     * routes nothing, a rule that fails to parse leaves the previous one in place and is treated as runtime.
+     */
+    private void updateConditionRule(String key, String rule) {
+        if (!key.endsWith(CONDITION_RULE_SUFFIX)) {
+            return;
+        }
+        boolean runtime;
+        if (StringUtils.isEmpty(rule)) {
+            runtime = false;
+        } else {
+            try {
+                ConditionRouterRule routerRule = ConditionRuleParser.parse(rule);
+                runtime = routerRule.isValid() && routerRule.isRuntime();
+            } catch (Throwable t) {
+                logger.warn("Failed to parse condition rule " + key + " of service " + serviceKey
+                        + ", not caching routes", t);
+                runtime = true;
+            }
+        }
+        conditionRuleRuntime.put(key, runtime);
+    }
+
+    private static String routeKey(String methodName, Map<String, String> attachments) {
+        if (attachments == null || attachments.isEmpty()) {
+            return methodName;
+        }
+        StringBuilder key = null;
+        for (String attachmentKey : ROUTE_ATTACHMENT_KEYS) {
+            String value = attachments.get(attachmentKey);
+            if (value != null) {
+                if (key == null) {
+                    key = new StringBuilder(methodName);
+                }
+                key.append('&').append(attachmentKey).append('=').append(value);
+            }
+        }
+        return key == null ? methodName : key.toString();
+    }
+
+    private void addRouteRuleListener(String key) {
+        if (routeRuleKeys.add(key)) {
+            try {
+                DynamicConfiguration configuration = DynamicConfiguration.getDynamicConfiguration();
+                configuration.addListener(key, routeRuleListener);
+                if (key.endsWith(CONDITION_RULE_SUFFIX)) {
+                    updateConditionRule(key, configuration.getRule(key, DynamicConfiguration.DEFAULT_GROUP));
+                }
+            } catch (Throwable t) {
+                logger.warn("Failed to listen router rule " + key + " of service " + serviceKey, t);
+            }
+        }
     }
 
     /**
@@ -694,6 +1184,64 @@ public class RegistryDirectory<T> extends AbstractDirectory<T> implements Notify
         }
     }
 
+    /**
+     * The accepted provider url of a notified url, its merged url and its invoker key
+     */
+    private static class ProviderEntry {
+        private final URL providerUrl;
+        private final URL url;
+        private final String key;
+
+        ProviderEntry(URL providerUrl, URL url, String key) {
+            this.providerUrl = providerUrl;
+            this.url = url;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Route results of one version of routers, configurators and invokers, keyed by method and routing attachments
+     */
+    private static class RouteCache<T> {
+        private final long version;
+        private final boolean enabled;
+        private final ConcurrentMap<String, CachedRoute<T>> routes = new ConcurrentHashMap<>();
+
+        RouteCache(long version, boolean enabled) {
+            this.version = version;
+            this.enabled = enabled;
+        }
+    }
+
+    /**
+     * One cached route result, with the form the forwarder resolved it to on first use
+     */
+    private static class CachedRoute<T> {
+        private final List<Invoker<T>> invokers;
+        private volatile Object resolved;
+
+        CachedRoute(List<Invoker<T>> invokers) {
+            this.invokers = invokers;
+        }
+    }
+
+    /**
+     * A provider being referred on REFER_EXECUTOR, the invoker is visible to routing only after it is published
+     */
+    private static class PendingRefer<T> {
+        private final String key;
+        private final URL url;
+        private final URL providerUrl;
+        private volatile Invoker<T> invoker;
+        private volatile boolean done;
+
+        PendingRefer(String key, URL url, URL providerUrl) {
+            this.key = key;
+            this.url = url;
+            this.providerUrl = providerUrl;
+        }
+    }
+
     /**
      * The delegate class, which is mainly used to store the URL address sent by the registry,and can be reassembled on the basis of providerURL queryMap overrideMap for re-refer.
      *
@@ -0,0 +1,153 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.utils.NamedThreadFactory;
+import org.apache.dubbo.rpc.Invoker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上游引用摘流下线
+ * <p>
+ * 注册中心目录移除 provider 时不立即销毁引用: 引用先退出直接转发的路由, 连接保持打开, 直到该引用转发中的请求全部完成
+ * 或超过摘流时间后才销毁. 调用链发出的请求由 dubbo 关闭连接时的优雅等待处理. 销毁在后台线程中进行, 不阻塞目录刷新.
+ * <p>
+ * 摘流耗时累计在 {@link #getDrained()} 等计数中, 由 {@link DubboProxyDrainStatusChecker} 发布, 每次摘流结束时打印日志
+ */
+public final class DubboProxyDrain {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyDrain.class);
+
+    /**
+     * 检查转发中请求数的间隔(ms), 第一次检查同样延后, 留给刚选中该引用的转发请求完成登记
+     */
+    private static final long CHECK_PERIOD = 20;
+
+    private static final ScheduledExecutorService EXECUTOR = new ScheduledThreadPoolExecutor(
+            2, new NamedThreadFactory("dubbo-proxy-drain", true));
+
+    /**
+     * <引用 url, 上游引用>
+     */
+    private static final ConcurrentMap<URL, DubboProxyInvoker<?>> INVOKERS = new ConcurrentHashMap<>();
+
+    private static final AtomicLong DRAINED = new AtomicLong();
+
+    private static final AtomicLong EXPIRED = new AtomicLong();
+
+    private static final AtomicLong DRAIN_MILLIS = new AtomicLong();
+
+    private static final AtomicLong MAX_DRAIN_MILLIS = new AtomicLong();
+
+    private DubboProxyDrain() {
+    }
+
+    static void register(DubboProxyInvoker<?> invoker) {
+        INVOKERS.put(invoker.getUrl(), invoker);
+    }
+
+    static void unregister(DubboProxyInvoker<?> invoker) {
+        INVOKERS.remove(invoker.getUrl(), invoker);
+    }
+
+    /**
+     * 摘流并在请求完成后销毁引用, 不是 {@link DubboProxyServerProtocol} 的引用没有转发中的请求, 在下一次检查时销毁
+     *
+     * @param invoker 已经从目录中移除的引用
+     * @param timeout 最长摘流时间(ms)
+     */
+    public static void retire(Invoker<?> invoker, long timeout) {
+        DubboProxyInvoker<?> upstream = INVOKERS.get(invoker.getUrl());
+        if (upstream != null) {
+            DubboProxyForwarder.getInstance().removeUpstream(upstream);
+        }
+        long now = System.currentTimeMillis();
+        EXECUTOR.schedule(new Retirement(invoker, upstream, now, now + timeout), CHECK_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return 请求全部完成后销毁的引用数
+     */
+    public static long getDrained() {
+        return DRAINED.get();
+    }
+
+    /**
+     * @return 超过摘流时间仍有请求而销毁的引用数
+     */
+    public static long getExpired() {
+        return EXPIRED.get();
+    }
+
+    /**
+     * @return 所有摘流的累计耗时(ms)
+     */
+    public static long getDrainMillis() {
+        return DRAIN_MILLIS.get();
+    }
+
+    /**
+     * @return 单次摘流的最长耗时(ms)
+     */
+    public static long getMaxDrainMillis() {
+        return MAX_DRAIN_MILLIS.get();
+    }
+
+    private static final class Retirement implements Runnable {
+
+        private final Invoker<?> invoker;
+
+        private final DubboProxyInvoker<?> upstream;
+
+        private final long begin;
+
+        private final long deadline;
+
+        private Retirement(Invoker<?> invoker, DubboProxyInvoker<?> upstream, long begin, long deadline) {
+            this.invoker = invoker;
+            this.upstream = upstream;
+            this.begin = begin;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            int inFlight;
+            try {
+                inFlight = upstream == null ? 0 : DubboProxyForwarder.getInstance().countInFlight(upstream);
+            } catch (Throwable t) {
+                logger.warn("Count in-flight requests of " + invoker.getUrl() + " failed, cause: " + t.getMessage(), t);
+                inFlight = 0;
+            }
+            if (inFlight > 0 && now < deadline) {
+                EXECUTOR.schedule(this, CHECK_PERIOD, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            long millis = now - begin;
+            (inFlight > 0 ? EXPIRED : DRAINED).incrementAndGet();
+            DRAIN_MILLIS.addAndGet(millis);
+            MAX_DRAIN_MILLIS.accumulateAndGet(millis, Math::max);
+            if (inFlight > 0) {
+                logger.warn("Drain " + invoker.getUrl().getAddress() + " of " + invoker.getUrl().getServiceKey()
+                        + " timeout after " + millis + " ms, " + inFlight + " forwarded requests will fail");
+            } else {
+                logger.info("Drained " + invoker.getUrl().getAddress() + " of " + invoker.getUrl().getServiceKey()
+                        + " in " + millis + " ms");
+            }
+            try {
+                invoker.destroy();
+            } catch (Throwable t) {
+                logger.warn("destroy invoker[" + invoker.getUrl() + "] failed. " + t.getMessage(), t);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.status.Status;
+import org.apache.dubbo.common.status.StatusChecker;
+
+/**
+ * 通过 telnet status 命令发布 {@link DubboProxyDrain} 的摘流计数, 协议配置 status=drain 时启用.
+ * 出现超时销毁的引用时状态为 WARN
+ */
+public class DubboProxyDrainStatusChecker implements StatusChecker {
+
+    public static final String NAME = "drain";
+
+    @Override
+    public Status check() {
+        long drained = DubboProxyDrain.getDrained();
+        long expired = DubboProxyDrain.getExpired();
+        long total = drained + expired;
+        String message = "drained: " + drained + ", expired: " + expired
+                + ", avg: " + (total == 0 ? 0 : DubboProxyDrain.getDrainMillis() / total) + " ms"
+                + ", max: " + DubboProxyDrain.getMaxDrainMillis() + " ms";
+        return new Status(expired > 0 ? Status.Level.WARN : Status.Level.OK, message);
+    }
+}
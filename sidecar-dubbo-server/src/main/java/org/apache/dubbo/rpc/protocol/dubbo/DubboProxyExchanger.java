@@ -0,0 +1,35 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.Transporters;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+import org.apache.dubbo.remoting.exchange.ExchangeHandler;
+import org.apache.dubbo.remoting.exchange.ExchangeServer;
+import org.apache.dubbo.remoting.exchange.Exchanger;
+import org.apache.dubbo.remoting.exchange.support.header.HeaderExchangeClient;
+import org.apache.dubbo.remoting.exchange.support.header.HeaderExchangeHandler;
+import org.apache.dubbo.remoting.exchange.support.header.HeaderExchangeServer;
+import org.apache.dubbo.remoting.transport.DecodeHandler;
+
+/**
+ * 与 HeaderExchanger 相同, 在 HeaderExchangeHandler 之前插入 {@link DubboProxyForwardHandler},
+ * 服务端在 HeaderExchangeHandler 之后插入 {@link DubboProxyReplyHandler}
+ */
+public class DubboProxyExchanger implements Exchanger {
+
+    public static final String NAME = "dubbo-proxy";
+
+    @Override
+    public ExchangeClient connect(URL url, ExchangeHandler handler) throws RemotingException {
+        return new HeaderExchangeClient(Transporters.connect(url,
+                new DecodeHandler(new DubboProxyForwardHandler(new HeaderExchangeHandler(handler), true))), true);
+    }
+
+    @Override
+    public ExchangeServer bind(URL url, ExchangeHandler handler) throws RemotingException {
+        return new HeaderExchangeServer(Transporters.bind(url,
+                new DecodeHandler(new DubboProxyForwardHandler(
+                        new HeaderExchangeHandler(new DubboProxyReplyHandler(handler)), false))));
+    }
+}
@@ -0,0 +1,60 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.ChannelHandler;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.remoting.exchange.Response;
+import org.apache.dubbo.remoting.exchange.support.DefaultFuture;
+import org.apache.dubbo.remoting.transport.AbstractChannelHandlerDelegate;
+
+/**
+ * 位于 HeaderExchangeHandler 之前, 可以直接转发的请求与转发请求的响应交给 {@link DubboProxyForwarder} 处理
+ */
+class DubboProxyForwardHandler extends AbstractChannelHandlerDelegate {
+
+    /**
+     * 是否为上游连接, 上游连接需要维护转发中的请求表
+     */
+    private final boolean upstream;
+
+    DubboProxyForwardHandler(ChannelHandler handler, boolean upstream) {
+        super(handler);
+        this.upstream = upstream;
+    }
+
+    @Override
+    public void connected(Channel channel) throws RemotingException {
+        if (upstream) {
+            DubboProxyForwarder.getInstance().open(channel);
+        }
+        handler.connected(channel);
+    }
+
+    @Override
+    public void disconnected(Channel channel) throws RemotingException {
+        if (upstream) {
+            DubboProxyForwarder.getInstance().close(channel);
+        }
+        handler.disconnected(channel);
+    }
+
+    @Override
+    public void received(Channel channel, Object message) throws RemotingException {
+        if (message instanceof Request) {
+            if (DubboProxyForwarder.getInstance().forward(channel, (Request) message)) {
+                return;
+            }
+        } else if (message instanceof Response) {
+            Response response = (Response) message;
+            if (DubboProxyForwarder.getInstance().complete(channel, response)) {
+                return;
+            }
+            if (DefaultFuture.getFuture(response.getId()) == null) {
+                // 请求已超时, 响应会被丢弃
+                DubboProxyForwarder.release(response);
+            }
+        }
+        handler.received(channel, message);
+    }
+}
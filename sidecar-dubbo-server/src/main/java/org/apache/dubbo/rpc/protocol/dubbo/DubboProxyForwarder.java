@@ -0,0 +1,378 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.timer.HashedWheelTimer;
+import org.apache.dubbo.common.timer.Timer;
+import org.apache.dubbo.common.utils.AtomicPositiveInteger;
+import org.apache.dubbo.common.utils.NamedThreadFactory;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.remoting.exchange.Response;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcInvocation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.apache.dubbo.common.constants.CommonConstants.DEFAULT_TIMEOUT;
+import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.METHOD_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.PATH_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.TIMEOUT_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.VERSION_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_FORWARD_INFLIGHT_SLOTS;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.FORWARD_INFLIGHT_SLOTS_KEY;
+
+/**
+ * 代理请求转发
+ * <p>
+ * 请求不经过 GenericService 与 filter/cluster 调用链, 按 proxy header 找到服务的 {@link DubboProxyRouteCache},
+ * 在其缓存的路由结果中选择上游连接, 只替换请求 id 后写出; 上游响应按 id 找回原始连接与请求 id 原样写回.
+ * 没有缓存的路由结果、路由结果中有不是转发上游的引用或没有可用上游的请求仍然交给 {@link DubboProxyInputFacade} 处理.
+ * 转发中的请求登记在各上游连接自己的 {@link DubboProxyInFlightTable} 中, 不经过 DefaultFuture, 超时由共享的时间轮触发
+ */
+final class DubboProxyForwarder implements DubboProxyInFlightTable.Callback {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyForwarder.class);
+
+    private static final DubboProxyForwarder INSTANCE = new DubboProxyForwarder();
+
+    /**
+     * 时间轮的刻度(ms), 与 DefaultFuture 的超时检查相同
+     */
+    private static final long TIMEOUT_TICK = 30;
+
+    /**
+     * <service key, 路由>
+     */
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * <引用 url, 上游>, 与目录中引用的 url 相同
+     */
+    private final ConcurrentMap<URL, DubboProxyInvoker<?>> upstreams = new ConcurrentHashMap<>();
+
+    private final Timer timer = new HashedWheelTimer(
+            new NamedThreadFactory("dubbo-proxy-forward-timeout", true), TIMEOUT_TICK, TimeUnit.MILLISECONDS);
+
+    private DubboProxyForwarder() {
+    }
+
+    static DubboProxyForwarder getInstance() {
+        return INSTANCE;
+    }
+
+    void addRouteCache(String serviceKey, DubboProxyRouteCache cache) {
+        routes.computeIfAbsent(serviceKey, key -> new Route()).caches.add(cache);
+    }
+
+    void removeRouteCache(String serviceKey, DubboProxyRouteCache cache) {
+        routes.computeIfPresent(serviceKey, (key, route) -> {
+            route.caches.remove(cache);
+            return route.caches.isEmpty() ? null : route;
+        });
+    }
+
+    void addUpstream(DubboProxyInvoker<?> invoker) {
+        upstreams.put(invoker.getUrl(), invoker);
+    }
+
+    void removeUpstream(DubboProxyInvoker<?> invoker) {
+        upstreams.remove(invoker.getUrl(), invoker);
+    }
+
+    /**
+     * @param serviceKey 服务 key
+     * @return 该服务最近一次直接转发请求的时间, 没有路由或从未转发时为 0
+     */
+    long getLastForwardTime(String serviceKey) {
+        Route route = routes.get(serviceKey);
+        return route == null ? 0 : route.lastForward;
+    }
+
+    /**
+     * @param invoker 上游引用
+     * @return 该引用在各上游连接上转发中的请求数
+     */
+    int countInFlight(DubboProxyInvoker<?> invoker) {
+        return invoker.getForwarding().get();
+    }
+
+    /**
+     * @param upstream 上游连接
+     * @param capacity 转发中请求数上限
+     * @return 超时与完成回调到该转发器的请求表
+     */
+    DubboProxyInFlightTable newTable(Channel upstream, int capacity) {
+        return new DubboProxyInFlightTable(upstream, capacity, timer, this);
+    }
+
+    /**
+     * 上游连接建立时创建请求表
+     *
+     * @param upstream 上游连接
+     */
+    void open(Channel upstream) {
+        upstream.setAttribute(DubboProxyInFlightTable.KEY, newTable(upstream,
+                upstream.getUrl().getPositiveParameter(FORWARD_INFLIGHT_SLOTS_KEY, DEFAULT_FORWARD_INFLIGHT_SLOTS)));
+    }
+
+    /**
+     * 上游连接断开时立即失败该连接上所有转发中的请求
+     *
+     * @param upstream 上游连接
+     */
+    void close(Channel upstream) {
+        DubboProxyInFlightTable table = getTable(upstream);
+        if (table != null) {
+            table.close();
+        }
+    }
+
+    /**
+     * @param upstream 上游连接
+     * @param id       上游请求 id
+     * @return 是否为转发中的请求
+     */
+    boolean isPending(Channel upstream, long id) {
+        DubboProxyInFlightTable table = getTable(upstream);
+        return table != null && table.contains(id);
+    }
+
+    /**
+     * 转发 SDK 请求
+     *
+     * @param channel 来源连接
+     * @param request SDK 请求
+     * @return false 表示请求不能直接转发, 需要交给调用链处理
+     */
+    boolean forward(Channel channel, Request request) {
+        if (!isForwardable(request)) {
+            return false;
+        }
+        RpcInvocation inv = (RpcInvocation) request.getData();
+        Map<?, ?> headers = (Map<?, ?>) inv.getArguments()[1];
+        //noinspection unchecked
+        Map<String, String> attachments = (Map<String, String>) inv.getArguments()[2];
+        String method = (String) headers.get(METHOD_KEY);
+        Route route = routes.get(URL.buildKey(
+                (String) headers.get(PATH_KEY),
+                (String) headers.get(GROUP_KEY),
+                (String) headers.get(VERSION_KEY)));
+        DubboProxyInvoker<?>[] candidates = route == null ? null : route.getCandidates(method, attachments, this::resolve);
+        DubboProxyInvoker<?> invoker = candidates == null ? null : route.select(candidates);
+        if (invoker == null) {
+            return false;
+        }
+        route.touch();
+
+        // 连接尚未建立完成、已关闭或转发中的请求已满时交给调用链处理
+        DubboProxyInFlightTable table = (DubboProxyInFlightTable) invoker.selectClient()
+                .getAttribute(DubboProxyInFlightTable.KEY);
+        if (table == null) {
+            return false;
+        }
+        int timeout = getTimeout(attachments, invoker, method);
+        long id = table.put(channel, request, timeout, invoker.getForwarding());
+        if (id < 0) {
+            return false;
+        }
+
+        Request upstream = new Request(id);
+        upstream.setVersion(request.getVersion());
+        upstream.setTwoWay(true);
+        upstream.setData(inv);
+        try {
+            table.getChannel().send(upstream);
+        } catch (RemotingException e) {
+            // 未写出的请求交给调用链重试
+            if (table.remove(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 将上游响应写回来源连接
+     *
+     * @param upstream 上游连接
+     * @param response 上游响应
+     * @return false 表示不是转发的请求
+     */
+    boolean complete(Channel upstream, Response response) {
+        DubboProxyInFlightTable table = getTable(upstream);
+        return table != null && table.complete(response);
+    }
+
+    @Override
+    public void onResponse(Channel source, Request request, Response response) {
+        Response res = new Response(request.getId(), request.getVersion());
+        res.setStatus(response.getStatus());
+        if (response.getStatus() == Response.OK) {
+            res.setResult(response.getResult());
+        } else {
+            res.setErrorMessage(response.getErrorMessage());
+        }
+        reply(source, request, res);
+    }
+
+    @Override
+    public void onTimeout(Channel source, Request request, int timeout, Channel upstream) {
+        Response res = new Response(request.getId(), request.getVersion());
+        res.setStatus(Response.SERVER_TIMEOUT);
+        res.setErrorMessage("Waiting upstream response timeout, timeout: " + timeout
+                + " ms, upstream: " + upstream.getRemoteAddress());
+        reply(source, request, res);
+    }
+
+    @Override
+    public void onClose(Channel source, Request request, Channel upstream) {
+        Response res = new Response(request.getId(), request.getVersion());
+        res.setStatus(Response.CHANNEL_INACTIVE);
+        res.setErrorMessage("Upstream channel " + upstream + " is inactive. Directly return the unFinished request.");
+        reply(source, request, res);
+    }
+
+    private void reply(Channel source, Request request, Response res) {
+        try {
+            source.send(res);
+        } catch (RemotingException e) {
+            logger.warn("Send forwarded response " + res + " to " + source.getRemoteAddress()
+                    + " failed, cause: " + e.getMessage(), e);
+            release(res);
+        } finally {
+            DubboProxyPayload.release(((RpcInvocation) request.getData()).getArguments());
+        }
+    }
+
+    /**
+     * 路由结果中的引用都是转发上游时才转发, 否则按比例只转发一部分会改变路由结果的负载分布
+     *
+     * @param invokers 目录缓存的路由结果
+     * @return 对应的上游, 为空时请求交给调用链
+     */
+    private DubboProxyInvoker<?>[] resolve(List<? extends Invoker<?>> invokers) {
+        DubboProxyInvoker<?>[] candidates = new DubboProxyInvoker<?>[invokers.size()];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = upstreams.get(invokers.get(i).getUrl());
+            if (candidates[i] == null) {
+                return new DubboProxyInvoker<?>[0];
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * SDK 请求携带调用方的超时时间, 没有时使用上游引用配置的方法超时
+     */
+    private static int getTimeout(Map<String, String> attachments, DubboProxyInvoker<?> invoker, String method) {
+        String value = attachments == null ? null : attachments.get(TIMEOUT_KEY);
+        if (value != null) {
+            try {
+                int timeout = Integer.parseInt(value);
+                if (timeout > 0) {
+                    return timeout;
+                }
+            } catch (NumberFormatException e) {
+                // 使用上游引用的配置
+            }
+        }
+        return invoker.getUrl().getMethodPositiveParameter(method, TIMEOUT_KEY, DEFAULT_TIMEOUT);
+    }
+
+    private static DubboProxyInFlightTable getTable(Channel upstream) {
+        return (DubboProxyInFlightTable) upstream.getAttribute(DubboProxyInFlightTable.KEY);
+    }
+
+    /**
+     * 释放响应中的 payload
+     *
+     * @param response 不再写出的响应
+     */
+    static void release(Response response) {
+        if (response.getResult() instanceof Result) {
+            Object value = ((Result) response.getResult()).getValue();
+            if (value instanceof DubboProxyPayload) {
+                ((DubboProxyPayload) value).release();
+            }
+        }
+    }
+
+    private static boolean isForwardable(Request request) {
+        if (request.isEvent() || request.isBroken() || !request.isTwoWay()
+                || !(request.getData() instanceof RpcInvocation)) {
+            return false;
+        }
+        Object[] args = ((RpcInvocation) request.getData()).getArguments();
+        return args != null && args.length == 3 && args[0] instanceof DubboProxyPayload && args[1] instanceof Map;
+    }
+
+    private static class Route {
+
+        private final List<DubboProxyRouteCache> caches = new CopyOnWriteArrayList<>();
+
+        private final AtomicPositiveInteger index = new AtomicPositiveInteger();
+
+        /**
+         * 最近一次转发的时间, 直接转发的请求不经过引用缓存, 引用淘汰以此判断服务是否仍在使用
+         */
+        private volatile long lastForward;
+
+        /**
+         * 记录转发时间, 同一毫秒内只写一次
+         */
+        private void touch() {
+            long now = System.currentTimeMillis();
+            if (lastForward != now) {
+                lastForward = now;
+            }
+        }
+
+        /**
+         * @return 缓存的路由结果对应的上游, 登记了多个或没有路由结果缓存时为 null
+         */
+        private DubboProxyInvoker<?>[] getCandidates(String method, Map<String, String> attachments,
+                                                     Function<List<? extends Invoker<?>>, DubboProxyInvoker<?>[]> resolver) {
+            if (caches.size() != 1) {
+                return null;
+            }
+            try {
+                return caches.get(0).getCachedRoute(method, attachments, resolver);
+            } catch (IndexOutOfBoundsException e) {
+                // 并发移除
+                return null;
+            }
+        }
+
+        /**
+         * 轮询选择可用的上游, 慢启动中的上游按比例接收, 没有上游接收时选择第一个可用的上游
+         */
+        private DubboProxyInvoker<?> select(DubboProxyInvoker<?>[] candidates) {
+            int size = candidates.length;
+            DubboProxyInvoker<?> fallback = null;
+            for (int i = 0; i < size; i++) {
+                DubboProxyInvoker<?> invoker = candidates[index.getAndIncrement() % size];
+                if (!invoker.isAvailable()) {
+                    continue;
+                }
+                if (invoker.admit()) {
+                    return invoker;
+                }
+                if (fallback == null) {
+                    fallback = invoker;
+                }
+            }
+            return fallback;
+        }
+    }
+}
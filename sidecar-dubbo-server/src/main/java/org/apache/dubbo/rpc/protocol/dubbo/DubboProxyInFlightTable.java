@@ -0,0 +1,327 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.timer.Timeout;
+import org.apache.dubbo.common.timer.Timer;
+import org.apache.dubbo.common.timer.TimerTask;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.remoting.exchange.Response;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 单个上游连接上转发中的请求表
+ * <p>
+ * 上游请求 id 由表自己分配: id = 标记位 | 序号 | 槽位, 按 id 查找只需一次数组访问.
+ * 槽位状态保存在 {@link AtomicLongArray} 中(空闲 / 占用中 / 上游请求 id), 通过 CAS 独占槽位后读写其余字段, 读写均不加锁.
+ * 槽位按块延迟分配, 表从一个块开始, 下一个序号的槽位连续多次仍被占用时翻倍使用的槽位数, 直到上限后视为表满.
+ * <p>
+ * 超时由时间轮按截止时间触发, 不扫描请求表; 请求完成时取消对应的超时
+ */
+final class DubboProxyInFlightTable {
+
+    /**
+     * 上游连接上保存请求表的属性名
+     */
+    static final String KEY = "dubbo.proxy.inflight";
+
+    /**
+     * 转发请求 id 的标记位, 与 {@link Request} 全局递增的 id 区分, 同一连接上调用链发出的请求不会被误认
+     */
+    private static final long ID_FLAG = 1L << 62;
+
+    private static final long FREE = 0L;
+
+    private static final long LOCKED = -1L;
+
+    private static final int MAX_PROBES = 8;
+
+    private static final int CHUNK_SHIFT = 6;
+
+    private final Channel channel;
+
+    private final Timer timer;
+
+    private final Callback callback;
+
+    /**
+     * 槽位数上限与槽位在 id 中占用的位数
+     */
+    private final int capacity;
+
+    private final int slotBits;
+
+    private final int chunkSize;
+
+    private final AtomicReferenceArray<Chunk> chunks;
+
+    /**
+     * 当前使用的槽位数, 2 的幂, 只增不减
+     */
+    private final AtomicInteger size;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * @param channel  上游连接
+     * @param capacity 槽位数上限, 向上取整为 2 的幂
+     * @param timer    触发超时的时间轮
+     * @param callback 请求移出请求表时的回调
+     */
+    DubboProxyInFlightTable(Channel channel, int capacity, Timer timer, Callback callback) {
+        this.capacity = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slotBits = Integer.numberOfTrailingZeros(this.capacity);
+        this.chunkSize = Math.min(this.capacity, 1 << CHUNK_SHIFT);
+        this.chunks = new AtomicReferenceArray<>(this.capacity / chunkSize);
+        this.size = new AtomicInteger(chunkSize);
+        this.channel = channel;
+        this.timer = timer;
+        this.callback = callback;
+    }
+
+    Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 登记转发请求
+     *
+     * @param source   来源连接
+     * @param request  来源请求
+     * @param timeout  超时时间(ms)
+     * @param inFlight 发出请求的上游引用的转发中请求数, 登记时加一, 移出时减一
+     * @return 上游请求 id, 表已关闭或没有空闲槽位时返回 -1
+     */
+    long put(Channel source, Request request, int timeout, AtomicInteger inFlight) {
+        for (int active = size.get(); ; active = size.get()) {
+            for (int i = 0; i < MAX_PROBES; i++) {
+                long seq = sequence.getAndIncrement();
+                int index = (int) (seq & (active - 1));
+                Chunk chunk = getOrCreateChunk(index >>> CHUNK_SHIFT);
+                int slot = index & (chunkSize - 1);
+                if (!chunk.states.compareAndSet(slot, FREE, LOCKED)) {
+                    continue;
+                }
+                // 占住槽位后再检查关闭标记, 保证 close 一定能看到这个槽位
+                if (closed) {
+                    chunk.states.set(slot, FREE);
+                    return -1;
+                }
+                long id = ID_FLAG | (((seq << slotBits) | index) & (ID_FLAG - 1));
+                chunk.channels[slot] = source;
+                chunk.requests[slot] = request;
+                chunk.timeouts[slot] = timeout;
+                chunk.owners[slot] = inFlight;
+                chunk.timers[slot] = timer.newTimeout(new Expiry(id), timeout, TimeUnit.MILLISECONDS);
+                inFlight.incrementAndGet();
+                chunk.states.set(slot, id);
+                // 发布后关闭的表可能已经扫描过这个槽位
+                if (closed && remove(id)) {
+                    return -1;
+                }
+                return id;
+            }
+            if (active >= capacity) {
+                return -1;
+            }
+            size.compareAndSet(active, active << 1);
+        }
+    }
+
+    /**
+     * @param id 上游请求 id
+     * @return 是否为转发中的请求
+     */
+    boolean contains(long id) {
+        Chunk chunk = getChunk(id);
+        return chunk != null && chunk.states.get(slot(id)) == id;
+    }
+
+    /**
+     * 按上游响应完成转发请求
+     *
+     * @param response 上游响应
+     * @return false 表示不是转发中的请求
+     */
+    boolean complete(Response response) {
+        long id = response.getId();
+        Chunk chunk = getChunk(id);
+        int slot = slot(id);
+        if (chunk == null || !chunk.acquire(slot, id)) {
+            return false;
+        }
+        Channel source = chunk.channels[slot];
+        Request request = chunk.requests[slot];
+        chunk.release(slot, true);
+        callback.onResponse(source, request, response);
+        return true;
+    }
+
+    /**
+     * 撤销未写出的请求
+     *
+     * @param id 上游请求 id
+     * @return false 表示请求已被响应、超时或连接关闭处理
+     */
+    boolean remove(long id) {
+        Chunk chunk = getChunk(id);
+        int slot = slot(id);
+        if (chunk == null || !chunk.acquire(slot, id)) {
+            return false;
+        }
+        chunk.release(slot, true);
+        return true;
+    }
+
+    /**
+     * 关闭请求表, 所有转发中的请求立即失败, 之后的登记都会失败.
+     * 正在被其它线程移出的请求由该线程完成回调
+     */
+    void close() {
+        closed = true;
+        for (int c = 0; c < chunks.length(); c++) {
+            Chunk chunk = chunks.get(c);
+            if (chunk == null) {
+                continue;
+            }
+            for (int slot = 0; slot < chunkSize; slot++) {
+                long id = chunk.states.get(slot);
+                if (id == FREE || id == LOCKED || !chunk.acquire(slot, id)) {
+                    continue;
+                }
+                Channel source = chunk.channels[slot];
+                Request request = chunk.requests[slot];
+                chunk.release(slot, true);
+                callback.onClose(source, request, channel);
+            }
+        }
+    }
+
+    private Chunk getChunk(long id) {
+        if ((id & ID_FLAG) == 0) {
+            return null;
+        }
+        return chunks.get((int) (id & (capacity - 1)) >>> CHUNK_SHIFT);
+    }
+
+    private Chunk getOrCreateChunk(int index) {
+        Chunk chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new Chunk(chunkSize));
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    private int slot(long id) {
+        return (int) id & (chunkSize - 1);
+    }
+
+    private static final class Chunk {
+
+        private final AtomicLongArray states;
+
+        private final Channel[] channels;
+
+        private final Request[] requests;
+
+        private final int[] timeouts;
+
+        private final AtomicInteger[] owners;
+
+        private final Timeout[] timers;
+
+        private Chunk(int size) {
+            this.states = new AtomicLongArray(size);
+            this.channels = new Channel[size];
+            this.requests = new Request[size];
+            this.timeouts = new int[size];
+            this.owners = new AtomicInteger[size];
+            this.timers = new Timeout[size];
+        }
+
+        private boolean acquire(int slot, long id) {
+            return states.get(slot) == id && states.compareAndSet(slot, id, LOCKED);
+        }
+
+        /**
+         * @param cancel 是否取消超时, 由超时触发时不需要取消
+         */
+        private void release(int slot, boolean cancel) {
+            if (cancel) {
+                timers[slot].cancel();
+            }
+            owners[slot].decrementAndGet();
+            channels[slot] = null;
+            requests[slot] = null;
+            owners[slot] = null;
+            timers[slot] = null;
+            states.set(slot, FREE);
+        }
+    }
+
+    /**
+     * 请求的超时, 在时间轮线程上执行
+     */
+    private final class Expiry implements TimerTask {
+
+        private final long id;
+
+        private Expiry(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            Chunk chunk = getChunk(id);
+            int slot = slot(id);
+            if (chunk.states.get(slot) == LOCKED) {
+                // 登记尚未完成或正被移出, 下一轮再检查
+                timeout.timer().newTimeout(this, 1, TimeUnit.MILLISECONDS);
+                return;
+            }
+            if (!chunk.acquire(slot, id)) {
+                return;
+            }
+            Channel source = chunk.channels[slot];
+            Request request = chunk.requests[slot];
+            int millis = chunk.timeouts[slot];
+            chunk.release(slot, false);
+            callback.onTimeout(source, request, millis, channel);
+        }
+    }
+
+    /**
+     * 请求移出请求表时的回调, 在移出请求的线程上执行
+     */
+    interface Callback {
+
+        /**
+         * @param source   来源连接
+         * @param request  来源请求
+         * @param response 上游响应
+         */
+        void onResponse(Channel source, Request request, Response response);
+
+        /**
+         * @param source   来源连接
+         * @param request  来源请求
+         * @param timeout  超时时间(ms)
+         * @param upstream 上游连接
+         */
+        void onTimeout(Channel source, Request request, int timeout, Channel upstream);
+
+        /**
+         * @param source   来源连接
+         * @param request  来源请求
+         * @param upstream 已关闭的上游连接
+         */
+        void onClose(Channel source, Request request, Channel upstream);
+    }
+}
@@ -0,0 +1,223 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.Version;
+import org.apache.dubbo.common.logger.Logger;
+import org.apache.dubbo.common.logger.LoggerFactory;
+import org.apache.dubbo.common.utils.AtomicPositiveInteger;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.remoting.exchange.support.DefaultFuture;
+import org.apache.dubbo.remoting.transport.netty4.DubboProxyEventLoops;
+import org.apache.dubbo.rpc.Invoker;
+
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.dubbo.rpc.cluster.Constants.REMOTE_TIMESTAMP_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_SLOW_START_WINDOW;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SLOW_START_WINDOW_KEY;
+
+/**
+ * 与 {@link DubboInvoker} 相同, 额外向 {@link DubboProxyForwarder} 暴露上游连接
+ * <p>
+ * 新上线的 provider 在 {@link DubboProxyConstants#SLOW_START_WINDOW_KEY} 窗口内按上线时长线性提升接收转发请求的比例,
+ * 上线时间取 provider 的注册时间, 与 dubbo 负载均衡的预热一致, sidecar 重启后重新引用已运行较久的 provider 不会再次慢启动
+ */
+class DubboProxyInvoker<T> extends DubboInvoker<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(DubboProxyInvoker.class);
+
+    /**
+     * 慢启动开始时的接收比例
+     */
+    private static final double MIN_SLOW_START_RATIO = 0.01;
+
+    /**
+     * 预热心跳等待响应的最长时间(ms)
+     */
+    private static final long WARMUP_TIMEOUT = 3000;
+
+    private final ExchangeClient[] clients;
+
+    /**
+     * 慢启动的开始时间与窗口(ms)
+     */
+    private final long slowStartBegin;
+
+    private final int slowStartWindow;
+
+    /**
+     * 慢启动窗口已过, 之后不再计算比例
+     */
+    private volatile boolean warm;
+
+    private final AtomicPositiveInteger index = new AtomicPositiveInteger();
+
+    /**
+     * 第 i 个连接是否绑定第 i 个服务端 IO 线程
+     */
+    private final boolean eventLoopAffinity;
+
+    /**
+     * 各上游连接上转发中的请求数, 由 {@link DubboProxyInFlightTable} 登记与移出请求时维护
+     */
+    private final AtomicInteger forwarding = new AtomicInteger();
+
+    DubboProxyInvoker(
+            Class<T> serviceType,
+            URL url,
+            ExchangeClient[] clients,
+            Set<Invoker<?>> invokers,
+            boolean eventLoopAffinity
+    ) {
+        super(serviceType, url, clients, invokers);
+        this.clients = clients;
+        this.eventLoopAffinity = eventLoopAffinity;
+        long now = System.currentTimeMillis();
+        long registered = url.getParameter(REMOTE_TIMESTAMP_KEY, 0L);
+        this.slowStartBegin = registered > 0 ? Math.min(registered, now) : now;
+        this.slowStartWindow = url.getParameter(SLOW_START_WINDOW_KEY, DEFAULT_SLOW_START_WINDOW);
+        this.warm = slowStartWindow <= 0 || now - slowStartBegin >= slowStartWindow;
+    }
+
+    /**
+     * 慢启动期间按上线时长占窗口的比例随机接收请求, 未接收的请求由路由交给下一个上游
+     *
+     * @return 是否接收这次转发
+     */
+    boolean admit() {
+        if (warm) {
+            return true;
+        }
+        long elapsed = System.currentTimeMillis() - slowStartBegin;
+        if (elapsed >= slowStartWindow) {
+            warm = true;
+            return true;
+        }
+        double ratio = Math.max(MIN_SLOW_START_RATIO, (double) elapsed / slowStartWindow);
+        return ThreadLocalRandom.current().nextDouble() < ratio;
+    }
+
+    /**
+     * 加入转发路由前在每个上游连接上发出心跳请求, 预热连接与上游的 IO 线程.
+     * 上游转发连接只能编码 payload 请求, 无法构造业务调用, 因此以心跳代替.
+     * <p>
+     * 按轮发出: 每轮在所有连接上各发出一个心跳, 所有连接都收到这一轮的响应后再开始下一轮, 直到每个连接收到
+     * requests 个响应或超过 {@link #WARMUP_TIMEOUT}. 每个心跳与普通请求一样由 {@link DefaultFuture} 按请求 id 等待响应
+     *
+     * @param requests 每个连接上的心跳请求数
+     */
+    void warmup(int requests) {
+        long begin = System.currentTimeMillis();
+        long deadline = begin + WARMUP_TIMEOUT;
+        int rounds = 0;
+        DefaultFuture[] futures = new DefaultFuture[clients.length];
+        try {
+            while (rounds < requests && sendHeartbeats(futures, deadline) && awaitReplies(futures, deadline)) {
+                rounds++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (DefaultFuture future : futures) {
+                if (future != null && !future.isDone()) {
+                    future.cancel();
+                }
+            }
+        }
+        long elapsed = System.currentTimeMillis() - begin;
+        if (rounds < requests) {
+            logger.warn("Warm up " + getUrl().getAddress() + " of " + getUrl().getServiceKey() + " stopped after "
+                    + rounds * clients.length + " of " + requests * clients.length + " heartbeat replies in "
+                    + elapsed + " ms");
+        } else {
+            logger.info("Warmed up " + getUrl().getAddress() + " of " + getUrl().getServiceKey() + " with "
+                    + rounds * clients.length + " heartbeat replies in " + elapsed + " ms");
+        }
+    }
+
+    /**
+     * HeaderExchangeClient#request 会把参数包装为新请求的数据, 无法发出心跳事件, 因此与它一样先登记 future 再发出
+     *
+     * @param futures  这一轮各连接上心跳的 future
+     * @param deadline 预热截止时间
+     * @return 是否在所有连接上都已发出
+     */
+    private boolean sendHeartbeats(DefaultFuture[] futures, long deadline) {
+        int timeout = (int) (deadline - System.currentTimeMillis());
+        if (timeout <= 0) {
+            return false;
+        }
+        for (int i = 0; i < clients.length; i++) {
+            ExchangeClient client = clients[i];
+            Request req = new Request();
+            req.setVersion(Version.getProtocolVersion());
+            req.setTwoWay(true);
+            req.setEvent(Request.HEARTBEAT_EVENT);
+            futures[i] = DefaultFuture.newFuture(client, req, timeout);
+            try {
+                client.send(req);
+            } catch (RemotingException e) {
+                logger.warn("Send warmup heartbeat to " + client.getRemoteAddress() + " failed, cause: "
+                        + e.getMessage(), e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param futures  这一轮各连接上心跳的 future
+     * @param deadline 预热截止时间
+     * @return 是否所有连接都收到了响应
+     */
+    private boolean awaitReplies(DefaultFuture[] futures, long deadline) throws InterruptedException {
+        for (DefaultFuture future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 连接绑定服务端 IO 线程时选择与当前 IO 线程相同的连接, 其它情况与 {@link DubboInvoker#doInvoke} 相同的方式轮询选择连接
+     *
+     * @return 上游连接
+     */
+    ExchangeClient selectClient() {
+        if (eventLoopAffinity) {
+            int i = DubboProxyEventLoops.currentIndex();
+            if (i >= 0 && i < clients.length) {
+                return clients[i];
+            }
+        }
+        if (clients.length == 1) {
+            return clients[0];
+        }
+        return clients[index.getAndIncrement() % clients.length];
+    }
+
+    ExchangeClient[] getClients() {
+        return clients;
+    }
+
+    AtomicInteger getForwarding() {
+        return forwarding;
+    }
+
+    @Override
+    public void destroy() {
+        DubboProxyForwarder.getInstance().removeUpstream(this);
+        DubboProxyDrain.unregister(this);
+        super.destroy();
+    }
+}
@@ -0,0 +1,135 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.RemotingException;
+import org.apache.dubbo.remoting.exchange.ExchangeChannel;
+import org.apache.dubbo.remoting.exchange.ExchangeHandler;
+import org.apache.dubbo.remoting.exchange.Response;
+import org.apache.dubbo.remoting.exchange.support.header.HeaderExchangeHandler;
+import org.apache.dubbo.rpc.Result;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 包装 DubboProtocol 的 ExchangeHandler, 登记尚未写出的响应 payload
+ * <p>
+ * 经过调用链的响应 payload 持有上游帧的切片, 正常情况下编码时释放. SDK 连接关闭后 {@link HeaderExchangeHandler}
+ * 发送失败只打印日志, 响应不会被编码, 因此连接断开时释放该连接上所有尚未写出的 payload.
+ * 直接转发的响应在 {@link DubboProxyForwarder} 中发送失败时释放, 不需要登记
+ */
+class DubboProxyReplyHandler implements ExchangeHandler {
+
+    /**
+     * <SDK 连接, 尚未写出的 payload>, HeaderExchangeChannel 按底层连接判断相等
+     */
+    private static final ConcurrentMap<Channel, Pending> PENDING = new ConcurrentHashMap<>();
+
+    private final ExchangeHandler handler;
+
+    DubboProxyReplyHandler(ExchangeHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public CompletableFuture<Object> reply(ExchangeChannel channel, Object request) throws RemotingException {
+        return handler.reply(channel, request).thenApply(value -> {
+            DubboProxyPayload payload = getPayload(value);
+            if (payload != null) {
+                Pending pending = PENDING.computeIfAbsent(channel, key -> new Pending());
+                // 连接在登记之前或登记期间断开时, 响应不会再写出
+                if (!pending.add(payload) || !channel.isConnected()) {
+                    release(channel);
+                    payload.release();
+                }
+            }
+            return value;
+        });
+    }
+
+    @Override
+    public void connected(Channel channel) throws RemotingException {
+        handler.connected(channel);
+    }
+
+    @Override
+    public void disconnected(Channel channel) throws RemotingException {
+        try {
+            handler.disconnected(channel);
+        } finally {
+            release(channel);
+        }
+    }
+
+    @Override
+    public void sent(Channel channel, Object message) throws RemotingException {
+        // 写出时已经过编码, payload 由编码释放
+        if (message instanceof Response) {
+            DubboProxyPayload payload = getPayload(((Response) message).getResult());
+            Pending pending = payload == null ? null : PENDING.get(channel);
+            if (pending != null) {
+                pending.remove(payload);
+            }
+        }
+        handler.sent(channel, message);
+    }
+
+    @Override
+    public void received(Channel channel, Object message) throws RemotingException {
+        handler.received(channel, message);
+    }
+
+    @Override
+    public void caught(Channel channel, Throwable exception) throws RemotingException {
+        handler.caught(channel, exception);
+    }
+
+    @Override
+    public String telnet(Channel channel, String message) throws RemotingException {
+        return handler.telnet(channel, message);
+    }
+
+    private static void release(Channel channel) {
+        Pending pending = PENDING.remove(channel);
+        if (pending != null) {
+            pending.close();
+        }
+    }
+
+    private static DubboProxyPayload getPayload(Object value) {
+        if (value instanceof Result && !((Result) value).hasException()) {
+            Object payload = ((Result) value).getValue();
+            if (payload instanceof DubboProxyPayload) {
+                return (DubboProxyPayload) payload;
+            }
+        }
+        return null;
+    }
+
+    private static final class Pending {
+
+        private final Set<DubboProxyPayload> payloads = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private boolean closed;
+
+        private synchronized boolean add(DubboProxyPayload payload) {
+            return !closed && payloads.add(payload);
+        }
+
+        private synchronized void remove(DubboProxyPayload payload) {
+            payloads.remove(payload);
+        }
+
+        private synchronized void close() {
+            closed = true;
+            for (DubboProxyPayload payload : payloads) {
+                payload.release();
+            }
+            payloads.clear();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.rpc.Invoker;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 服务已缓存的路由结果, 由注册中心目录提供.
+ * <p>
+ * 直接转发的请求不经过调用链, 只在目录已经为同一方法与路由 attachment 缓存了路由结果时转发到其中的上游,
+ * 路由规则、配置覆盖与禁用状态因此与调用链一致. 没有缓存时请求交给调用链, 调用链路由后即写入缓存
+ */
+public interface DubboProxyRouteCache {
+
+    /**
+     * @param method      方法名
+     * @param attachments 请求 attachments, 只读取参与路由的 key
+     * @param resolver    将路由结果转换为转发使用的形式, 每份路由结果只转换一次并与其一同缓存
+     * @param <R>         转换结果类型, 同一个缓存只使用同一种转换
+     * @return 转换后的路由结果; 没有缓存的路由结果、服务被禁用或存在每次调用都要执行的路由规则时为 null
+     */
+    <R> R getCachedRoute(String method, Map<String, String> attachments,
+                         Function<List<? extends Invoker<?>>, R> resolver);
+
+}
@@ -1,32 +1,33 @@
 package org.apache.dubbo.rpc.protocol.dubbo;
 
-import com.alibaba.com.caucho.hessian.io.Hessian2Output;
+import io.netty.buffer.ByteBuf;
+import org.apache.dubbo.common.URL;
 import org.apache.dubbo.common.io.Bytes;
+import org.apache.dubbo.common.io.StreamUtils;
 import org.apache.dubbo.common.io.UnsafeByteArrayInputStream;
 import org.apache.dubbo.common.logger.Logger;
 import org.apache.dubbo.common.logger.LoggerFactory;
 import org.apache.dubbo.common.serialize.Cleanable;
 import org.apache.dubbo.common.serialize.ObjectInput;
 import org.apache.dubbo.common.serialize.ObjectOutput;
-import org.apache.dubbo.common.serialize.hessian2.Hessian2ObjectOutput;
 import org.apache.dubbo.common.utils.Assert;
-import org.apache.dubbo.common.utils.IOUtils;
 import org.apache.dubbo.common.utils.StringUtils;
 import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.buffer.ChannelBuffer;
+import org.apache.dubbo.remoting.buffer.ChannelBufferOutputStream;
 import org.apache.dubbo.remoting.exchange.Request;
 import org.apache.dubbo.remoting.exchange.Response;
 import org.apache.dubbo.remoting.transport.CodecSupport;
+import org.apache.dubbo.remoting.transport.ExceedPayloadLimitException;
+import org.apache.dubbo.remoting.transport.dispatcher.all.AllDispatcher;
+import org.apache.dubbo.remoting.transport.dispatcher.direct.DirectDispatcher;
+import org.apache.dubbo.remoting.transport.netty4.DubboProxyChannelBuffer;
 import org.apache.dubbo.rpc.Invocation;
 import org.apache.dubbo.rpc.Result;
 import org.apache.dubbo.rpc.RpcInvocation;
-import org.springframework.util.ReflectionUtils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -35,17 +36,22 @@ import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
 import static org.apache.dubbo.common.constants.CommonConstants.METHOD_KEY;
 import static org.apache.dubbo.common.constants.CommonConstants.PATH_KEY;
 import static org.apache.dubbo.common.constants.CommonConstants.VERSION_KEY;
+import static org.apache.dubbo.remoting.Constants.DISPATCHER_KEY;
 import static org.apache.dubbo.remoting.Constants.DUBBO_VERSION_KEY;
 import static org.apache.dubbo.rpc.protocol.dubbo.Constants.DECODE_IN_IO_THREAD_KEY;
 import static org.apache.dubbo.rpc.protocol.dubbo.Constants.DEFAULT_DECODE_IN_IO_THREAD;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.FRAME_FLAG_ATTACHMENT_TABLE;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.FRAME_FLAG_RAW_PAYLOAD;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.FRAME_FLAG_SERVICE_ID;
 import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.METHOD_PARAM_TYPES;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.PAYLOAD_OFFSET_LENGTH;
 
 /**
  * DubboProxy服务端Codec
  */
 public class DubboProxyServerCodec extends AbstractDubboProxyCodec {
 
-    private static final Class[] PROXY_REQ_PARAM_TYPES = new Class[]{Map.class, Map.class, byte[].class};
+    private static final Class[] PROXY_REQ_PARAM_TYPES = new Class[]{DubboProxyPayload.class, Map.class, Map.class};
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DubboProxyServerCodec.class);
 
@@ -64,24 +70,58 @@ public class DubboProxyServerCodec extends AbstractDubboProxyCodec {
 
         final byte flag = header[2];
         final byte proto = (byte) (flag & SERIALIZATION_MASK);
+        final boolean rawPayload = (header[3] & FRAME_FLAG_RAW_PAYLOAD) != 0;
+
+        // 新帧格式的 payload offset, 服务 id 与动态表编码的 attachments 在IO线程中读取, 连接上的表与帧顺序一致
+        final int headerLength;
+        final DubboProxyServiceDescriptor service;
+        final Map<String, String> tableAttachments;
+        if (rawPayload) {
+            int bodyLength = is.available();
+            int payloadOffset = readPayloadOffset(is);
+            try {
+                service = (header[3] & FRAME_FLAG_SERVICE_ID) != 0 ? DubboProxyServiceTable.of(channel).read(is) : null;
+                tableAttachments = (header[3] & FRAME_FLAG_ATTACHMENT_TABLE) != 0
+                        ? DubboProxyAttachmentTable.of(channel).decode(is)
+                        : null;
+            } catch (IOException e) {
+                throw new DubboProxyTableException("Read service id or attachment table failed: " + e.getMessage(), e);
+            }
+            headerLength = payloadOffset - (bodyLength - is.available());
+        } else {
+            headerLength = -1;
+            service = null;
+            tableAttachments = null;
+        }
+
         class PayloadRpcInvocation extends DecodeableRpcInvocation {
 
+            private final InputStream input;
+
+            /**
+             * 零拷贝模式下延迟解码时持有的 body 引用
+             */
+            private final ByteBuf body;
+
             private volatile boolean hasDecoded;
 
             private PayloadRpcInvocation(
                     Channel channel,
                     Request request,
                     InputStream is,
+                    ByteBuf body,
                     byte id
             ) {
                 super(channel, request, is, id);
+                this.input = is;
+                this.body = body;
             }
 
             @Override
             public void decode() {
                 if (!hasDecoded) {
                     try {
-                        decode(channel, is);
+                        decode(channel, input);
                     } catch (Throwable e) {
                         if (LOGGER.isWarnEnabled()) {
                             LOGGER.warn("Decode rpc invocation failed: " + e.getMessage(), e);
@@ -90,27 +130,46 @@ public class DubboProxyServerCodec extends AbstractDubboProxyCodec {
                         req.setData(e);
                     } finally {
                         hasDecoded = true;
+                        if (body != null) {
+                            body.release();
+                        }
                     }
                 }
             }
 
             @Override
             public Object decode(Channel channel, InputStream input) throws IOException {
-                ObjectInput in = CodecSupport.getSerialization(channel.getUrl(), proto)
-                        .deserialize(channel.getUrl(), input);
-                String dubboVersion = in.readUTF();
-                req.setVersion(dubboVersion);
+                // 新帧格式下 proxy header 之后即为 payload 原始字节, 限制反序列化的读取范围
+                InputStream headerInput = input;
+                if (rawPayload) {
+                    headerInput = StreamUtils.limitedInputStream(input, headerLength);
+                }
+                // 服务 id 与动态表同时使用时没有需要反序列化的 proxy header
+                ObjectInput in = headerLength == 0 ? null : CodecSupport.getSerialization(channel.getUrl(), proto)
+                        .deserialize(channel.getUrl(), headerInput);
                 try {
-                    Map<String, Object> headers = new HashMap<>();
-                    headers.put(DUBBO_VERSION_KEY, dubboVersion);
-                    headers.put(PATH_KEY, in.readUTF());
-                    headers.put(VERSION_KEY, in.readUTF());
-                    headers.put(GROUP_KEY, in.readUTF());
-                    headers.put(METHOD_KEY, in.readUTF());
-                    headers.put(METHOD_PARAM_TYPES, in.readUTF());
+                    // 已登记的服务共享同一份 headers
+                    String dubboVersion;
+                    Map<String, Object> headers;
+                    if (service != null) {
+                        dubboVersion = service.getDubboVersion();
+                        headers = service.getHeaders();
+                    } else {
+                        dubboVersion = in.readUTF();
+                        headers = new HashMap<>();
+                        headers.put(DUBBO_VERSION_KEY, dubboVersion);
+                        headers.put(PATH_KEY, in.readUTF());
+                        headers.put(VERSION_KEY, in.readUTF());
+                        headers.put(GROUP_KEY, in.readUTF());
+                        headers.put(METHOD_KEY, in.readUTF());
+                        headers.put(METHOD_PARAM_TYPES, in.readUTF());
+                    }
+                    req.setVersion(dubboVersion);
 
                     //noinspection unchecked
-                    Map<String, String> map = (Map<String, String>) in.readObject(Map.class);
+                    Map<String, String> map = tableAttachments != null
+                            ? tableAttachments
+                            : (Map<String, String>) in.readObject(Map.class);
                     Map<String, String> attachments = Optional
                             .ofNullable(getAttachments())
                             .orElse(new HashMap<>());
@@ -125,7 +184,7 @@ public class DubboProxyServerCodec extends AbstractDubboProxyCodec {
                     setParameterTypes(PROXY_REQ_PARAM_TYPES);
 
                     // 解析request payload
-                    setArguments(new Object[]{in.readBytes(), headers, attachments});
+                    setArguments(new Object[]{readPayload(in, input), headers, attachments});
                 } catch (ClassNotFoundException e) {
                     throw new IOException(StringUtils.toString("Read invocation data failed.", e));
                 } finally {
@@ -135,19 +194,62 @@ public class DubboProxyServerCodec extends AbstractDubboProxyCodec {
                 }
                 return this;
             }
+
+            private DubboProxyPayload readPayload(ObjectInput in, InputStream input) throws IOException {
+                // SDK 的 payload 与 proxy header 使用相同的序列化
+                if (!rawPayload) {
+                    return DubboProxyPayload.wrap(in.readBytes(), proto);
+                }
+                if (input instanceof DubboProxyFrameInputStream) {
+                    return DubboProxyPayload.of(
+                            ((DubboProxyFrameInputStream) input).readRetainedSlice(input.available()), proto);
+                }
+                return DubboProxyPayload.wrap(readMessageData(input), proto);
+            }
         }
 
         PayloadRpcInvocation inv;
         if (channel.getUrl().getParameter(DECODE_IN_IO_THREAD_KEY, DEFAULT_DECODE_IN_IO_THREAD)) {
-            inv = new PayloadRpcInvocation(channel, req, is, proto);
+            inv = new PayloadRpcInvocation(channel, req, is, null, proto);
             inv.decode();
+        } else if (is instanceof DubboProxyFrameInputStream && isDirectDispatch(channel)) {
+            // direct 派发时 DecodeHandler 在同一 IO 线程中随即解码, 保留 body 引用不再拷贝.
+            // 其它派发方式下请求可能在解码前被线程池拒绝或丢弃, body 引用无人释放, 因此拷贝
+            ByteBuf body = ((DubboProxyFrameInputStream) is).readRetainedSlice(is.available());
+            inv = new PayloadRpcInvocation(channel, req, new DubboProxyFrameInputStream(body), body, proto);
         } else {
             inv = new PayloadRpcInvocation(channel, req,
-                    new UnsafeByteArrayInputStream(readMessageData(is)), proto);
+                    new UnsafeByteArrayInputStream(readMessageData(is)), null, proto);
         }
         return inv;
     }
 
+    /**
+     * Proxy -> Server 请求编码
+     * <p>
+     * payload 不经过序列化输出流, 帧 header 中的序列化 id 取自 payload, 代理不需要支持 payload 的序列化.
+     * 底层为 {@link DubboProxyChannelBuffer} 时 payload 直接追加到帧末尾
+     */
+    @Override
+    protected void encodeRequest(Channel channel, ChannelBuffer buffer, Request req) throws IOException {
+        if (req.isEvent()) {
+            super.encodeRequest(channel, buffer, req);
+            return;
+        }
+        DubboProxyPayload payload = getRequestPayload((RpcInvocation) req.getData());
+        byte[] header = new byte[HEADER_LENGTH];
+        Bytes.short2bytes(MAGIC, header);
+        header[2] = (byte) (FLAG_REQUEST | getSerializationId(channel, payload));
+        if (req.isTwoWay()) {
+            header[2] |= FLAG_TWOWAY;
+        }
+        Bytes.long2bytes(req.getId(), header, 4);
+        writeFrame(channel, buffer, header, payload);
+    }
+
+    /**
+     * 业务请求都由 {@link #encodeRequest} 直接写出 payload, 不会经过序列化输出流
+     */
     @Override
     protected void encodeRequestBody(
             Channel channel,
@@ -155,13 +257,7 @@ public class DubboProxyServerCodec extends AbstractDubboProxyCodec {
             RpcInvocation inv,
             String version
     ) throws IOException {
-        byte[] requestPayload = (byte[]) ((Object[]) inv.getArguments()[2])[0];
-        if (out instanceof Hessian2ObjectOutput) {
-            write((Hessian2ObjectOutput) out, requestPayload);
-        } else {
-            throw new IOException("DubboProxyClient#encodeRequestData dose not support serialization type="
-                    + out.getClass().getName());
-        }
+        throw new IOException("Proxy request payload is written by encodeRequest, not through " + out.getClass().getName());
     }
 
     @Override
@@ -173,35 +269,9 @@ public class DubboProxyServerCodec extends AbstractDubboProxyCodec {
     ) throws Exception {
         byte flag = header[2], proto = (byte) (flag & SERIALIZATION_MASK);
         long id = Bytes.bytes2long(header, 4);
+        Invocation invocation = (Invocation) getRequestData(id);
 
-        // 流拷贝一份，使用所有的 byte[] 作为 value 的 payload
-        class ForkedInputStream extends InputStream {
-
-            private final InputStream innerDelegate;
-
-            private final byte[] allBytes;
-
-            private ForkedInputStream(InputStream delegate) throws IOException {
-                try (ByteArrayOutputStream out = new ByteArrayOutputStream(delegate.available())) {
-                    IOUtils.write(delegate, out);
-                    out.flush();
-                    allBytes = out.toByteArray();
-                    innerDelegate = new ByteArrayInputStream(allBytes);
-                }
-            }
-
-            private byte[] getAllBytes() {
-                return allBytes;
-            }
-
-            @Override
-            public int read() throws IOException {
-                return innerDelegate.read();
-            }
-        }
-        ForkedInputStream forkInput = new ForkedInputStream(is);
-
-        // value 为 payload 的返回值对象
+        // value 为 payload 的返回值对象, 整个 body 原样转发给 SDK
         class PayloadRpcResult extends DecodeableRpcResult {
             private PayloadRpcResult(
                     Channel channel,
@@ -214,23 +284,62 @@ public class DubboProxyServerCodec extends AbstractDubboProxyCodec {
             }
 
             @Override
-            public Object decode(Channel channel, InputStream input) {
-                setValue(forkInput.getAllBytes());
+            public Object decode(Channel channel, InputStream input) throws IOException {
+                // 请求已超时的响应会被丢弃, 不再从帧上切片, 避免引用无人释放
+                boolean pending = invocation != null || DubboProxyForwarder.getInstance().isPending(channel, id);
+                if (input instanceof DubboProxyFrameInputStream && pending) {
+                    setValue(DubboProxyPayload.of(
+                            ((DubboProxyFrameInputStream) input).readRetainedSlice(input.available()), proto));
+                } else {
+                    setValue(DubboProxyPayload.wrap(readMessageData(input), proto));
+                }
                 return this;
             }
         }
 
-        DecodeableRpcResult result;
-        if (channel.getUrl().getParameter(DECODE_IN_IO_THREAD_KEY, DEFAULT_DECODE_IN_IO_THREAD)) {
-            result = new PayloadRpcResult(channel, res, forkInput, (Invocation) getRequestData(id), proto);
-            result.decode();
-        } else {
-            result = new PayloadRpcResult(channel, res,
-                    new UnsafeByteArrayInputStream(readMessageData(forkInput)), (Invocation) getRequestData(id), proto);
-        }
+        // body 不需要反序列化, 始终在IO线程中完成切片
+        DecodeableRpcResult result = new PayloadRpcResult(channel, res, is, invocation, proto);
+        result.decode();
         return result;
     }
 
+    /**
+     * Proxy -> SDK 响应编码
+     * <p>
+     * provider 返回的 body 原样转发, 序列化 id 沿用 provider 的响应. 底层为 {@link DubboProxyChannelBuffer} 时
+     * body 直接追加到帧末尾. 无论编码是否成功 payload 都在此释放, 超过大小限制时向 SDK 返回 BAD_RESPONSE
+     */
+    @Override
+    protected void encodeResponse(Channel channel, ChannelBuffer buffer, Response res) throws IOException {
+        DubboProxyPayload payload = getResponsePayload(res);
+        if (payload == null) {
+            super.encodeResponse(channel, buffer, res);
+            return;
+        }
+        byte[] header = new byte[HEADER_LENGTH];
+        Bytes.short2bytes(MAGIC, header);
+        header[2] = getSerializationId(channel, payload);
+        header[3] = res.getStatus();
+        Bytes.long2bytes(res.getId(), header, 4);
+        Response badResponse;
+        try {
+            writeFrame(channel, buffer, header, payload);
+            return;
+        } catch (ExceedPayloadLimitException e) {
+            // 与 ExchangeCodec 相同, 超过大小限制的响应改为 BAD_RESPONSE, 此时 buffer 中尚未写入任何内容
+            LOGGER.warn(e.getMessage(), e);
+            badResponse = new Response(res.getId(), res.getVersion());
+            badResponse.setStatus(Response.BAD_RESPONSE);
+            badResponse.setErrorMessage(e.getMessage());
+        } finally {
+            payload.release();
+        }
+        super.encodeResponse(channel, buffer, badResponse);
+    }
+
+    /**
+     * payload 响应由 {@link #encodeResponse} 直接写出, 只有异常等其它结果经过序列化输出流
+     */
     @Override
     protected void encodeResponseBody(
             Channel channel,
@@ -238,31 +347,70 @@ public class DubboProxyServerCodec extends AbstractDubboProxyCodec {
             Result result,
             String version
     ) throws IOException {
-        if (result.hasException()) {
-            dubboCodec.encodeResponseData(channel, out, result, version);
-        } else if (out instanceof Hessian2ObjectOutput) {
-            byte[] responsePayload = (byte[]) result.getValue();
-            write((Hessian2ObjectOutput) out, responsePayload);
-        } else {
-            throw new IOException("DubboProxyClient#encodeResponseData dose not support serialization type="
-                    + out.getClass().getName());
-        }
+        dubboCodec.encodeResponseData(channel, out, result, version);
         out.flushBuffer();
     }
 
-    private void write(Hessian2ObjectOutput out, byte[] data) throws IOException {
-        try {
-            Field mH2o = Hessian2ObjectOutput.class.getDeclaredField("mH2o");
-            ReflectionUtils.makeAccessible(mH2o);
-            Hessian2Output hessian2Output = (Hessian2Output) ReflectionUtils.getField(mH2o, out);
-
-            Field os = Hessian2Output.class.getDeclaredField("_os");
-            ReflectionUtils.makeAccessible(os);
-            OutputStream internalOutput = (OutputStream) ReflectionUtils.getField(os, hessian2Output);
-            internalOutput.write(data);
-            internalOutput.flush();
-        } catch (NoSuchFieldException e) {
-            throw new IOException(e);
+    /**
+     * @return 是否以 direct 方式派发, 与 {@link org.apache.dubbo.remoting.Dispatcher} 的自适应扩展取相同的参数
+     */
+    private static boolean isDirectDispatch(Channel channel) {
+        URL url = channel.getUrl();
+        String dispatcher = url.getParameter(DISPATCHER_KEY,
+                url.getParameter("dispather", url.getParameter("channel.handler", AllDispatcher.NAME)));
+        return DirectDispatcher.NAME.equals(dispatcher);
+    }
+
+    /**
+     * @return payload 的序列化 id, 未知时为连接配置的序列化 id
+     */
+    private byte getSerializationId(Channel channel, DubboProxyPayload payload) {
+        byte id = payload.getSerializationId();
+        return id != DubboProxyPayload.UNKNOWN_SERIALIZATION_ID ? id : getSerialization(channel).getContentTypeId();
+    }
+
+    private static int readPayloadOffset(InputStream is) throws IOException {
+        byte[] offset = new byte[PAYLOAD_OFFSET_LENGTH];
+        if (is.read(offset) != PAYLOAD_OFFSET_LENGTH) {
+            throw new IOException("Read payload offset failed.");
+        }
+        return Bytes.bytes2int(offset);
+    }
+
+    private static DubboProxyPayload getRequestPayload(RpcInvocation inv) {
+        Object[] args = inv.getArguments();
+        // 直接转发的参数为 {payload, headers, attachments}, 泛化调用的参数为 {method, types, {payload}}
+        if (args[0] instanceof DubboProxyPayload) {
+            return (DubboProxyPayload) args[0];
+        }
+        return (DubboProxyPayload) ((Object[]) args[2])[0];
+    }
+
+    private static DubboProxyPayload getResponsePayload(Response res) {
+        if (res.isEvent() || res.getStatus() != Response.OK || !(res.getResult() instanceof Result)) {
+            return null;
+        }
+        Result result = (Result) res.getResult();
+        if (result.hasException() || !(result.getValue() instanceof DubboProxyPayload)) {
+            return null;
+        }
+        return (DubboProxyPayload) result.getValue();
+    }
+
+    private void writeFrame(
+            Channel channel,
+            ChannelBuffer buffer,
+            byte[] header,
+            DubboProxyPayload payload
+    ) throws IOException {
+        int len = payload.length();
+        checkPayload(channel, len);
+        Bytes.int2bytes(len, header, 12);
+        buffer.writeBytes(header);
+        if (buffer instanceof DubboProxyChannelBuffer) {
+            ((DubboProxyChannelBuffer) buffer).append(payload.retainedBuffer());
+        } else {
+            payload.writeTo(new ChannelBufferOutputStream(buffer));
         }
     }
 }
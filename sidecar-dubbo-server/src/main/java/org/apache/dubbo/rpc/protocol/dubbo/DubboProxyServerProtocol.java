@@ -1,5 +1,11 @@
 package org.apache.dubbo.rpc.protocol.dubbo;
 
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.DEFAULT_SLOW_START_WARMUP;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SLOW_START_WARMUP_KEY;
+
 /**
  * @author chpengzh@foxmail.com
  * @date 7/6/21 10:21
@@ -8,9 +14,55 @@ public class DubboProxyServerProtocol extends AbstractDubboProxyProtocol {
 
     public static final String NAME = "dubbo-proxy-server";
 
+    /**
+     * @param serviceKey 服务 key, 与 {@link URL#buildKey(String, String, String)} 相同
+     * @return 该服务最近一次直接转发请求的时间, 没有转发过时为 0
+     */
+    public static long getLastForwardTime(String serviceKey) {
+        return DubboProxyForwarder.getInstance().getLastForwardTime(serviceKey);
+    }
+
+    /**
+     * 登记服务的路由结果缓存, 直接转发的请求只转发到缓存的路由结果中.
+     * 同一服务登记了多个缓存(如多注册中心)时无法确定使用哪一个, 请求都交给调用链
+     *
+     * @param serviceKey 服务 key, 与 {@link URL#buildKey(String, String, String)} 相同
+     * @param cache      路由结果缓存
+     */
+    public static void addRouteCache(String serviceKey, DubboProxyRouteCache cache) {
+        DubboProxyForwarder.getInstance().addRouteCache(serviceKey, cache);
+    }
+
+    /**
+     * @param serviceKey 服务 key
+     * @param cache      已登记的路由结果缓存
+     */
+    public static void removeRouteCache(String serviceKey, DubboProxyRouteCache cache) {
+        DubboProxyForwarder.getInstance().removeRouteCache(serviceKey, cache);
+    }
+
     @Override
     protected String getCodecName() {
         return NAME;
     }
 
+    /**
+     * 引用的 provider 同时注册为请求转发的上游, 目录路由到该 provider 的请求才会转发给它.
+     * 上游连接按服务端 IO 线程建立时转发请求不跨线程. 下线时由 {@link DubboProxyDrain} 等待转发中的请求完成.
+     * 配置了预热心跳时先预热再注册为上游
+     */
+    @Override
+    protected <T> DubboInvoker<T> createInvoker(Class<T> serviceType, URL url, ExchangeClient[] clients) {
+        int affinity = getEventLoopAffinity(url);
+        DubboProxyInvoker<T> invoker = new DubboProxyInvoker<>(serviceType, url, clients, invokers,
+                affinity > 0 && affinity == clients.length);
+        int warmup = url.getParameter(SLOW_START_WARMUP_KEY, DEFAULT_SLOW_START_WARMUP);
+        if (warmup > 0) {
+            invoker.warmup(warmup);
+        }
+        DubboProxyForwarder.getInstance().addUpstream(invoker);
+        DubboProxyDrain.register(invoker);
+        return invoker;
+    }
+
 }
@@ -0,0 +1,75 @@
+package org.apache.dubbo;
+
+import org.apache.dubbo.config.ReferenceConfig;
+import org.apache.dubbo.rpc.service.GenericService;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DubboMeshReferenceCacheTest {
+
+    private final List<String> destroyed = new CopyOnWriteArrayList<>();
+
+    private final DubboMeshReferenceCache cache = new DubboMeshReferenceCache(TestReference::new, 1,
+            TimeUnit.MINUTES.toMillis(30));
+
+    @Test
+    public void testInFlightReferenceIsNotEvicted() throws Exception {
+        CompletableFuture<Object> pending = new CompletableFuture<>();
+        CountDownLatch called = new CountDownLatch(1);
+        CompletableFuture<Object> first = cache.invoke("com.example.A", "", "", service -> {
+            called.countDown();
+            return pending;
+        });
+        assertTrue(called.await(5, TimeUnit.SECONDS));
+
+        // 超出容量, 但 A 的调用仍在进行中, 只能淘汰 B
+        cache.invoke("com.example.B", "", "", service -> CompletableFuture.completedFuture(null)).get();
+        cache.invoke("com.example.C", "", "", service -> CompletableFuture.completedFuture(null)).get();
+        awaitDestroyed(1);
+        assertEquals("com.example.B", destroyed.get(0));
+
+        pending.complete("done");
+        assertEquals("done", first.get());
+        cache.invoke("com.example.D", "", "", service -> CompletableFuture.completedFuture(null)).get();
+        awaitDestroyed(3);
+        assertFalse(destroyed.contains("com.example.D"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        cache.invoke("com.example.A", "", "", service -> CompletableFuture.completedFuture(null)).get();
+        cache.invoke("com.example.B", "", "", service -> CompletableFuture.completedFuture(null)).get();
+        awaitDestroyed(1);
+        assertEquals("com.example.A", destroyed.get(0));
+    }
+
+    private void awaitDestroyed(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (destroyed.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, destroyed.size());
+    }
+
+    private class TestReference extends ReferenceConfig<GenericService> {
+
+        @Override
+        public synchronized GenericService get() {
+            return (method, parameterTypes, args) -> null;
+        }
+
+        @Override
+        public synchronized void destroy() {
+            destroyed.add(getInterface());
+        }
+    }
+}
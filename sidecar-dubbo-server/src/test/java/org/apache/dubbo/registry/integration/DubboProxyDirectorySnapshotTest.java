@@ -0,0 +1,157 @@
+package org.apache.dubbo.registry.integration;
+
+import org.apache.dubbo.common.URL;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SNAPSHOT_PATH_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SNAPSHOT_SIZE_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class DubboProxyDirectorySnapshotTest {
+
+    private static final String REGISTRY = "zookeeper://127.0.0.1:2181";
+
+    private static final String SERVICE = "com.example.DemoService";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    private DubboProxyDirectorySnapshot snapshot;
+
+    @After
+    public void tearDown() {
+        if (snapshot != null) {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        snapshot = open(4096);
+        snapshot.put(REGISTRY, SERVICE, categories(provider("10.0.0.1"), provider("10.0.0.2")));
+        snapshot.put(REGISTRY, SERVICE, categories(provider("10.0.0.3")));
+
+        DubboProxyDirectorySnapshot reopened = reopen(4096);
+        assertNotSame(snapshot, reopened);
+        snapshot = reopened;
+        assertEquals(Collections.singletonList(provider("10.0.0.3")), snapshot.get(REGISTRY, SERVICE));
+    }
+
+    @Test
+    public void testRecordsArePerRegistry() throws Exception {
+        snapshot = open(4096);
+        String other = "nacos://127.0.0.1:8848";
+        snapshot.put(REGISTRY, SERVICE, categories(provider("10.0.0.1")));
+        snapshot.put(other, SERVICE, categories(provider("10.0.0.2")));
+
+        snapshot = reopen(4096);
+        assertEquals(Collections.singletonList(provider("10.0.0.1")), snapshot.get(REGISTRY, SERVICE));
+        assertEquals(Collections.singletonList(provider("10.0.0.2")), snapshot.get(other, SERVICE));
+    }
+
+    @Test
+    public void testRecordWrittenAfterEndIsIgnored() throws Exception {
+        snapshot = open(4096);
+        snapshot.put(REGISTRY, SERVICE, categories(provider("10.0.0.1")));
+        snapshot.close();
+
+        // 进程在追加记录之后, 更新末尾位置之前退出
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4);
+            raf.seek(raf.readInt());
+            raf.writeInt(64);
+            raf.writeInt(1);
+        }
+        snapshot = reopen(4096);
+        assertEquals(Collections.singletonList(provider("10.0.0.1")), snapshot.get(REGISTRY, SERVICE));
+    }
+
+    @Test
+    public void testCorruptedRecordIsCompacted() throws Exception {
+        snapshot = open(4096);
+        snapshot.put(REGISTRY, SERVICE, categories(provider("10.0.0.1")));
+        int first = end();
+        snapshot = reopen(4096);
+        snapshot.put(REGISTRY, "com.example.OtherService", categories(provider("10.0.0.2")));
+        snapshot.close();
+
+        // 末尾位置已经更新但第二条记录没有落盘, 例如机器掉电
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(first);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        snapshot = open(4096);
+        assertEquals(Collections.singletonList(provider("10.0.0.1")), snapshot.get(REGISTRY, SERVICE));
+        assertTrue(snapshot.get(REGISTRY, "com.example.OtherService").isEmpty());
+
+        // 重写后的文件只有完好的记录, 之后的写入可以正常读回
+        assertEquals(first, end());
+        snapshot.put(REGISTRY, "com.example.OtherService", categories(provider("10.0.0.3")));
+        snapshot = reopen(4096);
+        assertEquals(Collections.singletonList(provider("10.0.0.1")), snapshot.get(REGISTRY, SERVICE));
+        assertEquals(Collections.singletonList(provider("10.0.0.3")),
+                snapshot.get(REGISTRY, "com.example.OtherService"));
+    }
+
+    @Test
+    public void testFullSnapshotIsCompacted() throws Exception {
+        snapshot = open(1024);
+        for (int i = 0; i < 100; i++) {
+            snapshot.put(REGISTRY, SERVICE, categories(provider("10.0.0." + i)));
+        }
+        assertEquals(1024, file.length());
+
+        snapshot = reopen(1024);
+        assertEquals(Collections.singletonList(provider("10.0.0.99")), snapshot.get(REGISTRY, SERVICE));
+    }
+
+    private DubboProxyDirectorySnapshot open(int size) throws Exception {
+        file = new File(folder.getRoot(), "directory.snapshot");
+        return DubboProxyDirectorySnapshot.of(URL.valueOf("consumer://127.0.0.1/" + SERVICE)
+                .addParameter(SNAPSHOT_PATH_KEY, file.getPath())
+                .addParameter(SNAPSHOT_SIZE_KEY, size), REGISTRY);
+    }
+
+    /**
+     * @return 文件头中的末尾位置, 快照打开期间映射的修改已经写入页缓存, 可以直接读文件
+     */
+    private int end() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(4);
+            return raf.readInt();
+        }
+    }
+
+    /**
+     * 模拟进程重启: 关闭后重新打开同一文件
+     */
+    private DubboProxyDirectorySnapshot reopen(int size) throws Exception {
+        snapshot.close();
+        return open(size);
+    }
+
+    private static URL provider(String host) {
+        return URL.valueOf("dubbo://" + host + ":20880/" + SERVICE + "?category=providers");
+    }
+
+    private static Map<String, List<URL>> categories(URL... providers) {
+        Map<String, List<URL>> categories = new LinkedHashMap<>();
+        categories.put("providers", Arrays.asList(providers));
+        return categories;
+    }
+}
@@ -0,0 +1,527 @@
+package org.apache.dubbo.registry.integration;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.config.Environment;
+import org.apache.dubbo.configcenter.ConfigChangeEvent;
+import org.apache.dubbo.configcenter.ConfigChangeType;
+import org.apache.dubbo.configcenter.ConfigurationListener;
+import org.apache.dubbo.configcenter.DynamicConfiguration;
+import org.apache.dubbo.registry.NotifyListener;
+import org.apache.dubbo.registry.Registry;
+import org.apache.dubbo.registry.RegistryService;
+import org.apache.dubbo.rpc.Exporter;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Protocol;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcException;
+import org.apache.dubbo.rpc.RpcInvocation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.apache.dubbo.rpc.cluster.Constants.REFER_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RegistryDirectoryTest {
+
+    private static final String SERVICE = DemoService.class.getName();
+
+    private static final TestDynamicConfiguration CONFIGURATION = new TestDynamicConfiguration();
+
+    private final TestProtocol protocol = new TestProtocol();
+
+    private RegistryDirectory<DemoService> directory;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Environment.getInstance().setDynamicConfiguration(CONFIGURATION);
+    }
+
+    @Before
+    public void setUp() {
+        directory = newDirectory("notify.window=0");
+    }
+
+    @After
+    public void tearDown() {
+        directory.destroy();
+        // 内置路由按服务缓存在工厂中, 规则不能留给之后的用例
+        CONFIGURATION.clear();
+    }
+
+    @Test
+    public void testUnchangedProvidersAreReused() throws Exception {
+        URL a = provider("10.0.0.1");
+        URL b = provider("10.0.0.2");
+        directory.notify(Arrays.asList(a, b));
+        assertTrue(awaitInvokers(2));
+        Object entryA = providerEntry(a);
+        Invoker<DemoService> invokerA = invoker("10.0.0.1");
+        assertNotNull(entryA);
+        assertEquals(2, protocol.referred.size());
+
+        // 相等的 url 不再合并与生成 key, 引用保持不变, 只引用新增的 provider
+        directory.notify(Arrays.asList(URL.valueOf(a.toFullString()), b, provider("10.0.0.3")));
+        assertSame(entryA, providerEntry(a));
+        assertSame(invokerA, invoker("10.0.0.1"));
+        // 已有可用引用时新 provider 由引用线程建好后发布
+        assertTrue(awaitInvokers(3));
+        assertEquals(3, protocol.referred.size());
+    }
+
+    @Test
+    public void testChangedProviderIsReferredAgain() throws Exception {
+        URL a = provider("10.0.0.1");
+        directory.notify(Collections.singletonList(a));
+        Invoker<DemoService> old = awaitInvoker("10.0.0.1", null);
+
+        // 刷新不等待引用, 旧的引用保留到新的引用建好后替换
+        directory.notify(Collections.singletonList(a.addParameter("weight", "50")));
+        Invoker<DemoService> changed = awaitInvoker("10.0.0.1", old);
+        assertNotSame(old, changed);
+        assertEquals("50", changed.getUrl().getParameter("weight"));
+        assertEquals(2, protocol.referred.size());
+        assertTrue(awaitDestroyed(protocol.referred.get(0)));
+        assertFalse(protocol.referred.get(1).destroyed);
+    }
+
+    @Test
+    public void testConfiguratorChangeMergesAgain() throws Exception {
+        URL a = provider("10.0.0.1");
+        directory.notify(Collections.singletonList(a));
+        Object entry = providerEntry(a);
+        Invoker<DemoService> old = awaitInvoker("10.0.0.1", null);
+
+        // 配置变化后缓存的合并结果全部失效, 只通知配置时按缓存的 provider url 重新合并
+        directory.notify(Collections.singletonList(
+                URL.valueOf("override://0.0.0.0/" + SERVICE + "?category=configurators&timeout=1000")));
+        assertNotSame(entry, providerEntry(a));
+        assertEquals("1000", awaitInvoker("10.0.0.1", old).getUrl().getParameter("timeout"));
+        assertEquals(2, protocol.referred.size());
+    }
+
+    @Test
+    public void testSlowProviderIsPublishedOnceReferred() throws Exception {
+        CountDownLatch slow = protocol.block("10.0.0.2");
+        directory.notify(Arrays.asList(provider("10.0.0.1"), provider("10.0.0.2")));
+        // 刷新不等待引用, 建好的引用先发布, 慢的 provider 不阻塞其它 provider
+        assertTrue(awaitInvokers(1));
+        assertNotNull(invoker("10.0.0.1"));
+
+        slow.countDown();
+        assertTrue(awaitInvokers(2));
+        assertNotNull(invoker("10.0.0.2"));
+    }
+
+    @Test
+    public void testRefreshDoesNotWaitForFirstRefer() throws Exception {
+        CountDownLatch slow = protocol.block("10.0.0.1");
+        long start = System.currentTimeMillis();
+        // 目录中还没有 invoker, 刷新也不在目录锁内等待引用
+        directory.notify(Collections.singletonList(provider("10.0.0.1")));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(directory.getInvokers() == null || directory.getInvokers().isEmpty());
+
+        slow.countDown();
+        assertTrue(awaitInvokers(1));
+    }
+
+    @Test
+    public void testFinishedReferIsTakenOverByRefresh() throws Exception {
+        CountDownLatch slow = protocol.block("10.0.0.2");
+        List<URL> urls = Arrays.asList(provider("10.0.0.1"), provider("10.0.0.2"));
+        directory.notify(urls);
+        assertTrue(awaitInvokers(1));
+        synchronized (directory) {
+            // 引用已完成但引用线程拿不到目录锁, 之后的刷新直接接管该引用
+            slow.countDown();
+            Thread referThread;
+            while ((referThread = protocol.threads.get("10.0.0.2")) == null
+                    || referThread.getState() != Thread.State.BLOCKED) {
+                Thread.sleep(1);
+            }
+            directory.notify(urls);
+            assertNotNull(invoker("10.0.0.2"));
+        }
+        Invoker<DemoService> taken = invoker("10.0.0.2");
+        Thread.sleep(50);
+        assertSame(taken, invoker("10.0.0.2"));
+        assertEquals(2, directory.getInvokers().size());
+        assertEquals(2, protocol.referred.size());
+        assertFalse(protocol.referred.get(1).destroyed);
+    }
+
+    @Test
+    public void testProviderRemovedWhileReferringIsDestroyed() throws Exception {
+        CountDownLatch slow = protocol.block("10.0.0.2");
+        directory.notify(Arrays.asList(provider("10.0.0.1"), provider("10.0.0.2")));
+        assertTrue(awaitInvokers(1));
+        directory.notify(Collections.singletonList(provider("10.0.0.1")));
+
+        slow.countDown();
+        TestInvoker removed = protocol.awaitReferred("10.0.0.2");
+        assertTrue(awaitDestroyed(removed));
+        assertEquals(1, directory.getInvokers().size());
+        assertNull(invoker("10.0.0.2"));
+    }
+
+    @Test
+    public void testRoutesAreCachedUntilRuleChanges() throws Exception {
+        directory.notify(Arrays.asList(provider("10.0.0.1"), provider("10.0.0.2")));
+        assertTrue(awaitInvokers(2));
+        Invocation invocation = new RpcInvocation("sayHello", new Class<?>[]{String.class}, new Object[]{"dubbo"});
+        List<Invoker<DemoService>> routed = directory.list(invocation);
+        assertEquals(2, routed.size());
+        assertSame(routed, directory.list(invocation));
+
+        String ruleKey = DynamicConfiguration.getRuleKey(directory.getConsumerUrl()) + ".condition-router";
+        CONFIGURATION.publish(ruleKey, conditionRule(false));
+        List<Invoker<DemoService>> filtered = directory.list(invocation);
+        assertEquals(1, filtered.size());
+        assertEquals("10.0.0.1", filtered.get(0).getUrl().getHost());
+        assertSame(filtered, directory.list(invocation));
+
+        // runtime 规则每次调用都要重新路由
+        CONFIGURATION.publish(ruleKey, conditionRule(true));
+        List<Invoker<DemoService>> runtime = directory.list(invocation);
+        assertEquals(filtered, runtime);
+        assertNotSame(runtime, directory.list(invocation));
+
+        CONFIGURATION.remove(ruleKey);
+        routed = directory.list(invocation);
+        assertEquals(2, routed.size());
+        assertSame(routed, directory.list(invocation));
+    }
+
+    @Test
+    public void testNotificationsAreCoalesced() throws Exception {
+        directory.destroy();
+        directory = newDirectory("notify.window=500", Collections.emptyList());
+        // 同一类目只保留最新的列表, 窗口结束后各类目一起生效
+        directory.notify(Collections.singletonList(provider("10.0.0.1")));
+        directory.notify(Collections.singletonList(provider("10.0.0.2")));
+        directory.notify(Collections.singletonList(
+                URL.valueOf("override://0.0.0.0/" + SERVICE + "?category=configurators&timeout=1000")));
+        assertNull(directory.getInvokers());
+        assertTrue(protocol.referred.isEmpty());
+
+        assertTrue(awaitInvokers(1));
+        assertEquals("1000", invoker("10.0.0.2").getUrl().getParameter("timeout"));
+        assertEquals(1, protocol.referred.size());
+    }
+
+    @Test
+    public void testNotificationsDuringSubscribeAreApplied() {
+        directory.destroy();
+        // 订阅期间注册中心同步推送的列表立即生效, 引用返回时已经有可用的 provider
+        directory = newDirectory("notify.window=200", Collections.singletonList(provider("10.0.0.1")));
+        assertEquals(1, directory.getInvokers().size());
+    }
+
+    private static String conditionRule(boolean runtime) {
+        return "scope: service\n"
+                + "force: true\n"
+                + "runtime: " + runtime + "\n"
+                + "enabled: true\n"
+                + "key: " + SERVICE + "\n"
+                + "conditions:\n"
+                + "  - '=> host = 10.0.0.1'\n";
+    }
+
+    private RegistryDirectory<DemoService> newDirectory(String parameters) {
+        return newDirectory(parameters, Collections.emptyList());
+    }
+
+    private RegistryDirectory<DemoService> newDirectory(String parameters, List<URL> subscribed) {
+        String refer = "interface=" + SERVICE + "&application=test&side=consumer&methods=sayHello&" + parameters;
+        URL registryUrl = URL.valueOf("test://127.0.0.1:2181/" + RegistryService.class.getName())
+                .addParameterAndEncoded(REFER_KEY, refer);
+        RegistryDirectory<DemoService> directory = new RegistryDirectory<>(DemoService.class, registryUrl);
+        directory.setProtocol(protocol);
+        directory.setRegistry(new TestRegistry(registryUrl, subscribed));
+        URL consumerUrl = URL.valueOf("consumer://127.0.0.1/" + SERVICE + "?" + refer);
+        directory.buildRouterChain(consumerUrl);
+        directory.subscribe(consumerUrl);
+        return directory;
+    }
+
+    private static URL provider(String host) {
+        return URL.valueOf("dubbo://" + host + ":20880/" + SERVICE + "?interface=" + SERVICE
+                + "&application=provider&side=provider&methods=sayHello");
+    }
+
+    private Invoker<DemoService> invoker(String host) {
+        List<Invoker<DemoService>> invokers = directory.getInvokers();
+        if (invokers == null) {
+            return null;
+        }
+        for (Invoker<DemoService> invoker : invokers) {
+            if (host.equals(invoker.getUrl().getHost())) {
+                return invoker;
+            }
+        }
+        return null;
+    }
+
+    private Object providerEntry(URL url) throws Exception {
+        Field field = RegistryDirectory.class.getDeclaredField("providerEntries");
+        field.setAccessible(true);
+        return ((Map<?, ?>) field.get(directory)).get(url);
+    }
+
+    /**
+     * @param replaced 等待替换掉的引用, 为 null 时等待第一个引用
+     */
+    private Invoker<DemoService> awaitInvoker(String host, Invoker<DemoService> replaced) throws InterruptedException {
+        Invoker<DemoService> invoker = invoker(host);
+        for (int i = 0; i < 100 && (invoker == null || invoker == replaced); i++) {
+            Thread.sleep(10);
+            invoker = invoker(host);
+        }
+        assertNotNull(invoker);
+        return invoker;
+    }
+
+    private boolean awaitInvokers(int size) throws InterruptedException {
+        for (int i = 0; i < 100 && !hasInvokers(size); i++) {
+            Thread.sleep(10);
+        }
+        return hasInvokers(size);
+    }
+
+    private boolean hasInvokers(int size) {
+        List<Invoker<DemoService>> invokers = directory.getInvokers();
+        return invokers != null && invokers.size() == size;
+    }
+
+    private static boolean awaitDestroyed(TestInvoker invoker) throws InterruptedException {
+        for (int i = 0; i < 100 && !invoker.destroyed; i++) {
+            Thread.sleep(10);
+        }
+        return invoker.destroyed;
+    }
+
+    public interface DemoService {
+
+        String sayHello(String name);
+    }
+
+    static class TestInvoker implements Invoker<DemoService> {
+
+        private final URL url;
+
+        private volatile boolean destroyed;
+
+        TestInvoker(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public Class<DemoService> getInterface() {
+            return DemoService.class;
+        }
+
+        @Override
+        public Result invoke(Invocation invocation) throws RpcException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public URL getUrl() {
+            return url;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return !destroyed;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+
+    static class TestProtocol implements Protocol {
+
+        private final List<TestInvoker> referred = new CopyOnWriteArrayList<>();
+
+        // <host, latch> refer 阻塞到 latch 释放, 模拟连接较慢的 provider
+        private final Map<String, CountDownLatch> blocked = new ConcurrentHashMap<>();
+
+        private final Map<String, Thread> threads = new ConcurrentHashMap<>();
+
+        CountDownLatch block(String host) {
+            CountDownLatch latch = new CountDownLatch(1);
+            blocked.put(host, latch);
+            return latch;
+        }
+
+        TestInvoker awaitReferred(String host) throws InterruptedException {
+            for (int i = 0; i < 100; i++) {
+                for (TestInvoker invoker : referred) {
+                    if (host.equals(invoker.getUrl().getHost())) {
+                        return invoker;
+                    }
+                }
+                Thread.sleep(10);
+            }
+            throw new AssertionError(host + " is not referred");
+        }
+
+        @Override
+        public int getDefaultPort() {
+            return 20880;
+        }
+
+        @Override
+        public <T> Exporter<T> export(Invoker<T> invoker) throws RpcException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> Invoker<T> refer(Class<T> type, URL url) throws RpcException {
+            threads.put(url.getHost(), Thread.currentThread());
+            CountDownLatch latch = blocked.get(url.getHost());
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new RpcException(e);
+                }
+            }
+            TestInvoker invoker = new TestInvoker(url);
+            referred.add(invoker);
+            return (Invoker<T>) invoker;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    /**
+     * 按注册顺序通知监听的配置中心, 路由的监听先于目录注册
+     */
+    static class TestDynamicConfiguration implements DynamicConfiguration {
+
+        private final Map<String, String> rules = new ConcurrentHashMap<>();
+
+        private final Map<String, List<ConfigurationListener>> listeners = new ConcurrentHashMap<>();
+
+        void publish(String key, String rule) {
+            rules.put(key, rule);
+            fire(new ConfigChangeEvent(key, rule));
+        }
+
+        void remove(String key) {
+            rules.remove(key);
+            fire(new ConfigChangeEvent(key, null, ConfigChangeType.DELETED));
+        }
+
+        void clear() {
+            for (String key : rules.keySet()) {
+                remove(key);
+            }
+        }
+
+        private void fire(ConfigChangeEvent event) {
+            for (ConfigurationListener listener : listeners.getOrDefault(event.getKey(), Collections.emptyList())) {
+                listener.process(event);
+            }
+        }
+
+        @Override
+        public void addListener(String key, String group, ConfigurationListener listener) {
+            listeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
+        }
+
+        @Override
+        public void removeListener(String key, String group, ConfigurationListener listener) {
+            listeners.getOrDefault(key, Collections.emptyList()).remove(listener);
+        }
+
+        @Override
+        public String getRule(String key, String group, long timeout) {
+            return rules.get(key);
+        }
+
+        @Override
+        public String getProperties(String key, String group, long timeout) {
+            return null;
+        }
+
+        @Override
+        public Object getInternalProperty(String key) {
+            return null;
+        }
+    }
+
+    static class TestRegistry implements Registry {
+
+        private final URL url;
+
+        private final List<URL> subscribed;
+
+        TestRegistry(URL url, List<URL> subscribed) {
+            this.url = url;
+            this.subscribed = subscribed;
+        }
+
+        @Override
+        public URL getUrl() {
+            return url;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public void register(URL url) {
+        }
+
+        @Override
+        public void unregister(URL url) {
+        }
+
+        @Override
+        public void subscribe(URL url, NotifyListener listener) {
+            if (!subscribed.isEmpty()) {
+                listener.notify(subscribed);
+            }
+        }
+
+        @Override
+        public void unsubscribe(URL url, NotifyListener listener) {
+        }
+
+        @Override
+        public List<URL> lookup(URL url) {
+            return Collections.emptyList();
+        }
+    }
+}
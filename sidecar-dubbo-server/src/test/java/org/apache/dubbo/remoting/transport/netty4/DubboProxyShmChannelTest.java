@@ -0,0 +1,138 @@
+package org.apache.dubbo.remoting.transport.netty4;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.Codec2;
+import org.apache.dubbo.remoting.buffer.ChannelBuffer;
+import org.apache.dubbo.remoting.transport.ChannelHandlerAdapter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DubboProxyShmChannelTest {
+
+    private static final URL URL = new URL("dubbo", "127.0.0.1", 20880);
+
+    private static final int CAPACITY = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<byte[]> received = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testRingWrapsAround() throws Exception {
+        DubboProxyShmSegment client = DubboProxyShmSegment.create(folder.getRoot(), CAPACITY);
+        DubboProxyShmSegment server = DubboProxyShmSegment.open(client.getFile());
+        DubboProxyShmSegment.Ring writer = client.getRing(true);
+        DubboProxyShmSegment.Ring reader = server.getRing(true);
+
+        // 每次写入的长度与容量互质, 写读位置逐步跨过环尾
+        for (int i = 0; i < 20; i++) {
+            byte[] data = bytes(i, 40);
+            ByteBuf src = Unpooled.wrappedBuffer(data);
+            assertEquals(data.length, writer.write(src));
+            ByteBuf dst = Unpooled.buffer();
+            assertEquals(data.length, reader.read(dst));
+            assertArrayEquals(data, toArray(dst));
+        }
+
+        // 环满时只写入空闲空间能容纳的部分
+        ByteBuf src = Unpooled.wrappedBuffer(bytes(20, CAPACITY + 10));
+        assertEquals(CAPACITY, writer.write(src));
+        assertEquals(0, writer.write(src));
+        assertEquals(CAPACITY, reader.readableBytes());
+        ByteBuf dst = Unpooled.buffer();
+        reader.read(dst);
+        assertEquals(10, writer.write(src));
+        reader.read(dst);
+        assertArrayEquals(bytes(20, CAPACITY + 10), toArray(dst));
+    }
+
+    @Test
+    public void testSendDoesNotWaitForFullRing() throws Exception {
+        DubboProxyShmSegment segment = DubboProxyShmSegment.create(folder.getRoot(), CAPACITY);
+        DubboProxyShmChannel client = new DubboProxyShmChannel(segment, true, URL, new ChannelHandlerAdapter(),
+                new LengthFieldCodec());
+        DubboProxyShmChannel server = new DubboProxyShmChannel(DubboProxyShmSegment.open(segment.getFile()), false,
+                URL, new ChannelHandlerAdapter() {
+            @Override
+            public void received(Channel channel, Object message) {
+                received.add((byte[]) message);
+            }
+        }, new LengthFieldCodec());
+
+        // 两帧都超过环容量, 放不下的部分排队后立即返回
+        byte[] first = bytes(1, CAPACITY * 3);
+        byte[] second = bytes(2, CAPACITY * 2);
+        client.send(first);
+        client.send(second);
+        assertEquals(0, received.size());
+
+        for (int i = 0; i < 100 && received.size() < 2; i++) {
+            assertTrue(server.poll() >= 0);
+            assertTrue(client.poll() >= 0);
+        }
+        assertEquals(2, received.size());
+        assertArrayEquals(first, received.get(0));
+        assertArrayEquals(second, received.get(1));
+
+        client.close();
+        server.poll();
+        server.release();
+        client.release();
+    }
+
+    private static byte[] bytes(int seed, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed * 31 + i);
+        }
+        return data;
+    }
+
+    private static byte[] toArray(ByteBuf buf) {
+        byte[] data = new byte[buf.readableBytes()];
+        buf.readBytes(data);
+        return data;
+    }
+
+    /**
+     * 两字节长度前缀 + 字节数组的帧
+     */
+    private static class LengthFieldCodec implements Codec2 {
+
+        @Override
+        public void encode(Channel channel, ChannelBuffer buffer, Object message) {
+            byte[] data = (byte[]) message;
+            buffer.writeByte(data.length >>> 8);
+            buffer.writeByte(data.length);
+            buffer.writeBytes(data);
+        }
+
+        @Override
+        public Object decode(Channel channel, ChannelBuffer buffer) {
+            if (buffer.readableBytes() < 2) {
+                return DecodeResult.NEED_MORE_INPUT;
+            }
+            int length = (buffer.getByte(buffer.readerIndex()) & 0xff) << 8
+                    | buffer.getByte(buffer.readerIndex() + 1) & 0xff;
+            if (buffer.readableBytes() < 2 + length) {
+                return DecodeResult.NEED_MORE_INPUT;
+            }
+            buffer.skipBytes(2);
+            byte[] data = new byte[length];
+            buffer.readBytes(data);
+            return data;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DubboProxyAttachmentTableTest {
+
+    private final DubboProxyAttachmentTable encoder = new DubboProxyAttachmentTable();
+
+    private final DubboProxyAttachmentTable decoder = new DubboProxyAttachmentTable();
+
+    @Test
+    public void testRepeatedValueIsIndexed() throws Exception {
+        Map<String, String> attachments = new HashMap<>();
+        attachments.put("interface", "com.example.DemoService");
+        attachments.put("timeout", "3000");
+
+        int first = roundTrip(attachments);
+        int second = roundTrip(attachments);
+        // 第二次出现时加入表, 之后只写出索引
+        int third = roundTrip(attachments);
+        assertEquals(first, second);
+        assertTrue(third < second);
+        assertEquals(1 + attachments.size(), third);
+    }
+
+    @Test
+    public void testChangingValueKeepsNameReference() throws Exception {
+        Map<String, String> attachments = new HashMap<>();
+        attachments.put("trace.id", "a");
+        roundTrip(attachments);
+        attachments.put("trace.id", "a");
+        roundTrip(attachments);
+        for (int i = 0; i < 100; i++) {
+            attachments.put("trace.id", "trace-" + i);
+            roundTrip(attachments);
+        }
+        attachments.put("trace.id", "a");
+        assertEquals(2, roundTrip(attachments));
+    }
+
+    @Test
+    public void testEvictionKeepsBothSidesInSync() throws Exception {
+        Map<String, String> attachments = new HashMap<>();
+        // 每个条目都要出现两次才加入表, 远超表大小的条目数使最早的条目被淘汰
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < DubboProxyAttachmentTable.MAX_SIZE / 16; i++) {
+                attachments.clear();
+                attachments.put("key-" + (i % 7), "value-" + i);
+                roundTrip(attachments);
+                roundTrip(attachments);
+                roundTrip(attachments);
+            }
+        }
+        // 早已淘汰的条目按字面值重新写出
+        attachments.clear();
+        attachments.put("key-0", "value-0");
+        roundTrip(attachments);
+    }
+
+    @Test
+    public void testUncommittedFrameIsDiscarded() throws Exception {
+        Map<String, String> attachments = new HashMap<>();
+        attachments.put("tag", "gray");
+        roundTrip(attachments);
+
+        // 第二次出现时编码为待加入, 帧编码失败没有提交也没有发出
+        encoder.encode(attachments, new ByteArrayOutputStream());
+
+        // 对端的表没有这个条目, 下一帧不能引用它
+        roundTrip(attachments);
+        assertEquals(2, roundTrip(attachments));
+    }
+
+    @Test
+    public void testIndexOutOfRangeIsRejected() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(1);
+        // 相对索引 5, 表为空
+        os.write(5 << 2 | 1);
+        try {
+            decoder.decode(new ByteArrayInputStream(os.toByteArray()));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("out of range"));
+        }
+    }
+
+    /**
+     * @return 编码后的字节数
+     */
+    private int roundTrip(Map<String, String> attachments) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        encoder.encode(attachments, os);
+        encoder.commit();
+        byte[] bytes = os.toByteArray();
+        assertEquals(attachments, decoder.decode(new ByteArrayInputStream(bytes)));
+        return bytes.length;
+    }
+}
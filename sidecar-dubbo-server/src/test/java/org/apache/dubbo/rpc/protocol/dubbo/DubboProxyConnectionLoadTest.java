@@ -0,0 +1,44 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.remoting.exchange.Response;
+import org.apache.dubbo.remoting.exchange.support.DefaultFuture;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DubboProxyConnectionLoadTest {
+
+    private final ExchangeClient client = TestExchangeClient.create(new URL("dubbo", "127.0.0.1", 20880));
+
+    private final DubboProxyConnectionLoad load = DubboProxyConnectionLoad.of(client);
+
+    @Test
+    public void testRequestBytesSettleWhenFutureCompletes() {
+        Request answered = new Request();
+        Request closed = new Request();
+        DefaultFuture.newFuture(client, answered, 60000);
+        DefaultFuture.newFuture(client, closed, 60000);
+        load.sent(answered.getId(), 100);
+        load.sent(closed.getId(), 10);
+        assertEquals(110, load.getBytes());
+
+        DefaultFuture.received(client, new Response(answered.getId()));
+        assertEquals(10, load.getBytes());
+        // 连接关闭时未收到响应的请求同样扣除
+        DefaultFuture.closeChannel(client);
+        assertEquals(0, load.getBytes());
+    }
+
+    @Test
+    public void testCompletedRequestIsNotCounted() {
+        Request request = new Request();
+        DefaultFuture.newFuture(client, request, 60000);
+        DefaultFuture.received(client, new Response(request.getId()));
+
+        load.sent(request.getId(), 100);
+        assertEquals(0, load.getBytes());
+    }
+}
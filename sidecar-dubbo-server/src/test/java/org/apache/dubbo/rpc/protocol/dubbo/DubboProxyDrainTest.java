@@ -0,0 +1,83 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.status.Status;
+import org.apache.dubbo.common.utils.ConcurrentHashSet;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.rpc.service.GenericService;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DubboProxyDrainTest {
+
+    @Test
+    public void testDrainedOnceRequestsComplete() throws Exception {
+        DubboProxyInvoker<?> invoker = newInvoker("10.0.0.1");
+        DubboProxyInFlightTable table = getTable(invoker);
+        long id = table.put(null, new Request(), 60000, invoker.getForwarding());
+        long drained = DubboProxyDrain.getDrained();
+        long expired = DubboProxyDrain.getExpired();
+
+        DubboProxyDrain.retire(invoker, 60000);
+        Thread.sleep(200);
+        assertFalse(invoker.isDestroyed());
+
+        assertTrue(table.remove(id));
+        awaitDestroyed(invoker);
+        assertEquals(drained + 1, DubboProxyDrain.getDrained());
+        assertEquals(expired, DubboProxyDrain.getExpired());
+        assertTrue(DubboProxyDrain.getMaxDrainMillis() >= 200);
+    }
+
+    @Test
+    public void testDestroyedAfterTimeout() throws Exception {
+        DubboProxyInvoker<?> invoker = newInvoker("10.0.0.2");
+        getTable(invoker).put(null, new Request(), 60000, invoker.getForwarding());
+        long drained = DubboProxyDrain.getDrained();
+        long expired = DubboProxyDrain.getExpired();
+
+        long begin = System.currentTimeMillis();
+        DubboProxyDrain.retire(invoker, 100);
+        awaitDestroyed(invoker);
+        assertTrue(System.currentTimeMillis() - begin >= 100);
+        assertEquals(drained, DubboProxyDrain.getDrained());
+        assertEquals(expired + 1, DubboProxyDrain.getExpired());
+        assertEquals(Status.Level.WARN, new DubboProxyDrainStatusChecker().check().getLevel());
+    }
+
+    @Test
+    public void testIdleInvokerIsDestroyed() throws Exception {
+        DubboProxyInvoker<?> invoker = newInvoker("10.0.0.3");
+        long drained = DubboProxyDrain.getDrained();
+
+        DubboProxyDrain.retire(invoker, 60000);
+        awaitDestroyed(invoker);
+        assertEquals(drained + 1, DubboProxyDrain.getDrained());
+    }
+
+    private static DubboProxyInvoker<?> newInvoker(String host) {
+        URL url = URL.valueOf("dubbo://" + host + ":20880/com.example.DemoService");
+        ExchangeClient client = TestExchangeClient.create(url);
+        client.setAttribute(DubboProxyInFlightTable.KEY, DubboProxyForwarder.getInstance().newTable(client, 16));
+        DubboProxyInvoker<?> invoker = new DubboProxyInvoker<>(GenericService.class, url,
+                new ExchangeClient[]{client}, new ConcurrentHashSet<>(), false);
+        DubboProxyDrain.register(invoker);
+        return invoker;
+    }
+
+    private static DubboProxyInFlightTable getTable(DubboProxyInvoker<?> invoker) {
+        return (DubboProxyInFlightTable) invoker.getClients()[0].getAttribute(DubboProxyInFlightTable.KEY);
+    }
+
+    private static void awaitDestroyed(DubboProxyInvoker<?> invoker) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!invoker.isDestroyed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(invoker.isDestroyed());
+    }
+}
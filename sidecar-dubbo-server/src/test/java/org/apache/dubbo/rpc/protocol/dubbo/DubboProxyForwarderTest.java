@@ -0,0 +1,252 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.timer.Timeout;
+import org.apache.dubbo.common.timer.Timer;
+import org.apache.dubbo.common.timer.TimerTask;
+import org.apache.dubbo.common.utils.ConcurrentHashSet;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.RpcInvocation;
+import org.apache.dubbo.rpc.service.GenericService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.METHOD_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.PATH_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.TIMEOUT_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.VERSION_KEY;
+import static org.apache.dubbo.remoting.Constants.CHANNEL_ATTRIBUTE_READONLY_KEY;
+import static org.apache.dubbo.rpc.cluster.Constants.REMOTE_TIMESTAMP_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SLOW_START_WINDOW_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DubboProxyForwarderTest {
+
+    private static final String SERVICE = "com.example.DemoService";
+
+    private static final int REQUESTS = 1000;
+
+    private final DubboProxyForwarder forwarder = DubboProxyForwarder.getInstance();
+
+    private final List<DubboProxyInvoker<?>> invokers = new ArrayList<>();
+
+    private final RecordingTimer timer = new RecordingTimer();
+
+    /**
+     * 目录缓存的路由结果, 为 null 时表示没有缓存
+     */
+    private volatile List<Invoker<?>> routed = new CopyOnWriteArrayList<>();
+
+    private final DubboProxyRouteCache routeCache = new DubboProxyRouteCache() {
+
+        @Override
+        public <R> R getCachedRoute(String method, Map<String, String> attachments,
+                                    Function<List<? extends Invoker<?>>, R> resolver) {
+            return routed == null ? null : resolver.apply(routed);
+        }
+    };
+
+    /**
+     * <上游引用, 转发到该引用的请求数>
+     */
+    private final Map<DubboProxyInvoker<?>, AtomicInteger> forwarded = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() {
+        forwarder.addRouteCache(SERVICE, routeCache);
+    }
+
+    @After
+    public void tearDown() {
+        forwarder.removeRouteCache(SERVICE, routeCache);
+        for (DubboProxyInvoker<?> invoker : invokers) {
+            forwarder.removeUpstream(invoker);
+        }
+    }
+
+    @Test
+    public void testSlowStartingProviderReceivesLess() {
+        DubboProxyInvoker<?> warm = addInvoker("10.0.0.1", 0);
+        DubboProxyInvoker<?> starting = addInvoker("10.0.0.2", System.currentTimeMillis());
+
+        forwardAll();
+        assertTrue(count(starting) < REQUESTS * 0.05);
+        assertEquals(REQUESTS, count(warm) + count(starting));
+    }
+
+    @Test
+    public void testFallbackToFirstAvailableProvider() {
+        long now = System.currentTimeMillis();
+        DubboProxyInvoker<?> unavailable = addInvoker("10.0.0.1", 0);
+        unavailable.getClients()[0].setAttribute(CHANNEL_ATTRIBUTE_READONLY_KEY, Boolean.TRUE);
+        DubboProxyInvoker<?> first = addInvoker("10.0.0.2", now);
+        DubboProxyInvoker<?> second = addInvoker("10.0.0.3", now);
+
+        // 可用的上游都在慢启动中, 没有上游接收的请求转发到轮询中第一个可用的上游, 不会退回调用链
+        forwardAll();
+        assertEquals(0, count(unavailable));
+        assertEquals(REQUESTS, count(first) + count(second));
+        assertTrue(count(first) > 0 && count(second) > 0);
+    }
+
+    @Test
+    public void testNoAvailableProviderIsNotForwarded() {
+        DubboProxyInvoker<?> unavailable = addInvoker("10.0.0.1", 0);
+        unavailable.getClients()[0].setAttribute(CHANNEL_ATTRIBUTE_READONLY_KEY, Boolean.TRUE);
+
+        assertFalse(forwarder.forward(null, newRequest()));
+    }
+
+    @Test
+    public void testUncachedRouteIsNotForwarded() {
+        addInvoker("10.0.0.1", 0);
+        routed = null;
+
+        assertFalse(forwarder.forward(null, newRequest()));
+    }
+
+    @Test
+    public void testOnlyRoutedProvidersReceive() {
+        DubboProxyInvoker<?> routedOut = addInvoker("10.0.0.1", 0);
+        DubboProxyInvoker<?> kept = addInvoker("10.0.0.2", 0);
+        routed.remove(routedOut);
+
+        forwardAll();
+        assertEquals(0, count(routedOut));
+        assertEquals(REQUESTS, count(kept));
+    }
+
+    @Test
+    public void testRouteWithUnknownInvokerIsNotForwarded() {
+        DubboProxyInvoker<?> invoker = addInvoker("10.0.0.1", 0);
+        // 路由结果中的引用没有注册为转发上游, 例如引用尚未建立完成或不是 dubbo-proxy-server 协议
+        forwarder.removeUpstream(invoker);
+
+        assertFalse(forwarder.forward(null, newRequest()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTimeoutFromRequestAttachment() {
+        addInvoker("10.0.0.1", 0);
+        Request request = newRequest();
+        ((Map<String, String>) ((RpcInvocation) request.getData()).getArguments()[2]).put(TIMEOUT_KEY, "1234");
+        assertTrue(forwarder.forward(null, request));
+
+        assertEquals(Long.valueOf(1234), timer.delays.get(timer.delays.size() - 1));
+    }
+
+    private void forwardAll() {
+        for (int i = 0; i < REQUESTS; i++) {
+            assertTrue(forwarder.forward(null, newRequest()));
+        }
+    }
+
+    private int count(DubboProxyInvoker<?> invoker) {
+        AtomicInteger count = forwarded.get(invoker);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @param registered provider 注册时间, 为 0 时不慢启动
+     */
+    private DubboProxyInvoker<?> addInvoker(String host, long registered) {
+        URL url = URL.valueOf("dubbo://" + host + ":20880/" + SERVICE)
+                .addParameter(SLOW_START_WINDOW_KEY, registered > 0 ? 600000 : 0);
+        if (registered > 0) {
+            url = url.addParameter(REMOTE_TIMESTAMP_KEY, registered);
+        }
+        DubboProxyInvoker<?>[] holder = new DubboProxyInvoker<?>[1];
+        ExchangeClient client = TestExchangeClient.create(url, (c, message) ->
+                forwarded.computeIfAbsent(holder[0], key -> new AtomicInteger()).incrementAndGet());
+        // 请求表足够容纳全部请求, 测试中不会有响应
+        client.setAttribute(DubboProxyInFlightTable.KEY,
+                new DubboProxyInFlightTable(client, REQUESTS * 2, timer, forwarder));
+        holder[0] = new DubboProxyInvoker<>(GenericService.class, url, new ExchangeClient[]{client},
+                new ConcurrentHashSet<>(), false);
+        forwarder.addUpstream(holder[0]);
+        invokers.add(holder[0]);
+        routed.add(holder[0]);
+        return holder[0];
+    }
+
+    private static Request newRequest() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(PATH_KEY, SERVICE);
+        headers.put(METHOD_KEY, "sayHello");
+        RpcInvocation inv = new RpcInvocation("$invoke", new Class<?>[0], new Object[]{
+                DubboProxyPayload.wrap(new byte[0]), headers, new HashMap<String, String>()});
+        Request request = new Request();
+        request.setTwoWay(true);
+        request.setData(inv);
+        return request;
+    }
+
+    /**
+     * 记录每个请求的超时时间, 超时从不触发
+     */
+    private static class RecordingTimer implements Timer {
+
+        private final List<Long> delays = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+            delays.add(unit.toMillis(delay));
+            Timer timer = this;
+            return new Timeout() {
+                @Override
+                public Timer timer() {
+                    return timer;
+                }
+
+                @Override
+                public TimerTask task() {
+                    return task;
+                }
+
+                @Override
+                public boolean isExpired() {
+                    return false;
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return false;
+                }
+
+                @Override
+                public boolean cancel() {
+                    return true;
+                }
+            };
+        }
+
+        @Override
+        public Set<Timeout> stop() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public boolean isStop() {
+            return false;
+        }
+    }
+}
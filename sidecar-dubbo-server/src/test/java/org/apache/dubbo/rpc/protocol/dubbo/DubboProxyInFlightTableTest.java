@@ -0,0 +1,126 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.timer.HashedWheelTimer;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.remoting.exchange.Response;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DubboProxyInFlightTableTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+    private final List<Request> responded = new CopyOnWriteArrayList<>();
+
+    private final List<Request> timedOut = new CopyOnWriteArrayList<>();
+
+    private final List<Request> closed = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void testGrowsUpToCapacity() {
+        DubboProxyInFlightTable table = newTable(256);
+        Set<Long> ids = new HashSet<>();
+        for (long id = table.put(null, new Request(), 60000, inFlight); id != -1;
+             id = table.put(null, new Request(), 60000, inFlight)) {
+            assertTrue(id > 0);
+            assertTrue(ids.add(id));
+        }
+        // 从 64 个槽位开始增长, 上限处连续冲突时视为表满
+        assertTrue(ids.size() > 128 && ids.size() <= 256);
+        assertEquals(ids.size(), inFlight.get());
+
+        for (long id : ids) {
+            assertTrue(table.contains(id));
+            assertTrue(table.remove(id));
+            assertFalse(table.contains(id));
+        }
+        assertEquals(0, inFlight.get());
+        // 槽位复用后分配新的 id
+        long id = table.put(null, new Request(), 60000, inFlight);
+        assertFalse(ids.contains(id));
+    }
+
+    @Test
+    public void testCompleteCancelsTimeout() throws Exception {
+        DubboProxyInFlightTable table = newTable(16);
+        Request request = new Request();
+        long id = table.put(null, request, 50, inFlight);
+
+        assertTrue(table.complete(new Response(id)));
+        assertFalse(table.complete(new Response(id)));
+        assertFalse(table.complete(new Response(1)));
+        Thread.sleep(200);
+        assertEquals(1, responded.size());
+        assertEquals(0, timedOut.size());
+        assertEquals(0, inFlight.get());
+    }
+
+    @Test
+    public void testTimeoutByDeadline() throws Exception {
+        DubboProxyInFlightTable table = newTable(16);
+        Request slow = new Request();
+        Request fast = new Request();
+        long slowId = table.put(null, slow, 5000, inFlight);
+        table.put(null, fast, 50, inFlight);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (timedOut.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, timedOut.size());
+        assertSame(fast, timedOut.get(0));
+        assertTrue(table.contains(slowId));
+        assertEquals(1, inFlight.get());
+    }
+
+    @Test
+    public void testCloseFailsPendingRequests() {
+        DubboProxyInFlightTable table = newTable(16);
+        table.put(null, new Request(), 60000, inFlight);
+        table.put(null, new Request(), 60000, inFlight);
+
+        table.close();
+        assertEquals(2, closed.size());
+        assertEquals(0, inFlight.get());
+        assertEquals(-1, table.put(null, new Request(), 60000, inFlight));
+    }
+
+    private DubboProxyInFlightTable newTable(int capacity) {
+        return new DubboProxyInFlightTable(null, capacity, timer, new DubboProxyInFlightTable.Callback() {
+            @Override
+            public void onResponse(Channel source, Request request, Response response) {
+                responded.add(request);
+            }
+
+            @Override
+            public void onTimeout(Channel source, Request request, int timeout, Channel upstream) {
+                timedOut.add(request);
+            }
+
+            @Override
+            public void onClose(Channel source, Request request, Channel upstream) {
+                closed.add(request);
+            }
+        });
+    }
+}
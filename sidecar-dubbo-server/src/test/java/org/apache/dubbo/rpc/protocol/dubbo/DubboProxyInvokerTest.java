@@ -0,0 +1,132 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import io.netty.buffer.Unpooled;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.utils.ConcurrentHashSet;
+import org.apache.dubbo.remoting.buffer.ChannelBuffer;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.remoting.exchange.Response;
+import org.apache.dubbo.remoting.transport.netty4.DubboProxyChannelBuffer;
+import org.apache.dubbo.rpc.service.GenericService;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.dubbo.rpc.cluster.Constants.REMOTE_TIMESTAMP_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SLOW_START_WINDOW_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DubboProxyInvokerTest {
+
+    private static final int ADMITS = 10000;
+
+    @Test
+    public void testWarmProviderAdmitsAll() {
+        DubboProxyInvoker<?> invoker = newInvoker(provider()
+                .addParameter(REMOTE_TIMESTAMP_KEY, System.currentTimeMillis() - 60000)
+                .addParameter(SLOW_START_WINDOW_KEY, 30000));
+        assertEquals(ADMITS, countAdmits(invoker));
+    }
+
+    @Test
+    public void testAdmitRatioGrowsWithUptime() {
+        long now = System.currentTimeMillis();
+        DubboProxyInvoker<?> started = newInvoker(provider()
+                .addParameter(REMOTE_TIMESTAMP_KEY, now)
+                .addParameter(SLOW_START_WINDOW_KEY, 600000));
+        DubboProxyInvoker<?> half = newInvoker(provider()
+                .addParameter(REMOTE_TIMESTAMP_KEY, now - 300000)
+                .addParameter(SLOW_START_WINDOW_KEY, 600000));
+
+        // 刚上线时只接收最低比例, 一半窗口时接收约一半
+        assertTrue(countAdmits(started) < ADMITS * 0.05);
+        int admits = countAdmits(half);
+        assertTrue(admits > ADMITS * 0.4 && admits < ADMITS * 0.6);
+    }
+
+    @Test
+    public void testAdmitsAllAfterWindow() throws InterruptedException {
+        DubboProxyInvoker<?> invoker = newInvoker(provider()
+                .addParameter(REMOTE_TIMESTAMP_KEY, System.currentTimeMillis())
+                .addParameter(SLOW_START_WINDOW_KEY, 100));
+        Thread.sleep(150);
+        assertEquals(ADMITS, countAdmits(invoker));
+    }
+
+    @Test
+    public void testWarmupWaitsForEveryReply() {
+        Map<ExchangeClient, AtomicInteger> heartbeats = new ConcurrentHashMap<>();
+        ExchangeClient[] clients = new ExchangeClient[2];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = TestExchangeClient.create(provider(), (client, message) -> {
+                assertTrue(((Request) message).isHeartbeat());
+                heartbeats.computeIfAbsent(client, key -> new AtomicInteger()).incrementAndGet();
+                reply(client, (Request) message);
+            });
+        }
+
+        newInvoker(provider(), clients).warmup(5);
+        for (ExchangeClient client : clients) {
+            assertEquals(5, heartbeats.get(client).get());
+        }
+    }
+
+    @Test
+    public void testWarmupStopsWhenReplyIsMissing() {
+        AtomicInteger heartbeats = new AtomicInteger();
+        ExchangeClient client = TestExchangeClient.create(provider(), (c, message) -> {
+            // 只响应第一个心跳
+            if (heartbeats.incrementAndGet() == 1) {
+                reply(c, (Request) message);
+            }
+        });
+
+        long begin = System.currentTimeMillis();
+        newInvoker(provider(), client).warmup(5);
+        assertEquals(2, heartbeats.get());
+        assertTrue(System.currentTimeMillis() - begin >= 3000);
+    }
+
+    private static int countAdmits(DubboProxyInvoker<?> invoker) {
+        int admits = 0;
+        for (int i = 0; i < ADMITS; i++) {
+            if (invoker.admit()) {
+                admits++;
+            }
+        }
+        return admits;
+    }
+
+    /**
+     * 心跳响应经过编解码, 解码时完成等待中的 future
+     */
+    private static void reply(ExchangeClient client, Request request) {
+        Response response = new Response(request.getId(), request.getVersion());
+        response.setEvent(Request.HEARTBEAT_EVENT);
+        DubboProxyServerCodec codec = new DubboProxyServerCodec();
+        try {
+            ChannelBuffer buffer = new DubboProxyChannelBuffer(Unpooled.buffer());
+            codec.encode(client, buffer, response);
+            assertTrue(((Response) codec.decode(client, buffer)).isHeartbeat());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static URL provider() {
+        return URL.valueOf("dubbo://10.0.0.1:20880/com.example.DemoService");
+    }
+
+    private static DubboProxyInvoker<?> newInvoker(URL url, ExchangeClient... clients) {
+        if (clients.length == 0) {
+            clients = new ExchangeClient[]{TestExchangeClient.create(url)};
+        }
+        return new DubboProxyInvoker<>(GenericService.class, url, clients, new ConcurrentHashSet<>(), false);
+    }
+}
@@ -0,0 +1,133 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.common.Version;
+import org.apache.dubbo.common.serialize.ObjectInput;
+import org.apache.dubbo.remoting.Channel;
+import org.apache.dubbo.remoting.exchange.Request;
+import org.apache.dubbo.remoting.transport.CodecSupport;
+import org.apache.dubbo.remoting.transport.netty4.DubboProxyChannelBuffer;
+import org.apache.dubbo.rpc.RpcInvocation;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+import static org.apache.dubbo.common.constants.CommonConstants.GROUP_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.PATH_KEY;
+import static org.apache.dubbo.common.constants.CommonConstants.VERSION_KEY;
+import static org.apache.dubbo.remoting.Constants.DISPATCHER_KEY;
+import static org.apache.dubbo.rpc.cluster.Constants.TAG_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.Constants.DECODE_IN_IO_THREAD_KEY;
+import static org.apache.dubbo.rpc.protocol.dubbo.DubboProxyConstants.SINGLE_PASS_ENCODE_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DubboProxyServerCodecTest {
+
+    private static final URL URL = new URL("dubbo", "127.0.0.1", 20880)
+            .addParameter(SINGLE_PASS_ENCODE_KEY, true)
+            .addParameter(DECODE_IN_IO_THREAD_KEY, false);
+
+    @Test
+    public void testDeferredBodyIsCopiedForThreadPoolDispatch() throws Exception {
+        ByteBuf frame = encode(URL);
+        Request request = decode(URL, frame);
+
+        // 请求可能在解码前被线程池拒绝, 不能再持有帧的引用
+        assertEquals(1, frame.refCnt());
+        frame.release();
+        assertPayload(request).release();
+    }
+
+    @Test
+    public void testDeferredBodyIsRetainedForDirectDispatch() throws Exception {
+        URL url = URL.addParameter(DISPATCHER_KEY, "direct");
+        ByteBuf frame = encode(url);
+        Request request = decode(url, frame);
+        assertEquals(2, frame.refCnt());
+
+        DubboProxyPayload payload = assertPayload(request);
+        payload.release();
+        assertEquals(1, frame.refCnt());
+        frame.release();
+    }
+
+    @Test
+    public void testTablesRoundTripOnOneConnection() throws Exception {
+        Channel client = TestExchangeClient.create(URL);
+        Channel server = TestExchangeClient.create(URL);
+        // 第一帧登记服务与字面 attachments, 之后的帧引用服务 id 与动态表索引
+        for (int i = 0; i < 3; i++) {
+            ByteBuf frame = encode(client);
+            Request request = (Request) new DubboProxyServerCodec().decode(server, new DubboProxyChannelBuffer(frame));
+            assertFalse(request.isBroken());
+            assertPayload(request).release();
+            frame.release();
+        }
+        assertFalse(server.isClosed());
+    }
+
+    @Test
+    public void testTableMismatchClosesChannel() throws Exception {
+        Channel client = TestExchangeClient.create(URL);
+        encode(client).release();
+        ByteBuf frame = encode(client);
+
+        // 对端没有收到登记服务的第一帧, 两端的表已不一致
+        Channel server = TestExchangeClient.create(URL);
+        Request request = (Request) new DubboProxyServerCodec().decode(server, new DubboProxyChannelBuffer(frame));
+        assertTrue(request.isBroken());
+        assertTrue(server.isClosed());
+        frame.release();
+    }
+
+    private static ByteBuf encode(URL url) throws Exception {
+        return encode(TestExchangeClient.create(url));
+    }
+
+    private static ByteBuf encode(Channel channel) throws Exception {
+        RpcInvocation invocation = new RpcInvocation("sayHello", new Class<?>[]{String.class}, new Object[]{"dubbo"});
+        invocation.setAttachment(PATH_KEY, "com.example.DemoService");
+        invocation.setAttachment(VERSION_KEY, "1.0.0");
+        invocation.setAttachment(GROUP_KEY, "demo");
+        invocation.setAttachment(TAG_KEY, "gray");
+        Request request = new Request();
+        request.setVersion(Version.getProtocolVersion());
+        request.setTwoWay(true);
+        request.setData(invocation);
+        ByteBuf frame = Unpooled.buffer();
+        new DubboProxyClientCodec().encode(channel, new DubboProxyChannelBuffer(frame), request);
+        return frame;
+    }
+
+    private static Request decode(URL url, ByteBuf frame) throws Exception {
+        Channel channel = TestExchangeClient.create(url);
+        Request request = (Request) new DubboProxyServerCodec().decode(channel, new DubboProxyChannelBuffer(frame));
+        assertFalse(request.isBroken());
+        return request;
+    }
+
+    private static DubboProxyPayload assertPayload(Request request) throws Exception {
+        DecodeableRpcInvocation invocation = (DecodeableRpcInvocation) request.getData();
+        invocation.decode();
+        assertFalse(request.isBroken());
+        DubboProxyPayload payload = (DubboProxyPayload) invocation.getArguments()[0];
+        assertEquals("com.example.DemoService", ((Map<?, ?>) invocation.getArguments()[1]).get(PATH_KEY));
+        assertEquals("gray", ((Map<?, ?>) invocation.getArguments()[2]).get(TAG_KEY));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        payload.writeTo(bytes);
+        // payload 为完整的 dubbo 请求 body: dubbo 版本, path, version, 方法名, 参数描述, 参数
+        ObjectInput in = CodecSupport.getSerializationById(payload.getSerializationId())
+                .deserialize(URL, new ByteArrayInputStream(bytes.toByteArray()));
+        for (int i = 0; i < 5; i++) {
+            in.readUTF();
+        }
+        assertEquals("dubbo", in.readUTF());
+        return payload;
+    }
+}
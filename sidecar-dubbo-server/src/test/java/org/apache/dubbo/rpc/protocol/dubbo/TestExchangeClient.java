@@ -0,0 +1,70 @@
+package org.apache.dubbo.rpc.protocol.dubbo;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.remoting.exchange.ExchangeClient;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * 只保存属性与关闭状态的上游连接, 发出的消息交给测试处理, 不会真正收发数据
+ */
+final class TestExchangeClient {
+
+    private TestExchangeClient() {
+    }
+
+    static ExchangeClient create(URL url) {
+        return create(url, (client, message) -> {
+        });
+    }
+
+    /**
+     * @param sender 处理发出的消息
+     */
+    static ExchangeClient create(URL url, BiConsumer<ExchangeClient, Object> sender) {
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        AtomicBoolean closed = new AtomicBoolean();
+        return (ExchangeClient) Proxy.newProxyInstance(TestExchangeClient.class.getClassLoader(),
+                new Class<?>[]{ExchangeClient.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "send":
+                            sender.accept((ExchangeClient) proxy, args[0]);
+                            return null;
+                        case "getUrl":
+                            return url;
+                        case "getRemoteAddress":
+                            return new InetSocketAddress(url.getHost(), url.getPort());
+                        case "getAttribute":
+                            return attributes.get(args[0]);
+                        case "setAttribute":
+                            attributes.put((String) args[0], args[1]);
+                            return null;
+                        case "hasAttribute":
+                            return attributes.containsKey(args[0]);
+                        case "removeAttribute":
+                            attributes.remove(args[0]);
+                            return null;
+                        case "isConnected":
+                            return !closed.get();
+                        case "isClosed":
+                            return closed.get();
+                        case "close":
+                            closed.set(true);
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "client " + url.getAddress();
+                        default:
+                            return null;
+                    }
+                });
+    }
+}